@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.ValueBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.model.language.DatasonnetExpression;
+import org.hisp.dhis.integration.rapidpro.NativeDataSonnetLibrary;
+import org.hisp.dhis.integration.rapidpro.cache.CategoryOptionComboIndex;
+import org.hisp.dhis.integration.sdk.Dhis2ClientBuilder;
+import org.hisp.dhis.integration.sdk.api.Dhis2Client;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Measures the cost of mapping a report with <code>dataValueSet.ds</code> when category option combination codes are
+ * looked up on DHIS2 for every data value (<code>remote</code>) versus when they are served from
+ * {@link CategoryOptionComboIndex} (<code>index</code>). DHIS2 is stood in for by a local HTTP server so that the
+ * <code>remote</code> figures are a lower bound of the real network cost.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class CategoryOptionComboLookupBenchmark
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Param( { "remote", "index" } )
+    private String lookup;
+
+    @Param( { "10", "100" } )
+    private int resultCount;
+
+    private HttpServer dhis2Server;
+
+    private CamelContext camelContext;
+
+    private DatasonnetExpression dsExpression;
+
+    private Exchange exchange;
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws
+        IOException
+    {
+        List<String> catOptComboCodes = ReportFixture.catOptComboCodes();
+        dhis2Server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        dhis2Server.createContext( "/api/categoryOptionCombos", httpExchange -> {
+            String query = URLDecoder.decode( httpExchange.getRequestURI().getRawQuery(), StandardCharsets.UTF_8 );
+            String filter = query.contains( "$ilike:" ) ?
+                query.substring( query.indexOf( "$ilike:" ) + 7 ).split( "&" )[0].toLowerCase() :
+                "";
+            List<Map<String, String>> categoryOptionCombos = catOptComboCodes.stream()
+                .filter( code -> code.toLowerCase().contains( filter ) ).map( code -> Map.of( "code", code ) )
+                .collect( Collectors.toList() );
+            byte[] response = OBJECT_MAPPER.writeValueAsBytes(
+                Map.of( "categoryOptionCombos", categoryOptionCombos ) );
+            httpExchange.getResponseHeaders().add( "Content-Type", "application/json" );
+            httpExchange.sendResponseHeaders( 200, response.length );
+            try ( OutputStream outputStream = httpExchange.getResponseBody() )
+            {
+                outputStream.write( response );
+            }
+        } );
+        dhis2Server.start();
+
+        Dhis2Client dhis2Client = Dhis2ClientBuilder.newClient(
+            "http://localhost:" + dhis2Server.getAddress().getPort() + "/api", "admin", "district" ).build();
+
+        camelContext = new DefaultCamelContext();
+        CategoryOptionComboIndex categoryOptionComboIndex;
+        if ( lookup.equals( "remote" ) )
+        {
+            categoryOptionComboIndex = new CategoryOptionComboIndex()
+            {
+                @Override
+                public String lookup( String catOptComboCode )
+                {
+                    return fetch( catOptComboCode );
+                }
+            };
+        }
+        else
+        {
+            categoryOptionComboIndex = new CategoryOptionComboIndex();
+        }
+        ReflectionTestUtils.setField( categoryOptionComboIndex, "dhis2Client", dhis2Client );
+        ReflectionTestUtils.setField( categoryOptionComboIndex, "refreshSeconds", 300L );
+        ReflectionTestUtils.setField( categoryOptionComboIndex, "camelContext", camelContext );
+        categoryOptionComboIndex.postConstruct();
+
+        NativeDataSonnetLibrary nativeDataSonnetLibrary = new NativeDataSonnetLibrary();
+        ReflectionTestUtils.setField( nativeDataSonnetLibrary, "categoryOptionComboIndex",
+            categoryOptionComboIndex );
+
+        camelContext.getRegistry().bind( "native", nativeDataSonnetLibrary );
+        camelContext.start();
+
+        dsExpression = new DatasonnetExpression( "resource:classpath:dataValueSet.ds" );
+        dsExpression.setResultType( Map.class );
+        dsExpression.setBodyMediaType( "application/x-java-object" );
+        dsExpression.setOutputMediaType( "application/x-java-object" );
+
+        exchange = ReportFixture.exchange( camelContext, resultCount );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        camelContext.stop();
+        dhis2Server.stop( 0 );
+    }
+
+    @Benchmark
+    public Map<?, ?> mapReport()
+    {
+        return new ValueBuilder( dsExpression ).evaluate( exchange, Map.class );
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.ValueBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.model.language.DatasonnetExpression;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.api.model.v40_0.CategoryOptionCombo;
+import org.hisp.dhis.integration.rapidpro.NativeDataSonnetLibrary;
+import org.hisp.dhis.integration.rapidpro.cache.CategoryOptionComboIndex;
+import org.hisp.dhis.integration.rapidpro.processor.NativeDataValueSetMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Compares the cost of mapping a report to a data value set with <code>dataValueSet.ds</code> (<code>datasonnet</code>)
+ * versus {@link NativeDataValueSetMapper} (<code>native</code>). Category option combination codes are served from an
+ * in-memory index in both cases so that only the mapping itself is measured.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class DataValueSetMappingBenchmark
+{
+    @Param( { "datasonnet", "native" } )
+    private String engine;
+
+    @Param( { "10", "100", "1000" } )
+    private int resultCount;
+
+    private CamelContext camelContext;
+
+    private DatasonnetExpression dsExpression;
+
+    private NativeDataValueSetMapper nativeDataValueSetMapper;
+
+    private Map<String, Object> payload;
+
+    private List<String> dataElementCodes;
+
+    @Setup( Level.Trial )
+    public void setUp()
+    {
+        List<CategoryOptionCombo> categoryOptionCombos = ReportFixture.catOptComboCodes().stream()
+            .map( code -> new CategoryOptionCombo().withCode( code ) ).collect( Collectors.toList() );
+        camelContext = new DefaultCamelContext();
+        CategoryOptionComboIndex categoryOptionComboIndex = new CategoryOptionComboIndex()
+        {
+            @Override
+            protected Iterable<CategoryOptionCombo> fetchAll()
+            {
+                return categoryOptionCombos;
+            }
+        };
+        ReflectionTestUtils.setField( categoryOptionComboIndex, "refreshSeconds", 3600L );
+        ReflectionTestUtils.setField( categoryOptionComboIndex, "camelContext", camelContext );
+        categoryOptionComboIndex.postConstruct();
+
+        NativeDataSonnetLibrary nativeDataSonnetLibrary = new NativeDataSonnetLibrary();
+        ReflectionTestUtils.setField( nativeDataSonnetLibrary, "categoryOptionComboIndex",
+            categoryOptionComboIndex );
+        nativeDataValueSetMapper = new NativeDataValueSetMapper();
+        ReflectionTestUtils.setField( nativeDataValueSetMapper, "categoryOptionComboIndex",
+            categoryOptionComboIndex );
+
+        camelContext.getRegistry().bind( "native", nativeDataSonnetLibrary );
+        camelContext.start();
+
+        dsExpression = new DatasonnetExpression( "resource:classpath:dataValueSet.ds" );
+        dsExpression.setResultType( Map.class );
+        dsExpression.setBodyMediaType( "application/x-java-object" );
+        dsExpression.setOutputMediaType( "application/x-java-object" );
+
+        payload = ReportFixture.payload( resultCount );
+        dataElementCodes = ReportFixture.dataElementCodes( resultCount );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        camelContext.stop();
+    }
+
+    @Benchmark
+    public Object mapReport()
+    {
+        Exchange exchange = new DefaultExchange( camelContext );
+        exchange.getMessage().setHeader( "orgUnitId", "fdc6uOvgoji" );
+        exchange.getMessage().setHeader( "dataSetCode", "MAL_YEARLY" );
+        exchange.getMessage().setHeader( "period", "2023W1" );
+        exchange.getMessage().setHeader( "dataElementCodes", dataElementCodes );
+        exchange.getMessage().setBody( payload );
+
+        if ( engine.equals( "native" ) )
+        {
+            nativeDataValueSetMapper.process( exchange );
+            return exchange.getMessage().getBody();
+        }
+        else
+        {
+            return new ValueBuilder( dsExpression ).evaluate( exchange, Map.class );
+        }
+    }
+}
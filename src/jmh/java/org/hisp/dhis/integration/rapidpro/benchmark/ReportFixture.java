@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.support.DefaultExchange;
+
+/**
+ * Builds RapidPro flow run results, together with the DHIS2 data element and category option combination codes they
+ * map to, resembling the reports received in production.
+ */
+public final class ReportFixture
+{
+    public static final int CAT_OPT_COMBO_COUNT = 5;
+
+    private ReportFixture()
+    {
+    }
+
+    public static List<String> dataElementCodes( int resultCount )
+    {
+        List<String> dataElementCodes = new ArrayList<>();
+        for ( int i = 0; i < resultCount; i++ )
+        {
+            dataElementCodes.add( "MAL_DE " + i );
+        }
+        return dataElementCodes;
+    }
+
+    public static List<String> catOptComboCodes()
+    {
+        List<String> catOptComboCodes = new ArrayList<>();
+        for ( int i = 0; i < CAT_OPT_COMBO_COUNT; i++ )
+        {
+            catOptComboCodes.add( "MAL-COC-" + i );
+        }
+        return catOptComboCodes;
+    }
+
+    /**
+     * @param resultCount number of flow results where every other result is disaggregated by a category option
+     *                    combination
+     */
+    public static Map<String, Object> payload( int resultCount )
+    {
+        Map<String, Object> results = new LinkedHashMap<>();
+        for ( int i = 0; i < resultCount; i++ )
+        {
+            String resultName = "mal_de_" + i;
+            if ( i % 2 == 0 )
+            {
+                resultName = resultName + "__mal-coc-" + (i % CAT_OPT_COMBO_COUNT);
+            }
+            results.put( resultName, Map.of( "value", String.valueOf( i ) ) );
+        }
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put( "contact",
+            Map.of( "name", "John Doe", "urn", "tel:+12065551212", "uuid", UUID.randomUUID().toString() ) );
+        payload.put( "flow", Map.of( "name", "APT", "uuid", "cb0360e3-d82a-4521-aad3-15afd704ec26" ) );
+        payload.put( "results", results );
+
+        return payload;
+    }
+
+    public static Exchange exchange( CamelContext camelContext, int resultCount )
+    {
+        Exchange exchange = new DefaultExchange( camelContext );
+        exchange.getMessage().setHeader( "orgUnitId", "fdc6uOvgoji" );
+        exchange.getMessage().setHeader( "dataSetCode", "MAL_YEARLY" );
+        exchange.getMessage().setHeader( "period", "2023W1" );
+        exchange.getMessage().setHeader( "dataElementCodes", dataElementCodes( resultCount ) );
+        exchange.getMessage().setBody( payload( resultCount ) );
+
+        return exchange;
+    }
+}
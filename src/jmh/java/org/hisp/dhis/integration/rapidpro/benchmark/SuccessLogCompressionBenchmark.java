@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.hisp.dhis.integration.rapidpro.audit.SuccessLogCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares writing and reading back a <code>REPORT_SUCCESS_LOG</code> row with plain payloads (<code>none</code>)
+ * versus payloads deflated by {@link SuccessLogCodec} into the binary <code>_DEFLATED</code> columns
+ * (<code>deflate</code>). The stored size of the payloads is printed when the trial starts.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class SuccessLogCompressionBenchmark
+{
+    @Param( { "none", "deflate" } )
+    private String compression;
+
+    @Param( { "10", "100", "1000" } )
+    private int resultCount;
+
+    private Connection connection;
+
+    private PreparedStatement insertStatement;
+
+    private PreparedStatement selectStatement;
+
+    private String dhisRequest;
+
+    private String dhisResponse;
+
+    private String rapidProPayload;
+
+    private long rowId;
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws
+        Exception
+    {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, Object> payload = ReportFixture.payload( resultCount );
+        String contact = objectMapper.writeValueAsString( payload.get( "contact" ) );
+        List<Map<String, Object>> dataValues = new ArrayList<>();
+        for ( String resultName : ((Map<String, Object>) payload.get( "results" )).keySet() )
+        {
+            Map<String, Object> dataValue = new LinkedHashMap<>();
+            dataValue.put( "dataElement", resultName.toUpperCase() );
+            dataValue.put( "value", "2" );
+            dataValue.put( "comment", "RapidPro contact details: " + contact );
+            dataValues.add( dataValue );
+        }
+        rapidProPayload = objectMapper.writeValueAsString( payload );
+        dhisRequest = objectMapper.writeValueAsString(
+            Map.of( "dataSet", "MAL_YEARLY", "orgUnit", "fdc6uOvgoji", "period", "2023W1", "dataValues",
+                dataValues ) );
+        dhisResponse = objectMapper.writeValueAsString( Map.of( "status", "SUCCESS", "importCount",
+            Map.of( "imported", resultCount, "updated", 0, "ignored", 0, "deleted", 0 ) ) );
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL( "jdbc:h2:mem:successLogCompressionBenchmark;DB_CLOSE_DELAY=-1" );
+        connection = dataSource.getConnection();
+        try ( Statement statement = connection.createStatement() )
+        {
+            statement.execute( "DROP TABLE IF EXISTS REPORT_SUCCESS_LOG" );
+            statement.execute(
+                "CREATE TABLE REPORT_SUCCESS_LOG (id INTEGER PRIMARY KEY AUTO_INCREMENT, dhis_request VARCHAR, dhis_request_deflated VARBINARY, dhis_response VARCHAR, dhis_response_deflated VARBINARY, rapidpro_payload VARCHAR, rapidpro_payload_deflated VARBINARY, data_set_code VARCHAR NOT NULL, report_period_offset INTEGER NOT NULL, organisation_unit_id VARCHAR, created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP)" );
+        }
+        insertStatement = connection.prepareStatement(
+            "INSERT INTO REPORT_SUCCESS_LOG (dhis_request, dhis_request_deflated, dhis_response, dhis_response_deflated, rapidpro_payload, rapidpro_payload_deflated, data_set_code, report_period_offset, organisation_unit_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+            Statement.RETURN_GENERATED_KEYS );
+        selectStatement = connection.prepareStatement(
+            "SELECT dhis_request, dhis_request_deflated, dhis_response, dhis_response_deflated, rapidpro_payload, rapidpro_payload_deflated FROM REPORT_SUCCESS_LOG WHERE id = ?" );
+
+        rowId = writeRow();
+        System.out.printf( "%nStored payload size with %s compression and %s results: %d bytes (plain: %d)%n",
+            compression, resultCount, storedSize( dhisRequest ) + storedSize( dhisResponse ) + storedSize(
+                rapidProPayload ), plainSize( dhisRequest ) + plainSize( dhisResponse ) + plainSize( rapidProPayload ) );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+        throws
+        SQLException
+    {
+        try ( Statement statement = connection.createStatement() )
+        {
+            statement.execute( "DROP TABLE REPORT_SUCCESS_LOG" );
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public long writeRow()
+        throws
+        SQLException
+    {
+        setPayload( 1, dhisRequest );
+        setPayload( 3, dhisResponse );
+        setPayload( 5, rapidProPayload );
+        insertStatement.setString( 7, "MAL_YEARLY" );
+        insertStatement.setInt( 8, 0 );
+        insertStatement.setString( 9, "fdc6uOvgoji" );
+        insertStatement.executeUpdate();
+        try ( ResultSet generatedKeys = insertStatement.getGeneratedKeys() )
+        {
+            generatedKeys.next();
+            return generatedKeys.getLong( 1 );
+        }
+    }
+
+    @Benchmark
+    public int readRow()
+        throws
+        SQLException
+    {
+        selectStatement.setLong( 1, rowId );
+        try ( ResultSet resultSet = selectStatement.executeQuery() )
+        {
+            resultSet.next();
+            return getPayload( resultSet, 1 ).length() + getPayload( resultSet, 3 ).length() + getPayload( resultSet,
+                5 ).length();
+        }
+    }
+
+    private void setPayload( int parameterIndex, String payload )
+        throws
+        SQLException
+    {
+        byte[] deflatedPayload = deflate( payload );
+        insertStatement.setString( parameterIndex, deflatedPayload == null ? payload : null );
+        insertStatement.setBytes( parameterIndex + 1, deflatedPayload );
+    }
+
+    private String getPayload( ResultSet resultSet, int columnIndex )
+        throws
+        SQLException
+    {
+        String payload = resultSet.getString( columnIndex );
+        return payload != null ? payload : SuccessLogCodec.inflate( resultSet.getBytes( columnIndex + 1 ) );
+    }
+
+    private byte[] deflate( String payload )
+    {
+        return compression.equals( "deflate" ) ? SuccessLogCodec.deflate( payload ) : null;
+    }
+
+    private int storedSize( String payload )
+    {
+        byte[] deflatedPayload = deflate( payload );
+        return deflatedPayload == null ? plainSize( payload ) : deflatedPayload.length;
+    }
+
+    private int plainSize( String payload )
+    {
+        return payload.getBytes( StandardCharsets.UTF_8 ).length;
+    }
+}
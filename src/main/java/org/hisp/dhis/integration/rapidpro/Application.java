@@ -125,6 +125,15 @@ public class Application extends SpringBootServletInitializer
     @Value( "${sync.dhis2.events.to.rapidpro.flows}" )
     private Boolean syncDhisEvents;
 
+    @Value( "${report.delivery.batch.size:1}" )
+    private int reportDeliveryBatchSize;
+
+    @Value( "${report.import.mode:SYNC}" )
+    private String reportImportMode;
+
+    @Value( "${report.completion.mode:REGISTRATION}" )
+    private String reportCompletionMode;
+
     @Autowired
     private ArtemisProperties artemisProperties;
 
@@ -188,6 +197,18 @@ public class Application extends SpringBootServletInitializer
             terminate( "Missing RapidPro API token. Are you sure that you set `rapidpro.api.token`?" );
         }
 
+        if ( reportDeliveryBatchSize > 1 && "ASYNC".equals( reportImportMode ) )
+        {
+            terminate(
+                "Bad report delivery configuration: batched report delivery does not support asynchronous imports. Either set `report.delivery.batch.size` to `1` or `report.import.mode` to `SYNC`" );
+        }
+
+        if ( reportDeliveryBatchSize > 1 && "IMPORT".equals( reportCompletionMode ) )
+        {
+            terminate(
+                "Bad report delivery configuration: batched report delivery does not support completing data sets within the import. Either set `report.delivery.batch.size` to `1` or `report.completion.mode` to `REGISTRATION`" );
+        }
+
         if ( testConnectionOnStartUp )
         {
             testRapidProConnection();
@@ -238,6 +259,8 @@ public class Application extends SpringBootServletInitializer
                 .append( "/services/tasks/syncEvents\n" );
         }
         onlineBanner.append( " Remind contacts task: " ).append( baseUrl ).append( "/services/tasks/reminders\n" );
+        onlineBanner.append( " Invalidate data set cache task: " ).append( baseUrl )
+            .append( "/services/tasks/invalidateDataSetCache\n" );
 
         LOGGER.info(
             String.format( StreamUtils.copyToString(
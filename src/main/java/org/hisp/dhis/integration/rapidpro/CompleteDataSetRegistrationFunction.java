@@ -30,8 +30,11 @@ package org.hisp.dhis.integration.rapidpro;
 import org.apache.camel.Exchange;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 @Component
@@ -41,9 +44,26 @@ public class CompleteDataSetRegistrationFunction implements Function<Exchange, O
     @Override
     public Object apply( Exchange exchange )
     {
-        return Map.of( "completeDataSetRegistrations", List.of(
-            Map.of( "completed", true, "dataSet", exchange.getMessage().getHeader( "dataSetCode" ), "organisationUnit",
-                exchange.getMessage().getHeader( "orgUnitId" ), "period",
-                exchange.getMessage().getHeader( "period" ) ) ) );
+        Object body = exchange.getMessage().getBody();
+        if ( body instanceof List )
+        {
+            Set<Map<String, Object>> completeDataSetRegistrations = new LinkedHashSet<>();
+            for ( Exchange batchedReport : (List<Exchange>) body )
+            {
+                completeDataSetRegistrations.add( toCompleteDataSetRegistration( batchedReport ) );
+            }
+            return Map.of( "completeDataSetRegistrations", new ArrayList<>( completeDataSetRegistrations ) );
+        }
+        else
+        {
+            return Map.of( "completeDataSetRegistrations", List.of( toCompleteDataSetRegistration( exchange ) ) );
+        }
+    }
+
+    protected Map<String, Object> toCompleteDataSetRegistration( Exchange exchange )
+    {
+        return Map.of( "completed", true, "dataSet", exchange.getMessage().getHeader( "dataSetCode" ),
+            "organisationUnit", exchange.getMessage().getHeader( "orgUnitId" ), "period",
+            exchange.getMessage().getHeader( "period" ) );
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.aggregationStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.support.DefaultExchange;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Groups transformed reports into batches of up to <code>report.delivery.batch.size</code> reports of the same data
+ * set. Reports that failed to transform are left out since these were already saved to the dead letter channel.
+ */
+@Component
+public class ReportBatchAggrStrategy extends AbstractAggregationStrategy
+{
+    @Value( "${report.delivery.batch.size:1}" )
+    private int batchSize;
+
+    @Override
+    public Exchange doAggregate( Exchange oldExchange, Exchange newExchange )
+        throws
+        Exception
+    {
+        if ( oldExchange == null )
+        {
+            oldExchange = new DefaultExchange( newExchange.getContext() );
+            oldExchange.getMessage().setBody( new ArrayList<List<Exchange>>() );
+        }
+        if ( newExchange.getProperty( Exchange.EXCEPTION_CAUGHT ) != null || newExchange.isFailed() )
+        {
+            return oldExchange;
+        }
+
+        List<List<Exchange>> batches = oldExchange.getMessage().getBody( List.class );
+        Object dataSetCode = newExchange.getMessage().getHeader( "dataSetCode" );
+        for ( List<Exchange> batch : batches )
+        {
+            if ( batch.size() < batchSize && Objects.equals( dataSetCode,
+                batch.get( 0 ).getMessage().getHeader( "dataSetCode" ) ) )
+            {
+                batch.add( newExchange );
+                return oldExchange;
+            }
+        }
+        List<Exchange> batch = new ArrayList<>();
+        batch.add( newExchange );
+        batches.add( batch );
+
+        return oldExchange;
+    }
+}
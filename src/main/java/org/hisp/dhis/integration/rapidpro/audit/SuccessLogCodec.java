@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.audit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses and decompresses success log payloads. A compressed payload is zlib-deflated and stored as is in the
+ * binary <code>_DEFLATED</code> column next to the payload's VARCHAR column, which is left empty. Rows are read back
+ * through {@link #decompress(Map)} so that callers see the payload columns whichever way they were stored. On H2, the
+ * <code>SUCCESS_LOG_INFLATE</code> SQL function wraps {@link #inflate(byte[])} for querying the table directly.
+ */
+public final class SuccessLogCodec
+{
+    public static final String DEFLATED_COLUMN_SUFFIX = "_deflated";
+
+    private SuccessLogCodec()
+    {
+    }
+
+    /**
+     * @return the deflated payload or <code>null</code> when deflating does not make the payload smaller
+     */
+    public static byte[] deflate( String payload )
+    {
+        if ( payload == null )
+        {
+            return null;
+        }
+
+        byte[] payloadBytes = payload.getBytes( StandardCharsets.UTF_8 );
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+        try ( DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream( byteArrayOutputStream, deflater ) )
+        {
+            deflaterOutputStream.write( payloadBytes );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        return byteArrayOutputStream.size() < payloadBytes.length ? byteArrayOutputStream.toByteArray() : null;
+    }
+
+    /**
+     * @return the inflated payload or <code>null</code> when there is no deflated payload
+     */
+    public static String inflate( byte[] deflatedPayload )
+    {
+        if ( deflatedPayload == null )
+        {
+            return null;
+        }
+
+        try ( InflaterInputStream inflaterInputStream = new InflaterInputStream(
+            new ByteArrayInputStream( deflatedPayload ) ) )
+        {
+            return new String( inflaterInputStream.readAllBytes(), StandardCharsets.UTF_8 );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Replaces the <code>_DEFLATED</code> columns of a success log row with their inflated payload columns.
+     */
+    public static void decompress( Map<String, Object> row )
+    {
+        for ( String column : new ArrayList<>( row.keySet() ) )
+        {
+            if ( column.toLowerCase().endsWith( DEFLATED_COLUMN_SUFFIX ) )
+            {
+                byte[] deflatedPayload = (byte[]) row.remove( column );
+                if ( deflatedPayload != null )
+                {
+                    row.put( column.substring( 0, column.length() - DEFLATED_COLUMN_SUFFIX.length() ),
+                        inflate( deflatedPayload ) );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.audit;
+
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Partitions the success log tables by the month of <code>created_at</code> when
+ * <code>success.log.partitioning.enabled</code> is set to <code>true</code> on PostgreSQL. An existing, unpartitioned
+ * table is turned into the partition holding all rows created up to the end of the current month. Its primary key
+ * index on <code>(id, created_at)</code> is built concurrently and a validated <code>CHECK</code> constraint on
+ * <code>created_at</code> lets PostgreSQL attach the table without building indexes or scanning it while holding an
+ * exclusive lock, and a transaction-level advisory lock keeps instances sharing the database from
+ * partitioning the same table at once. Partitions are named after their table and month (e.g.,
+ * <code>REPORT_SUCCESS_LOG_202210</code>) and are created <code>success.log.partitions.ahead</code> months in advance.
+ */
+@Component
+public class SuccessLogPartitionManager
+{
+    public static final List<String> TABLES = List.of( "REPORT_SUCCESS_LOG", "EVENT_SUCCESS_LOG" );
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( SuccessLogPartitionManager.class );
+
+    private static final DateTimeFormatter PARTITION_SUFFIX_FORMATTER = DateTimeFormatter.ofPattern( "uuuuMM" );
+
+    private static final Pattern PARTITION_SUFFIX_PATTERN = Pattern.compile( "_(\\d{6})$" );
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value( "${spring.sql.init.platform}" )
+    private String platform;
+
+    @Value( "${success.log.partitioning.enabled:false}" )
+    private boolean partitioningEnabled;
+
+    @Value( "${success.log.partitions.ahead:2}" )
+    private int partitionsAhead;
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        if ( isEnabled() )
+        {
+            for ( String table : TABLES )
+            {
+                if ( !isPartitioned( table ) )
+                {
+                    partition( table );
+                }
+                createUpcomingPartitions( table );
+            }
+        }
+        else if ( partitioningEnabled )
+        {
+            LOGGER.warn( "Ignoring success log partitioning given that it is not supported on {}", platform );
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return partitioningEnabled && platform.equals( "postgresql" );
+    }
+
+    public void createUpcomingPartitions( String table )
+    {
+        YearMonth currentMonth = YearMonth.now( ZoneOffset.UTC );
+        for ( int i = 0; i <= partitionsAhead; i++ )
+        {
+            YearMonth month = currentMonth.plusMonths( i );
+            jdbcTemplate.execute(
+                String.format( "CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%s') TO ('%s')",
+                    getPartitionName( table, month ), table, toTimestampLiteral( month ),
+                    toTimestampLiteral( month.plusMonths( 1 ) ) ) );
+        }
+    }
+
+    /**
+     * Drops the partitions of a table that only hold rows created before the cut-off.
+     *
+     * @return number of dropped partitions
+     */
+    public int dropPartitionsBefore( String table, Instant cutoff )
+    {
+        List<String> partitions = jdbcTemplate.queryForList(
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ? AND pg_table_is_visible( p.oid )",
+            String.class, table.toLowerCase() );
+        List<String> expiredPartitions = getExpiredPartitions( partitions, cutoff );
+        for ( String partition : expiredPartitions )
+        {
+            LOGGER.info( "Dropping success log partition {}", partition );
+            jdbcTemplate.execute( "DROP TABLE " + partition );
+        }
+        return expiredPartitions.size();
+    }
+
+    protected boolean isPartitioned( String table )
+    {
+        return jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM pg_partitioned_table pt JOIN pg_class c ON c.oid = pt.partrelid WHERE c.relname = ? AND pg_table_is_visible( c.oid )",
+            Integer.class, table.toLowerCase() ) > 0;
+    }
+
+    protected void partition( String table )
+    {
+        YearMonth currentMonth = YearMonth.now( ZoneOffset.UTC );
+        String legacyPartition = getPartitionName( table, currentMonth );
+        String partitionBound = toTimestampLiteral( currentMonth.plusMonths( 1 ) );
+        String checkConstraint = table + "_partition_check";
+        LOGGER.info( "Partitioning {} by month: existing rows are kept in partition {}", table, legacyPartition );
+
+        // the partition key has to be part of the primary key so its index is built up front without blocking writes
+        String primaryKeyIndex = table + "_id_created_at_idx";
+        if ( !isPartitioned( table ) && getPrimaryKeyColumnCount( table ) == 1 )
+        {
+            jdbcTemplate.execute( (ConnectionCallback<Object>) connection -> {
+                try ( Statement statement = connection.createStatement() )
+                {
+                    statement.execute( String.format( "SELECT pg_advisory_lock( hashtext( '%s' ) )", table ) );
+                    try
+                    {
+                        statement.execute(
+                            String.format( "CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s (id, created_at)",
+                                primaryKeyIndex, table ) );
+                    }
+                    finally
+                    {
+                        statement.execute( String.format( "SELECT pg_advisory_unlock( hashtext( '%s' ) )", table ) );
+                    }
+                }
+                return null;
+            } );
+        }
+
+        // the constraint is validated in its own transaction so that writes to the table are not blocked meanwhile
+        transactionTemplate.executeWithoutResult( status -> {
+            if ( !lock( table ) )
+            {
+                return;
+            }
+            if ( getPrimaryKeyColumnCount( table ) == 1 )
+            {
+                jdbcTemplate.execute( String.format(
+                    "ALTER TABLE %s DROP CONSTRAINT %s_pkey, ADD CONSTRAINT %s_pkey PRIMARY KEY USING INDEX %s", table,
+                    table, table, primaryKeyIndex ) );
+            }
+            if ( !hasConstraint( table, checkConstraint ) )
+            {
+                jdbcTemplate.execute(
+                    String.format( "ALTER TABLE %s ADD CONSTRAINT %s CHECK (created_at < '%s') NOT VALID", table,
+                        checkConstraint, partitionBound ) );
+            }
+        } );
+        transactionTemplate.executeWithoutResult( status -> {
+            if ( lock( table ) )
+            {
+                jdbcTemplate.execute( String.format( "ALTER TABLE %s VALIDATE CONSTRAINT %s", table, checkConstraint ) );
+            }
+        } );
+
+        transactionTemplate.executeWithoutResult( status -> {
+            if ( !lock( table ) )
+            {
+                return;
+            }
+            jdbcTemplate.execute( String.format( "ALTER TABLE %s RENAME TO %s", table, legacyPartition ) );
+            jdbcTemplate.execute( String.format( "ALTER TABLE %s RENAME CONSTRAINT %s_pkey TO %s_pkey", legacyPartition,
+                table, legacyPartition ) );
+            // the secondary indexes are renamed so that they can be re-created under the same name on the parent table
+            List<Map<String, Object>> indexes = jdbcTemplate.queryForList(
+                "SELECT indexname, indexdef FROM pg_indexes WHERE tablename = ? AND indexname <> ?",
+                legacyPartition.toLowerCase(), legacyPartition.toLowerCase() + "_pkey" );
+            for ( Map<String, Object> index : indexes )
+            {
+                String indexName = (String) index.get( "indexname" );
+                String legacyIndexName = indexName.startsWith( table.toLowerCase() ) ?
+                    legacyPartition.toLowerCase() + indexName.substring( table.length() ) :
+                    legacyPartition.toLowerCase() + "_" + indexName;
+                jdbcTemplate.execute( String.format( "ALTER INDEX %s RENAME TO %s", indexName, legacyIndexName ) );
+            }
+            String sequence = jdbcTemplate.queryForObject( "SELECT pg_get_serial_sequence( ?, 'id' )", String.class,
+                legacyPartition.toLowerCase() );
+
+            jdbcTemplate.execute( String.format(
+                "CREATE TABLE %s (LIKE %s INCLUDING DEFAULTS, PRIMARY KEY (id, created_at)) PARTITION BY RANGE (created_at)",
+                table, legacyPartition ) );
+            for ( Map<String, Object> index : indexes )
+            {
+                jdbcTemplate.execute( ((String) index.get( "indexdef" )).replaceFirst(
+                    " ON (\\S+\\.)?" + legacyPartition.toLowerCase() + " ", " ON " + table + " " ) );
+            }
+            // the sequence would otherwise be dropped together with the partition
+            jdbcTemplate.execute( String.format( "ALTER SEQUENCE %s OWNED BY %s.id", sequence, table ) );
+            jdbcTemplate.execute(
+                String.format( "ALTER TABLE %s ATTACH PARTITION %s FOR VALUES FROM (MINVALUE) TO ('%s')", table,
+                    legacyPartition, partitionBound ) );
+            // the partition bound now enforces the constraint
+            jdbcTemplate.execute(
+                String.format( "ALTER TABLE %s DROP CONSTRAINT %s", legacyPartition, checkConstraint ) );
+        } );
+    }
+
+    /**
+     * Takes the advisory lock of the table for the rest of the transaction.
+     *
+     * @return <code>false</code> when the table was partitioned by another instance in the meantime
+     */
+    protected boolean lock( String table )
+    {
+        jdbcTemplate.queryForList( "SELECT pg_advisory_xact_lock( hashtext( ? ) )", table );
+        return !isPartitioned( table );
+    }
+
+    protected int getPrimaryKeyColumnCount( String table )
+    {
+        return jdbcTemplate.queryForObject(
+            "SELECT COALESCE( MAX( array_length( c.conkey, 1 ) ), 0 ) FROM pg_constraint c JOIN pg_class t ON t.oid = c.conrelid WHERE t.relname = ? AND c.contype = 'p' AND pg_table_is_visible( t.oid )",
+            Integer.class, table.toLowerCase() );
+    }
+
+    protected boolean hasConstraint( String table, String constraint )
+    {
+        return jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM pg_constraint c JOIN pg_class t ON t.oid = c.conrelid WHERE t.relname = ? AND c.conname = ? AND pg_table_is_visible( t.oid )",
+            Integer.class, table.toLowerCase(), constraint.toLowerCase() ) > 0;
+    }
+
+    protected List<String> getExpiredPartitions( List<String> partitions, Instant cutoff )
+    {
+        List<String> expiredPartitions = new ArrayList<>();
+        for ( String partition : partitions )
+        {
+            Matcher matcher = PARTITION_SUFFIX_PATTERN.matcher( partition );
+            if ( matcher.find() )
+            {
+                YearMonth month = YearMonth.parse( matcher.group( 1 ), PARTITION_SUFFIX_FORMATTER );
+                if ( !month.plusMonths( 1 ).atDay( 1 ).atStartOfDay( ZoneOffset.UTC ).toInstant().isAfter( cutoff ) )
+                {
+                    expiredPartitions.add( partition );
+                }
+            }
+        }
+        return expiredPartitions;
+    }
+
+    protected String getPartitionName( String table, YearMonth month )
+    {
+        return table + "_" + month.format( PARTITION_SUFFIX_FORMATTER );
+    }
+
+    protected String toTimestampLiteral( YearMonth month )
+    {
+        return month.atDay( 1 ) + " 00:00:00+00";
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.audit;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes success log rows. With <code>success.log.write.behind.enabled</code> set to <code>true</code>, rows are
+ * buffered in memory and inserted in JDBC batches by a background thread once <code>success.log.batch.size</code>
+ * rows are buffered or <code>success.log.flush.period</code> milliseconds have passed since the first buffered row.
+ * Rows that do not fit in the buffer of <code>success.log.buffer.size</code> rows are inserted straight away by the
+ * caller, as are all rows when write-behind is disabled. Buffered rows are only handled by the background thread,
+ * which flushes what is left of the buffer before the application shuts down. Shutting down fails should this last
+ * flush fail after {@value #FINAL_FLUSH_ATTEMPTS} attempts.
+ * With <code>success.log.compression</code> set to <code>deflate</code>, the DHIS2 request, DHIS2 response, and
+ * RapidPro payload are compressed with {@link SuccessLogCodec} by whichever thread inserts the row and written to
+ * their binary <code>_DEFLATED</code> columns.
+ */
+@Component
+@ManagedResource( objectName = "org.hisp.dhis.integration.rapidpro:type=Metrics,name=SuccessLogWriter", description = "Success log writer metrics" )
+public class SuccessLogWriter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( SuccessLogWriter.class );
+
+    private static final int FINAL_FLUSH_ATTEMPTS = 3;
+
+    private static final Pattern PARAMETER_PATTERN = Pattern.compile( ":\\?(\\w+)" );
+
+    private static final Set<String> COMPRESSIBLE_PARAMETER_NAMES = Set.of( "dhisRequest", "dhisResponse",
+        "rapidProPayload" );
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private Environment environment;
+
+    @Value( "${spring.sql.init.platform}" )
+    private String platform;
+
+    @Value( "${success.log.write.behind.enabled:false}" )
+    private boolean writeBehindEnabled;
+
+    @Value( "${success.log.buffer.size:10000}" )
+    private int bufferSize;
+
+    @Value( "${success.log.batch.size:500}" )
+    private int batchSize;
+
+    @Value( "${success.log.flush.period:1000}" )
+    private long flushPeriod;
+
+    @Value( "${success.log.compression:none}" )
+    private String compression;
+
+    private final Map<String, Statement> statements = new ConcurrentHashMap<>();
+
+    private final List<Row> pendingRows = new ArrayList<>();
+
+    private final LongAdder writtenCount = new LongAdder();
+
+    private final LongAdder overflowCount = new LongAdder();
+
+    private final LongAdder failedFlushCount = new LongAdder();
+
+    private BlockingQueue<Row> buffer;
+
+    private volatile boolean running;
+
+    private volatile Date lastFlush;
+
+    private Thread flusherThread;
+
+    private volatile IllegalStateException finalFlushFailure;
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        buffer = new ArrayBlockingQueue<>( bufferSize );
+        if ( writeBehindEnabled )
+        {
+            running = true;
+            flusherThread = new Thread( this::flushContinuously, "SuccessLogWriter" );
+            flusherThread.setDaemon( true );
+            flusherThread.start();
+        }
+    }
+
+    @PreDestroy
+    public void preDestroy()
+        throws
+        InterruptedException
+    {
+        if ( flusherThread != null )
+        {
+            running = false;
+            flusherThread.join();
+            if ( finalFlushFailure != null )
+            {
+                throw finalFlushFailure;
+            }
+        }
+    }
+
+    /**
+     * Writes a success log row.
+     *
+     * @param statementKey key of the insert statement in <code>sql.properties</code> without the platform suffix
+     * @param headers      message headers holding the statement's parameters
+     */
+    public void write( String statementKey, Map<String, Object> headers )
+    {
+        Statement statement = statements.computeIfAbsent( statementKey, this::readStatement );
+        Map<String, Object> parameters = new HashMap<>();
+        for ( String parameterName : statement.parameterNames )
+        {
+            parameters.put( parameterName, headers.get( parameterName ) );
+        }
+        Row row = new Row( statement, parameters );
+
+        if ( !writeBehindEnabled || !running )
+        {
+            insert( List.of( row ) );
+        }
+        else if ( !buffer.offer( row ) )
+        {
+            overflowCount.increment();
+            insert( List.of( row ) );
+        }
+        else if ( !running && buffer.remove( row ) )
+        {
+            // the background thread stopped before it could pick up the row
+            insert( List.of( row ) );
+        }
+    }
+
+    protected void flushContinuously()
+    {
+        try
+        {
+            while ( running )
+            {
+                if ( pendingRows.isEmpty() )
+                {
+                    Row firstRow = buffer.poll( flushPeriod, TimeUnit.MILLISECONDS );
+                    if ( firstRow == null )
+                    {
+                        continue;
+                    }
+                    pendingRows.add( firstRow );
+                    long deadline = System.currentTimeMillis() + flushPeriod;
+                    while ( running && pendingRows.size() < batchSize )
+                    {
+                        Row row = buffer.poll( Math.max( 0, deadline - System.currentTimeMillis() ),
+                            TimeUnit.MILLISECONDS );
+                        if ( row == null )
+                        {
+                            break;
+                        }
+                        pendingRows.add( row );
+                        buffer.drainTo( pendingRows, batchSize - pendingRows.size() );
+                    }
+                }
+                if ( !flush() )
+                {
+                    Thread.sleep( flushPeriod );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            flushRemaining();
+        }
+    }
+
+    /**
+     * Flushes the pending rows together with the rows left in the buffer once the background thread is asked to stop.
+     */
+    protected void flushRemaining()
+    {
+        buffer.drainTo( pendingRows );
+        for ( int attempt = 1; !pendingRows.isEmpty(); attempt++ )
+        {
+            LOGGER.info( "Flushing {} buffered success log rows before shutting down", pendingRows.size() );
+            if ( flush() )
+            {
+                return;
+            }
+            if ( attempt == FINAL_FLUSH_ATTEMPTS )
+            {
+                finalFlushFailure = new IllegalStateException(
+                    "Failed to flush " + pendingRows.size() + " buffered success log rows before shutting down" );
+                return;
+            }
+            try
+            {
+                Thread.sleep( flushPeriod );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Inserts the pending rows. The rows are kept for the next flush should the insert fail.
+     *
+     * @return whether the pending rows were inserted
+     */
+    protected boolean flush()
+    {
+        try
+        {
+            insert( pendingRows );
+            pendingRows.clear();
+            lastFlush = new Date();
+            return true;
+        }
+        catch ( Exception e )
+        {
+            failedFlushCount.increment();
+            LOGGER.error( "Error while flushing " + pendingRows.size() + " success log rows: retrying in " + flushPeriod
+                + " ms => " + e.getMessage(), e );
+            return false;
+        }
+    }
+
+    protected void insert( List<Row> rows )
+    {
+        Map<Statement, List<SqlParameterSource>> batches = new LinkedHashMap<>();
+        for ( Row row : rows )
+        {
+            batches.computeIfAbsent( row.statement, s -> new ArrayList<>() ).add( toParameterSource( row ) );
+        }
+        for ( Map.Entry<Statement, List<SqlParameterSource>> batch : batches.entrySet() )
+        {
+            batchUpdate( batch.getKey().sql, batch.getValue().toArray( new SqlParameterSource[0] ) );
+            writtenCount.add( batch.getValue().size() );
+        }
+    }
+
+    /**
+     * Compresses the row's compressible parameters when compression is enabled. A compressed parameter is moved to its
+     * <code>Deflated</code> counterpart. Rows are compressed right before they are inserted so that, with write-behind,
+     * the work is done by the background thread rather than the caller.
+     */
+    protected SqlParameterSource toParameterSource( Row row )
+    {
+        MapSqlParameterSource parameterSource = new MapSqlParameterSource( row.parameters );
+        for ( String parameterName : COMPRESSIBLE_PARAMETER_NAMES )
+        {
+            String deflatedParameterName = parameterName + "Deflated";
+            if ( !row.parameters.containsKey( deflatedParameterName ) )
+            {
+                continue;
+            }
+            parameterSource.registerSqlType( deflatedParameterName, Types.VARBINARY );
+            Object value = row.parameters.get( parameterName );
+            byte[] deflatedValue = "deflate".equals( compression ) && value instanceof String ?
+                SuccessLogCodec.deflate( (String) value ) : null;
+            if ( deflatedValue != null )
+            {
+                parameterSource.addValue( parameterName, null );
+                parameterSource.addValue( deflatedParameterName, deflatedValue );
+            }
+        }
+        return parameterSource;
+    }
+
+    protected void batchUpdate( String sql, SqlParameterSource[] batch )
+    {
+        namedParameterJdbcTemplate.batchUpdate( sql, batch );
+    }
+
+    protected Statement readStatement( String statementKey )
+    {
+        String sql = environment.getRequiredProperty( statementKey + "." + platform );
+        List<String> parameterNames = new ArrayList<>();
+        Matcher matcher = PARAMETER_PATTERN.matcher( sql );
+        while ( matcher.find() )
+        {
+            parameterNames.add( matcher.group( 1 ) );
+        }
+        // sql.properties uses the Camel JDBC parameter syntax
+        return new Statement( sql.replace( ":?", ":" ), parameterNames );
+    }
+
+    @ManagedAttribute( description = "Number of success log rows waiting in the buffer" )
+    public int getBufferedCount()
+    {
+        return buffer.size();
+    }
+
+    @ManagedAttribute( description = "Number of success log rows written" )
+    public long getWrittenCount()
+    {
+        return writtenCount.sum();
+    }
+
+    @ManagedAttribute( description = "Number of success log rows written by the caller because the buffer was full" )
+    public long getOverflowCount()
+    {
+        return overflowCount.sum();
+    }
+
+    @ManagedAttribute( description = "Number of buffer flushes that failed" )
+    public long getFailedFlushCount()
+    {
+        return failedFlushCount.sum();
+    }
+
+    @ManagedAttribute( description = "Time of the last successful buffer flush" )
+    public Date getLastFlush()
+    {
+        return lastFlush;
+    }
+
+    protected static class Statement
+    {
+        private final String sql;
+
+        private final List<String> parameterNames;
+
+        protected Statement( String sql, List<String> parameterNames )
+        {
+            this.sql = sql;
+            this.parameterNames = parameterNames;
+        }
+    }
+
+    protected static class Row
+    {
+        private final Statement statement;
+
+        private final Map<String, Object> parameters;
+
+        protected Row( Statement statement, Map<String, Object> parameters )
+        {
+            this.statement = statement;
+            this.parameters = parameters;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.cache;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+/**
+ * Exposes the statistics of a Caffeine cache as JMX attributes so that they can be observed from Hawtio. Subclasses
+ * must record statistics (i.e., build the cache with <code>recordStats()</code>) and be annotated with
+ * <code>@ManagedResource</code>.
+ */
+public abstract class AbstractCache<K, V>
+{
+    protected abstract Cache<K, V> getCache();
+
+    @ManagedAttribute( description = "Number of lookups that were served from the cache" )
+    public long getHitCount()
+    {
+        return getCache().stats().hitCount();
+    }
+
+    @ManagedAttribute( description = "Number of lookups that were not served from the cache" )
+    public long getMissCount()
+    {
+        return getCache().stats().missCount();
+    }
+
+    @ManagedAttribute( description = "Ratio of lookups that were served from the cache" )
+    public double getHitRate()
+    {
+        return getCache().stats().hitRate();
+    }
+
+    @ManagedAttribute( description = "Number of entries evicted from the cache because of size or expiry" )
+    public long getEvictionCount()
+    {
+        return getCache().stats().evictionCount();
+    }
+
+    @ManagedAttribute( description = "Approximate number of entries in the cache" )
+    public long getSize()
+    {
+        return getCache().estimatedSize();
+    }
+
+    @ManagedOperation( description = "Discards all entries in the cache" )
+    public void invalidateAll()
+    {
+        getCache().invalidateAll();
+    }
+}
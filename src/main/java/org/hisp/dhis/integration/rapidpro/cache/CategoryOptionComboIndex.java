@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.cache;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.CamelContext;
+import org.hisp.dhis.api.model.v40_0.CategoryOptionCombo;
+import org.hisp.dhis.integration.sdk.api.Dhis2Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Case-insensitive index of the DHIS2 category option combination codes. The index is loaded in full on first use and
+ * afterwards refreshed in the background once it is older than <code>dhis2.cat.opt.combo.index.refresh.seconds</code>:
+ * lookups keep being served from the stale index while the refresh is in progress. A failed background refresh is
+ * not retried before another refresh period has elapsed. A code that is missing from the
+ * index is looked up on DHIS2 in case it was created after the last refresh. Codes that are still not found are
+ * remembered as unknown until the next refresh.
+ */
+@Component
+@ManagedResource( objectName = "org.hisp.dhis.integration.rapidpro:type=Cache,name=CategoryOptionComboIndex", description = "DHIS2 category option combination codes" )
+public class CategoryOptionComboIndex
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( CategoryOptionComboIndex.class );
+
+    @Autowired
+    @Lazy
+    private Dhis2Client dhis2Client;
+
+    @Autowired
+    private CamelContext camelContext;
+
+    @Value( "${dhis2.cat.opt.combo.index.refresh.seconds:300}" )
+    private long refreshSeconds;
+
+    private ExecutorService refreshExecutor;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private volatile Map<String, String> codes;
+
+    private volatile Set<String> unknownCodes = ConcurrentHashMap.newKeySet();
+
+    private volatile long lastRefreshMillis;
+
+    private volatile long lastRefreshAttemptMillis;
+
+    /**
+     * @param catOptComboCode category option combination code in any case
+     * @return the category option combination code as spelt in DHIS2 or <code>null</code> when the code is unknown
+     */
+    public String lookup( String catOptComboCode )
+    {
+        Map<String, String> currentCodes = getCodes();
+        String key = catOptComboCode.toLowerCase( Locale.ROOT );
+        String dhis2CatOptComboCode = currentCodes.get( key );
+        if ( dhis2CatOptComboCode != null || unknownCodes.contains( key ) )
+        {
+            hitCount.increment();
+            return dhis2CatOptComboCode;
+        }
+
+        missCount.increment();
+        dhis2CatOptComboCode = fetch( catOptComboCode );
+        if ( dhis2CatOptComboCode == null )
+        {
+            unknownCodes.add( key );
+        }
+        else
+        {
+            currentCodes.put( key, dhis2CatOptComboCode );
+        }
+        return dhis2CatOptComboCode;
+    }
+
+    @ManagedOperation( description = "Reloads the category option combination codes from DHIS2" )
+    public synchronized void refresh()
+    {
+        Map<String, String> newCodes = new ConcurrentHashMap<>();
+        for ( CategoryOptionCombo categoryOptionCombo : fetchAll() )
+        {
+            categoryOptionCombo.getCode()
+                .ifPresent( code -> newCodes.put( code.toLowerCase( Locale.ROOT ), code ) );
+        }
+        codes = newCodes;
+        unknownCodes = ConcurrentHashMap.newKeySet();
+        lastRefreshMillis = System.currentTimeMillis();
+        LOGGER.debug( "Indexed {} category option combination codes", newCodes.size() );
+    }
+
+    @ManagedAttribute( description = "Number of indexed category option combination codes" )
+    public int getSize()
+    {
+        Map<String, String> currentCodes = codes;
+        return currentCodes == null ? 0 : currentCodes.size();
+    }
+
+    @ManagedAttribute( description = "Number of lookups that were served from the index" )
+    public long getHitCount()
+    {
+        return hitCount.sum();
+    }
+
+    @ManagedAttribute( description = "Number of lookups that had to query DHIS2" )
+    public long getMissCount()
+    {
+        return missCount.sum();
+    }
+
+    @ManagedAttribute( description = "Time when the index was last reloaded from DHIS2" )
+    public Date getLastRefresh()
+    {
+        return lastRefreshMillis == 0 ? null : new Date( lastRefreshMillis );
+    }
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        refreshExecutor = camelContext.getExecutorServiceManager()
+            .newSingleThreadExecutor( this, "CategoryOptionComboIndexRefresh" );
+    }
+
+    @PreDestroy
+    public void preDestroy()
+    {
+        camelContext.getExecutorServiceManager().shutdownNow( refreshExecutor );
+    }
+
+    protected Map<String, String> getCodes()
+    {
+        if ( codes == null )
+        {
+            synchronized ( this )
+            {
+                if ( codes == null )
+                {
+                    refresh();
+                }
+            }
+        }
+        else if ( System.currentTimeMillis() - Math.max( lastRefreshMillis, lastRefreshAttemptMillis )
+            > TimeUnit.SECONDS.toMillis( refreshSeconds ) && refreshing.compareAndSet( false, true ) )
+        {
+            refreshExecutor.execute( () -> {
+                try
+                {
+                    refresh();
+                }
+                catch ( Exception e )
+                {
+                    LOGGER.warn( "Failed to refresh category option combination index: " + e.getMessage(), e );
+                }
+                finally
+                {
+                    lastRefreshAttemptMillis = System.currentTimeMillis();
+                    refreshing.set( false );
+                }
+            } );
+        }
+        return codes;
+    }
+
+    protected Iterable<CategoryOptionCombo> fetchAll()
+    {
+        return dhis2Client.get( "categoryOptionCombos" ).withFields( "code" ).withoutPaging().transfer()
+            .returnAs( CategoryOptionCombo.class, "categoryOptionCombos" );
+    }
+
+    protected String fetch( String catOptComboCode )
+    {
+        Iterable<CategoryOptionCombo> categoryOptionCombos = dhis2Client.get( "categoryOptionCombos" )
+            .withFilter( "code:$ilike:" + catOptComboCode ).withFields( "code" ).withoutPaging()
+            .transfer().returnAs( CategoryOptionCombo.class, "categoryOptionCombos" );
+        String dhis2CatOptComboCode = null;
+        for ( CategoryOptionCombo categoryOptionCombo : categoryOptionCombos )
+        {
+            if ( categoryOptionCombo.getCode().get().equalsIgnoreCase( catOptComboCode ) )
+            {
+                dhis2CatOptComboCode = categoryOptionCombo.getCode().get();
+            }
+        }
+        return dhis2CatOptComboCode;
+    }
+}
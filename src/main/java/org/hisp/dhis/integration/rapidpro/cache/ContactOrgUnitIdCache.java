@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.cache;
+
+import java.time.Duration;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Caches the DHIS2 organisation unit ID of RapidPro contacts by contact UUID. The cache is filled from the contacts
+ * fetched while transforming reports, synchronising contacts, and sending reminders.
+ */
+@Component
+@ManagedResource( objectName = "org.hisp.dhis.integration.rapidpro:type=Cache,name=ContactOrgUnitIdCache", description = "DHIS2 organisation unit IDs keyed by RapidPro contact UUID" )
+public class ContactOrgUnitIdCache extends AbstractCache<String, String>
+{
+    @Value( "${rapidpro.contact.cache.ttl.seconds:3600}" )
+    private long ttlSeconds;
+
+    @Value( "${rapidpro.contact.cache.max.size:10000}" )
+    private long maxSize;
+
+    private Cache<String, String> cache;
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        cache = Caffeine.newBuilder().maximumSize( maxSize ).expireAfterWrite( Duration.ofSeconds( ttlSeconds ) )
+            .recordStats().build();
+    }
+
+    public String get( String contactUuid )
+    {
+        return contactUuid == null ? null : cache.getIfPresent( contactUuid );
+    }
+
+    public void put( String contactUuid, String orgUnitId )
+    {
+        if ( contactUuid != null )
+        {
+            if ( orgUnitId == null )
+            {
+                cache.invalidate( contactUuid );
+            }
+            else
+            {
+                cache.put( contactUuid, orgUnitId );
+            }
+        }
+    }
+
+    @Override
+    protected Cache<String, String> getCache()
+    {
+        return cache;
+    }
+}
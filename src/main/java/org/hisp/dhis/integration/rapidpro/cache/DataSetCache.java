@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.hisp.dhis.api.model.v40_0.DataElement;
+import org.hisp.dhis.api.model.v40_0.DataSet;
+import org.hisp.dhis.integration.rapidpro.Dhis2RapidProException;
+import org.hisp.dhis.integration.sdk.api.Dhis2Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+
+/**
+ * Caches, by data set code, the DHIS2 data set metadata needed to transform a report: the data set's period type and
+ * the codes of its data elements.
+ */
+@Component
+@ManagedResource( objectName = "org.hisp.dhis.integration.rapidpro:type=Cache,name=DataSetCache", description = "DHIS2 data set metadata keyed by data set code" )
+public class DataSetCache extends AbstractCache<String, DataSetMetadata>
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( DataSetCache.class );
+
+    @Autowired
+    @Lazy
+    private Dhis2Client dhis2Client;
+
+    @Value( "${dhis2.data.set.cache.ttl.seconds:600}" )
+    private long ttlSeconds;
+
+    @Value( "${dhis2.data.set.cache.max.size:100}" )
+    private long maxSize;
+
+    private LoadingCache<String, DataSetMetadata> cache;
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        cache = Caffeine.newBuilder().maximumSize( maxSize ).expireAfterWrite( Duration.ofSeconds( ttlSeconds ) )
+            .recordStats().build( this::fetch );
+    }
+
+    public DataSetMetadata get( String dataSetCode )
+    {
+        if ( dataSetCode == null )
+        {
+            throw new Dhis2RapidProException( "Missing data set code" );
+        }
+        return cache.get( dataSetCode );
+    }
+
+    public List<String> getDataElementCodes( String dataSetCode )
+    {
+        return get( dataSetCode ).getDataElementCodes();
+    }
+
+    public String getPeriodType( String dataSetCode )
+    {
+        return get( dataSetCode ).getPeriodType();
+    }
+
+    @Override
+    protected Cache<String, DataSetMetadata> getCache()
+    {
+        return cache;
+    }
+
+    protected DataSetMetadata fetch( String dataSetCode )
+    {
+        LOGGER.debug( "Fetching metadata of data set {} from DHIS2", dataSetCode );
+        Iterator<DataSet> dataSets = dhis2Client.get( "dataSets" ).withFilter( "code:eq:" + dataSetCode )
+            .withFields( "periodType" ).withoutPaging().transfer().returnAs( DataSet.class, "dataSets" ).iterator();
+        if ( !dataSets.hasNext() )
+        {
+            throw new Dhis2RapidProException( String.format( "Unknown DHIS2 data set code '%s'", dataSetCode ) );
+        }
+        String periodType = dataSets.next().getPeriodType().get().value();
+
+        Iterable<DataElement> dataElements = dhis2Client.get( "dataElements" )
+            .withFilter( "dataSetElements.dataSet.code:eq:" + dataSetCode ).withFields( "code" ).withoutPaging()
+            .transfer().returnAs( DataElement.class, "dataElements" );
+        List<String> dataElementCodes = new ArrayList<>();
+        for ( DataElement dataElement : dataElements )
+        {
+            dataElement.getCode().ifPresent( dataElementCodes::add );
+        }
+
+        return new DataSetMetadata( periodType, dataElementCodes );
+    }
+}
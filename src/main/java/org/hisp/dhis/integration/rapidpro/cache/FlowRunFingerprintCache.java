@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.cache;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Remembers the fingerprints of the aggregate report flow runs that were queued for delivery so that a flow run
+ * received more than once (e.g., from both the RapidPro webhook and the RapidPro API) is delivered to DHIS2 only once.
+ * Recently seen fingerprints are held in memory in front of the <code>FLOW_RUN_FINGERPRINT</code> table, which
+ * remembers fingerprints across restarts and nodes for <code>flow.run.fingerprint.ttl.days</code> days.
+ */
+@Component
+@ManagedResource( objectName = "org.hisp.dhis.integration.rapidpro:type=Cache,name=FlowRunFingerprintCache", description = "Fingerprints of queued aggregate report flow runs" )
+public class FlowRunFingerprintCache extends AbstractCache<String, Boolean>
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( FlowRunFingerprintCache.class );
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private Environment environment;
+
+    @Value( "${spring.sql.init.platform}" )
+    private String platform;
+
+    @Value( "${flow.run.dedupe.enabled:true}" )
+    private boolean dedupeEnabled;
+
+    @Value( "${flow.run.fingerprint.cache.max.size:100000}" )
+    private long maxSize;
+
+    @Value( "${flow.run.fingerprint.ttl.days:30}" )
+    private int ttlDays;
+
+    private final LongAdder suppressedCount = new LongAdder();
+
+    private Cache<String, Boolean> cache;
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        cache = Caffeine.newBuilder().maximumSize( maxSize ).expireAfterWrite( Duration.ofDays( ttlDays ) )
+            .recordStats().build();
+    }
+
+    /**
+     * Tells whether a flow run was already queued so that its processing can be skipped early. A flow run that is not
+     * found to be a duplicate here is only queued if {@link #claim(String)} succeeds.
+     *
+     * @param fingerprint flow run fingerprint or <code>null</code> when the flow run cannot be fingerprinted
+     * @return whether a flow run with the same fingerprint was already queued
+     */
+    public boolean isDuplicate( String fingerprint )
+    {
+        if ( !dedupeEnabled || fingerprint == null )
+        {
+            return false;
+        }
+
+        boolean duplicate = cache.getIfPresent( fingerprint ) != null || namedParameterJdbcTemplate.queryForObject(
+            readStatement( "flow.run.fingerprint.count" ), Map.of( "fingerprint", fingerprint ), Integer.class ) > 0;
+        if ( duplicate )
+        {
+            cache.put( fingerprint, Boolean.TRUE );
+            suppressedCount.increment();
+            LOGGER.debug( "Suppressing duplicate flow run [fingerprint = {}]", fingerprint );
+        }
+        return duplicate;
+    }
+
+    /**
+     * Saves the fingerprint of a flow run about to be queued for delivery. The fingerprint is inserted before the flow
+     * run is queued, within the same transaction, so that of two nodes or threads queueing the same flow run at once,
+     * only the one whose insert succeeds goes on to queue it. The fingerprint is only cached in memory once the
+     * transaction commits.
+     *
+     * @param fingerprint flow run fingerprint or <code>null</code> when the flow run cannot be fingerprinted
+     * @return whether the flow run should be queued, that is, no flow run with the same fingerprint was queued before
+     */
+    public boolean claim( String fingerprint )
+    {
+        if ( !dedupeEnabled || fingerprint == null )
+        {
+            return true;
+        }
+
+        int insertedCount;
+        try
+        {
+            insertedCount = namedParameterJdbcTemplate.update( readStatement( "flow.run.fingerprint.insert" ),
+                Map.of( "fingerprint", fingerprint ) );
+        }
+        catch ( DuplicateKeyException e )
+        {
+            insertedCount = 0;
+        }
+        if ( insertedCount != 1 )
+        {
+            suppressedCount.increment();
+            LOGGER.debug( "Suppressing duplicate flow run [fingerprint = {}]", fingerprint );
+            return false;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization()
+        {
+            @Override
+            public void afterCommit()
+            {
+                cache.put( fingerprint, Boolean.TRUE );
+            }
+        } );
+        return true;
+    }
+
+    /**
+     * Forgets the fingerprints older than <code>flow.run.fingerprint.ttl.days</code> days.
+     */
+    public void removeExpired()
+    {
+        int removedCount = namedParameterJdbcTemplate.update( readStatement( "flow.run.fingerprint.expired.delete" ),
+            Map.of( "expiredBefore", Timestamp.from( Instant.now().minus( ttlDays, ChronoUnit.DAYS ) ) ) );
+        LOGGER.debug( "Removed {} expired flow run fingerprints", removedCount );
+    }
+
+    @ManagedAttribute( description = "Number of duplicate flow runs that were not queued for delivery" )
+    public long getSuppressedCount()
+    {
+        return suppressedCount.sum();
+    }
+
+    @Override
+    protected Cache<String, Boolean> getCache()
+    {
+        return cache;
+    }
+
+    protected String readStatement( String statementKey )
+    {
+        // sql.properties uses the Camel JDBC parameter syntax
+        return environment.getRequiredProperty( statementKey + "." + platform ).replace( ":?", ":" );
+    }
+}
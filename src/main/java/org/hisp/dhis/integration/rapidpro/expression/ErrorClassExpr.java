@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.expression;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.hisp.dhis.integration.sdk.api.RemoteDhis2ClientException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Classifies the failure of an exchange as <code>TRANSIENT</code> or <code>PERMANENT</code>. Network errors, DHIS2
+ * server errors, and DHIS2 rate limiting are transient since resending the same payload later is likely to succeed.
+ * Anything else, including a DHIS2 import summary or web message rejecting the payload, is permanent.
+ */
+@Component
+public class ErrorClassExpr implements Expression
+{
+    public static final String TRANSIENT = "TRANSIENT";
+
+    public static final String PERMANENT = "PERMANENT";
+
+    @Override
+    public <T> T evaluate( Exchange exchange, Class<T> type )
+    {
+        Throwable throwable = (Throwable) exchange.getProperty( Exchange.EXCEPTION_CAUGHT );
+        if ( throwable == null )
+        {
+            Map<String, Object> bodyAsMap = exchange.getMessage().getBody( Map.class );
+            if ( bodyAsMap != null && bodyAsMap.get( "httpStatusCode" ) instanceof Number )
+            {
+                return (T) classify( ((Number) bodyAsMap.get( "httpStatusCode" )).intValue() );
+            }
+            return (T) PERMANENT;
+        }
+
+        for ( Throwable cause = throwable; cause != null; cause = cause.getCause() )
+        {
+            if ( cause instanceof IOException || cause instanceof TimeoutException )
+            {
+                return (T) TRANSIENT;
+            }
+            if ( cause instanceof RemoteDhis2ClientException )
+            {
+                return (T) classify( ((RemoteDhis2ClientException) cause).getHttpStatusCode() );
+            }
+            if ( cause.getCause() == cause )
+            {
+                break;
+            }
+        }
+        return (T) PERMANENT;
+    }
+
+    protected String classify( int httpStatusCode )
+    {
+        return httpStatusCode >= 500 || httpStatusCode == 429 || httpStatusCode == 408 ? TRANSIENT : PERMANENT;
+    }
+}
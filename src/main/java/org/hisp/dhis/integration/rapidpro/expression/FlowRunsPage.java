@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.expression;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.hisp.dhis.integration.rapidpro.Dhis2RapidProException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the runs of a RapidPro <code>runs.json</code> page while the page is being parsed so that only one
+ * run is held in memory at a time. The page's <code>next</code> URL, the UUIDs of the runs that have and have not
+ * exited, and the latest <code>modified_on</code> of all runs are collected along the way and are complete once the
+ * iteration is over.
+ */
+public class FlowRunsPage implements Iterator<Map<String, Object>>, Closeable
+{
+    private final JsonParser jsonParser;
+
+    private boolean inResults;
+
+    private Map<String, Object> nextRun;
+
+    private String next;
+
+    private final List<String> exitedRunUuids = new ArrayList<>();
+
+    private final List<String> unfinishedRunUuids = new ArrayList<>();
+
+    private Instant latestModifiedOn;
+
+    public FlowRunsPage( JsonParser jsonParser )
+        throws IOException
+    {
+        this.jsonParser = jsonParser;
+        if ( jsonParser.nextToken() != JsonToken.START_OBJECT )
+        {
+            throw new Dhis2RapidProException( "Expected a JSON object for the flow runs page" );
+        }
+        readFields();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if ( nextRun != null )
+        {
+            return true;
+        }
+        if ( !inResults )
+        {
+            return false;
+        }
+        try
+        {
+            if ( jsonParser.nextToken() == JsonToken.START_OBJECT )
+            {
+                nextRun = jsonParser.readValueAs( Map.class );
+                trackRun( nextRun );
+                return true;
+            }
+            else
+            {
+                inResults = false;
+                readFields();
+                close();
+                return false;
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    @Override
+    public Map<String, Object> next()
+    {
+        if ( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+        Map<String, Object> run = nextRun;
+        nextRun = null;
+        return run;
+    }
+
+    /**
+     * @return the URL of the next page or <code>null</code> if this is the last page
+     */
+    public String getNext()
+    {
+        return next;
+    }
+
+    /**
+     * @return the UUIDs of the runs iterated so far that have exited
+     */
+    public List<String> getExitedRunUuids()
+    {
+        return exitedRunUuids;
+    }
+
+    /**
+     * @return the UUIDs of the runs iterated so far that have not exited
+     */
+    public List<String> getUnfinishedRunUuids()
+    {
+        return unfinishedRunUuids;
+    }
+
+    /**
+     * @return the latest <code>modified_on</code> of the runs iterated so far or <code>null</code> if no run was
+     * iterated
+     */
+    public Instant getLatestModifiedOn()
+    {
+        return latestModifiedOn;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        jsonParser.close();
+    }
+
+    /**
+     * Reads the fields of the page object until either the start of the <code>results</code> array or the end of the
+     * page object.
+     */
+    protected void readFields()
+        throws IOException
+    {
+        while ( jsonParser.nextToken() == JsonToken.FIELD_NAME )
+        {
+            String fieldName = jsonParser.getCurrentName();
+            JsonToken valueToken = jsonParser.nextToken();
+            if ( fieldName.equals( "next" ) )
+            {
+                next = valueToken == JsonToken.VALUE_NULL ? null : jsonParser.getText();
+            }
+            else if ( fieldName.equals( "results" ) && valueToken == JsonToken.START_ARRAY )
+            {
+                inResults = true;
+                return;
+            }
+            else
+            {
+                jsonParser.skipChildren();
+            }
+        }
+    }
+
+    protected void trackRun( Map<String, Object> run )
+    {
+        Instant modifiedOn = Instant.parse( (String) run.get( "modified_on" ) );
+        if ( latestModifiedOn == null || modifiedOn.isAfter( latestModifiedOn ) )
+        {
+            latestModifiedOn = modifiedOn;
+        }
+        if ( run.get( "exited_on" ) == null )
+        {
+            unfinishedRunUuids.add( (String) run.get( "uuid" ) );
+        }
+        else
+        {
+            exitedRunUuids.add( (String) run.get( "uuid" ) );
+        }
+    }
+}
@@ -33,30 +33,25 @@ import org.springframework.stereotype.Component;
 
 import java.sql.Timestamp;
 import java.time.Instant;
-import java.util.List;
-import java.util.Map;
 
+/**
+ * Calculates the <code>POLLER</code> cursor to save once the runs of a page are queued. Until the last page is
+ * scanned, the cursor is kept at or before the latest <code>modified_on</code> of the page because the runs modified
+ * after it are on the pages still to be scanned.
+ */
 @Component
-public class LastRunCalculator implements Expression
+public class LastRunCheckpointCalculator implements Expression
 {
     @Override
     public <T> T evaluate( Exchange exchange, Class<T> type )
     {
         Timestamp newLastRunAt = (Timestamp) exchange.getMessage().getHeader( "newLastRunAt" );
-        Map<String, Object> body = exchange.getMessage().getBody( Map.class );
-        List<Map<String, Object>> results = (List<Map<String, Object>>) body.get( "results" );
-        for ( Map<String, Object> result : results )
+        FlowRunsPage flowRunsPage = exchange.getProperty( "flowRunsPage", FlowRunsPage.class );
+        Instant latestModifiedOn = flowRunsPage.getLatestModifiedOn();
+        if ( exchange.getProperty( "nextRunsPageUrl" ) != null && latestModifiedOn != null
+            && latestModifiedOn.isBefore( newLastRunAt.toInstant() ) )
         {
-            String exitedOn = (String) result.get( "exited_on" );
-            if ( exitedOn == null )
-            {
-                String modifiedOn = (String) result.get( "modified_on" );
-                Instant modifiedOnAsInstant = Instant.parse( modifiedOn );
-                if ( modifiedOnAsInstant.isBefore( newLastRunAt.toInstant() ) )
-                {
-                    newLastRunAt = Timestamp.from( modifiedOnAsInstant );
-                }
-            }
+            return (T) Timestamp.from( latestModifiedOn );
         }
 
         return (T) newLastRunAt;
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.metrics;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes over JMX how long the last scan of each RapidPro flow took and how many scans of each flow failed. Flows
+ * are keyed by their UUID.
+ */
+@Component
+@ManagedResource( objectName = "org.hisp.dhis.integration.rapidpro:type=Metrics,name=FlowScanMetrics", description = "RapidPro flow scan metrics" )
+public class FlowScanMetrics
+{
+    private final ConcurrentMap<String, Long> lastScanDurations = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Date> lastScanEnds = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Long> failedScanCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Records the outcome of a flow scan.
+     *
+     * @param flowUuid UUID of the scanned flow
+     * @param startedAt time in milliseconds when the scan started
+     * @param succeeded whether every page of flow runs was fetched and queued
+     */
+    public void recordScan( String flowUuid, long startedAt, boolean succeeded )
+    {
+        long endedAt = System.currentTimeMillis();
+        lastScanDurations.put( flowUuid, endedAt - startedAt );
+        lastScanEnds.put( flowUuid, new Date( endedAt ) );
+        if ( !succeeded )
+        {
+            failedScanCounts.merge( flowUuid, 1L, Long::sum );
+        }
+    }
+
+    @ManagedAttribute( description = "Duration in milliseconds of the last scan of each flow" )
+    public Map<String, Long> getLastScanDurationMillis()
+    {
+        return new TreeMap<>( lastScanDurations );
+    }
+
+    @ManagedAttribute( description = "Time when the last scan of each flow ended" )
+    public Map<String, Date> getLastScanEnd()
+    {
+        return new TreeMap<>( lastScanEnds );
+    }
+
+    @ManagedAttribute( description = "Number of failed scans of each flow since start-up" )
+    public Map<String, Long> getFailedScanCount()
+    {
+        return new TreeMap<>( failedScanCounts );
+    }
+}
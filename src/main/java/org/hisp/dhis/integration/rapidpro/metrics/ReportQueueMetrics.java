@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.metrics;
+
+import java.util.Date;
+
+import org.apache.activemq.artemis.api.core.SimpleString;
+import org.apache.activemq.artemis.core.server.Queue;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.apache.camel.CamelContext;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes over JMX how many aggregate reports are waiting in the queue and how many are being delivered to DHIS2.
+ * Queue figures are only available when the message broker is embedded.
+ */
+@Component
+@ManagedResource( objectName = "org.hisp.dhis.integration.rapidpro:type=Metrics,name=ReportQueueMetrics", description = "Aggregate report queue metrics" )
+public class ReportQueueMetrics
+{
+    public static final String REPORT_QUEUE_NAME = "dhis2AggregateReports";
+
+    @Autowired
+    private ObjectProvider<EmbeddedActiveMQ> embeddedActiveMQ;
+
+    @Autowired
+    private CamelContext camelContext;
+
+    private volatile int lastDrainedCount;
+
+    private volatile long lastDrainRemainingDepth = -1;
+
+    private volatile Date lastDrainEnd;
+
+    /**
+     * Records the outcome of a scheduled report delivery run.
+     *
+     * @param drainedCount number of reports taken from the queue during the run
+     * @return the number of reports left in the queue
+     */
+    public long recordDrain( int drainedCount )
+    {
+        lastDrainedCount = drainedCount;
+        lastDrainRemainingDepth = getQueueDepth();
+        lastDrainEnd = new Date();
+        return lastDrainRemainingDepth;
+    }
+
+    @ManagedAttribute( description = "Number of aggregate reports taken from the queue during the last scheduled delivery run" )
+    public int getLastDrainedCount()
+    {
+        return lastDrainedCount;
+    }
+
+    @ManagedAttribute( description = "Number of aggregate reports left in the queue after the last scheduled delivery run" )
+    public long getLastDrainRemainingDepth()
+    {
+        return lastDrainRemainingDepth;
+    }
+
+    @ManagedAttribute( description = "Time when the last scheduled delivery run ended" )
+    public Date getLastDrainEnd()
+    {
+        return lastDrainEnd;
+    }
+
+    @ManagedAttribute( description = "Number of aggregate reports in the queue, including those being delivered. -1 if the broker is not embedded" )
+    public long getQueueDepth()
+    {
+        Queue queue = locateQueue();
+        return queue == null ? -1 : queue.getMessageCount();
+    }
+
+    @ManagedAttribute( description = "Number of aggregate reports handed over to consumers and not yet acknowledged. -1 if the broker is not embedded" )
+    public long getDeliveringCount()
+    {
+        Queue queue = locateQueue();
+        return queue == null ? -1 : queue.getDeliveringCount();
+    }
+
+    @ManagedAttribute( description = "Number of consumers of the aggregate report queue. -1 if the broker is not embedded" )
+    public long getConsumerCount()
+    {
+        Queue queue = locateQueue();
+        return queue == null ? -1 : queue.getConsumerCount();
+    }
+
+    @ManagedAttribute( description = "Number of aggregate reports currently being processed" )
+    public int getInflightCount()
+    {
+        return camelContext.getInflightRepository().size( "Consume Report" ) + camelContext.getInflightRepository()
+            .size( "Schedule Report Delivery" );
+    }
+
+    protected Queue locateQueue()
+    {
+        EmbeddedActiveMQ embeddedBroker = embeddedActiveMQ.getIfAvailable();
+        if ( embeddedBroker == null || embeddedBroker.getActiveMQServer() == null )
+        {
+            return null;
+        }
+        return embeddedBroker.getActiveMQServer().locateQueue( SimpleString.toSimpleString( REPORT_QUEUE_NAME ) );
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.outbox;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.hisp.dhis.integration.rapidpro.cache.FlowRunFingerprintCache;
+import org.hisp.dhis.integration.rapidpro.expression.FlowRunsPage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Queues the flow runs of a scanned RapidPro runs page in the same database transaction that saves the flow's
+ * <code>POLLER</code> cursor. Rather than being sent to JMS straight away, the page's runs are held on the exchange
+ * until the page is checkpointed, at which point they are written to the <code>FLOW_RUN_OUTBOX</code> table together
+ * with their fingerprints and the cursor. The "Relay Flow Run Outbox" route then moves the rows to their JMS queues. A
+ * scan interrupted mid-way therefore resumes after the last checkpointed page, without losing or re-queueing the runs
+ * of the pages before it. Runs that have not exited yet are remembered in <code>PENDING_FLOW_RUN</code> so that they
+ * can be re-checked individually rather than holding back the cursor. Flow runs received from the RapidPro webhook go
+ * through the same table and wake up the relay through {@link #RELAY_ENDPOINT_URI}, whose bounded SEDA queue
+ * coalesces the signals so that the webhook request does not wait for the outbox to be relayed. A flow run is only
+ * written to the table if its fingerprint can be inserted in the same transaction, which keeps a flow run that is both
+ * scanned and received from the webhook from being queued twice.
+ */
+@Component
+public class FlowRunOutbox
+{
+    public static final String PENDING_FLOW_RUNS_PROPERTY = "pendingFlowRuns";
+
+    public static final String RELAY_ENDPOINT_URI = "seda:relayFlowRunOutbox?size=1&discardWhenFull=true";
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private FlowRunFingerprintCache flowRunFingerprintCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Environment environment;
+
+    @Value( "${spring.sql.init.platform}" )
+    private String platform;
+
+    /**
+     * Opens the outbox of a flow scan. Runs appended to it are queued at the next {@link #checkpoint(Exchange)}.
+     */
+    public void open( Exchange exchange )
+    {
+        exchange.setProperty( PENDING_FLOW_RUNS_PROPERTY, new ArrayList<PendingFlowRun>() );
+    }
+
+    /**
+     * Creates a processor that appends the exchange message to the outbox of the flow scan it belongs to.
+     *
+     * @param queueName JMS queue the message is relayed to
+     */
+    public Processor appender( String queueName )
+    {
+        return exchange -> {
+            String fingerprint = exchange.getMessage().getHeader( "flowRunFingerprint", String.class );
+            exchange.getProperty( PENDING_FLOW_RUNS_PROPERTY, List.class )
+                .add( new PendingFlowRun( queueName, writeHeaders( exchange ),
+                    exchange.getMessage().getBody( String.class ), fingerprint ) );
+        };
+    }
+
+    /**
+     * Creates a processor that writes the exchange message to <code>FLOW_RUN_OUTBOX</code> straight away, together
+     * with its fingerprint, unless a flow run with the same fingerprint was already queued.
+     *
+     * @param queueName JMS queue the message is relayed to
+     */
+    public Processor enqueuer( String queueName )
+    {
+        return exchange -> {
+            PendingFlowRun pendingFlowRun = new PendingFlowRun( queueName, writeHeaders( exchange ),
+                exchange.getMessage().getBody( String.class ),
+                exchange.getMessage().getHeader( "flowRunFingerprint", String.class ) );
+            transactionTemplate.executeWithoutResult( status -> insert( List.of( pendingFlowRun ) ) );
+        };
+    }
+
+    /**
+     * Writes the runs appended since the last checkpoint to <code>FLOW_RUN_OUTBOX</code>, records the runs of the
+     * scanned page that have not exited in <code>PENDING_FLOW_RUN</code> while forgetting those that have, and moves
+     * the flow's <code>POLLER</code> cursor to the <code>lastRunCheckpoint</code> header, if any, in a single
+     * transaction.
+     */
+    public void checkpoint( Exchange exchange )
+    {
+        List<PendingFlowRun> pendingFlowRuns = exchange.getProperty( PENDING_FLOW_RUNS_PROPERTY, List.class );
+        FlowRunsPage flowRunsPage = exchange.getProperty( "flowRunsPage", FlowRunsPage.class );
+        String flowUuid = exchange.getMessage().getHeader( "flowUuid", String.class );
+        Timestamp lastRunCheckpoint = exchange.getMessage().getHeader( "lastRunCheckpoint", Timestamp.class );
+
+        try
+        {
+            transactionTemplate.executeWithoutResult( status -> {
+                insert( pendingFlowRuns );
+                if ( !flowRunsPage.getUnfinishedRunUuids().isEmpty() )
+                {
+                    namedParameterJdbcTemplate.batchUpdate( readStatement( "pending.flow.run.upsert" ),
+                        toRunUuidBatch( flowRunsPage.getUnfinishedRunUuids(), flowUuid ) );
+                }
+                if ( !flowRunsPage.getExitedRunUuids().isEmpty() )
+                {
+                    namedParameterJdbcTemplate.batchUpdate( readStatement( "pending.flow.run.delete" ),
+                        toRunUuidBatch( flowRunsPage.getExitedRunUuids(), flowUuid ) );
+                }
+                if ( lastRunCheckpoint != null )
+                {
+                    namedParameterJdbcTemplate.update( readStatement( "last.run.upsert" ),
+                        Map.of( "flowUuid", flowUuid, "newLastRunAt", lastRunCheckpoint ) );
+                }
+            } );
+        }
+        catch ( RuntimeException e )
+        {
+            discard( exchange );
+            throw e;
+        }
+        pendingFlowRuns.clear();
+    }
+
+    /**
+     * Drops the runs appended since the last checkpoint of a failed flow scan so that they are queued when the flow is
+     * scanned again.
+     */
+    public void discard( Exchange exchange )
+    {
+        List<PendingFlowRun> pendingFlowRuns = exchange.getProperty( PENDING_FLOW_RUNS_PROPERTY, List.class );
+        if ( pendingFlowRuns != null )
+        {
+            pendingFlowRuns.clear();
+        }
+    }
+
+    /**
+     * Replaces the exchange message, holding a claimed <code>FLOW_RUN_OUTBOX</code> row, with the message to relay.
+     */
+    public void restore( Exchange exchange )
+        throws JsonProcessingException
+    {
+        Map<String, Object> row = exchange.getMessage().getBody( Map.class );
+        exchange.setProperty( "outboxId", row.get( "id" ) );
+        exchange.setProperty( "outboxQueueName", row.get( "queue_name" ) );
+        exchange.getMessage().setHeaders( objectMapper.readValue( (String) row.get( "headers" ), Map.class ) );
+        exchange.getMessage().setBody( row.get( "body" ) );
+    }
+
+    /**
+     * Deletes the <code>FLOW_RUN_OUTBOX</code> row of a relayed message.
+     */
+    public void remove( Exchange exchange )
+    {
+        namedParameterJdbcTemplate.update( readStatement( "flow.run.outbox.delete" ),
+            Map.of( "id", exchange.getProperty( "outboxId" ) ) );
+    }
+
+    /**
+     * Writes the flow runs whose fingerprints could be claimed to <code>FLOW_RUN_OUTBOX</code>. Must be called within
+     * a transaction.
+     */
+    private void insert( List<PendingFlowRun> pendingFlowRuns )
+    {
+        List<SqlParameterSource> outboxRows = new ArrayList<>();
+        for ( PendingFlowRun pendingFlowRun : pendingFlowRuns )
+        {
+            if ( flowRunFingerprintCache.claim( pendingFlowRun.fingerprint ) )
+            {
+                outboxRows.add( new MapSqlParameterSource().addValue( "queueName", pendingFlowRun.queueName )
+                    .addValue( "headers", pendingFlowRun.headers ).addValue( "body", pendingFlowRun.body ) );
+            }
+        }
+        if ( !outboxRows.isEmpty() )
+        {
+            namedParameterJdbcTemplate.batchUpdate( readStatement( "flow.run.outbox.insert" ),
+                outboxRows.toArray( new SqlParameterSource[0] ) );
+        }
+    }
+
+    protected SqlParameterSource[] toRunUuidBatch( List<String> runUuids, String flowUuid )
+    {
+        SqlParameterSource[] batch = new SqlParameterSource[runUuids.size()];
+        for ( int i = 0; i < runUuids.size(); i++ )
+        {
+            batch[i] = new MapSqlParameterSource().addValue( "runUuid", runUuids.get( i ) )
+                .addValue( "flowUuid", flowUuid );
+        }
+        return batch;
+    }
+
+    protected String writeHeaders( Exchange exchange )
+        throws JsonProcessingException
+    {
+        Map<String, Object> headers = new HashMap<>();
+        for ( Map.Entry<String, Object> header : exchange.getMessage().getHeaders().entrySet() )
+        {
+            Object value = header.getValue();
+            // the RapidPro API token and Camel's own headers are not needed to deliver the message
+            if ( !header.getKey().equals( "Authorization" ) && !header.getKey().startsWith( "Camel" ) && (
+                value instanceof String || value instanceof Number || value instanceof Boolean) )
+            {
+                headers.put( header.getKey(), value );
+            }
+        }
+        return objectMapper.writeValueAsString( headers );
+    }
+
+    protected String readStatement( String statementKey )
+    {
+        // sql.properties uses the Camel JDBC parameter syntax
+        return environment.getRequiredProperty( statementKey + "." + platform ).replace( ":?", ":" );
+    }
+
+    private static final class PendingFlowRun
+    {
+        private final String queueName;
+
+        private final String headers;
+
+        private final String body;
+
+        private final String fingerprint;
+
+        private PendingFlowRun( String queueName, String headers, String body, String fingerprint )
+        {
+            this.queueName = queueName;
+            this.headers = headers;
+            this.body = body;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
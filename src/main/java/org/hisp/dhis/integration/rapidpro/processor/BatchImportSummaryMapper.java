@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.hisp.dhis.integration.sdk.api.RemoteDhis2ClientException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Traces the import summary of a merged batch of reports back to the reports of the batch. The indexes of the
+ * conflicting data values are mapped to their reports with the offsets kept by {@link DataValueSetMerger}. The
+ * indexes of the reports that were not fully imported are kept in the <code>conflictedReportIndexes</code> exchange
+ * property. Every report of the batch is flagged when the import summary is missing, has an <code>ERROR</code>
+ * status, or has ignored data values that cannot be traced back to a report.
+ */
+@Component
+public class BatchImportSummaryMapper implements Processor
+{
+    public static final String CONFLICTED_REPORT_INDEXES_PROPERTY = "conflictedReportIndexes";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        int reportCount = exchange.getProperty( "batchedReports", List.class ).size();
+        List<Integer> batchedReportOffsets = exchange.getProperty( DataValueSetMerger.BATCHED_REPORT_OFFSETS_PROPERTY,
+            List.class );
+        Map<String, Object> importSummary = readImportSummary( exchange );
+        exchange.setProperty( CONFLICTED_REPORT_INDEXES_PROPERTY, importSummary == null ? allReportIndexes(
+            reportCount ) : getConflictedReportIndexes( importSummary, batchedReportOffsets, reportCount ) );
+    }
+
+    public boolean isImported( Exchange exchange )
+    {
+        Set<Integer> conflictedReportIndexes = exchange.getProperty( CONFLICTED_REPORT_INDEXES_PROPERTY, Set.class );
+        return !conflictedReportIndexes.contains( exchange.getProperty( Exchange.SPLIT_INDEX, Integer.class ) );
+    }
+
+    protected Map<String, Object> readImportSummary( Exchange exchange )
+    {
+        Throwable throwable = exchange.getProperty( Exchange.EXCEPTION_CAUGHT, Throwable.class );
+        if ( throwable != null )
+        {
+            RemoteDhis2ClientException remoteDhis2ClientException = findRemoteDhis2ClientException( throwable );
+            if ( remoteDhis2ClientException == null )
+            {
+                return null;
+            }
+            exchange.setProperty( "batchDhisResponse", remoteDhis2ClientException.getBody() );
+        }
+
+        String dhisResponse = exchange.getProperty( "batchDhisResponse", String.class );
+        if ( dhisResponse == null || dhisResponse.isBlank() )
+        {
+            return null;
+        }
+        Map<String, Object> webMessage;
+        try
+        {
+            webMessage = objectMapper.readValue( dhisResponse, Map.class );
+        }
+        catch ( JsonProcessingException e )
+        {
+            return null;
+        }
+        Object response = webMessage.get( "response" );
+        return response instanceof Map ? (Map<String, Object>) response : webMessage;
+    }
+
+    protected Set<Integer> getConflictedReportIndexes( Map<String, Object> importSummary,
+        List<Integer> batchedReportOffsets, int reportCount )
+    {
+        Object status = importSummary.get( "status" );
+        if ( !"SUCCESS".equals( status ) && !"OK".equals( status ) && !"WARNING".equals( status ) )
+        {
+            return allReportIndexes( reportCount );
+        }
+
+        Set<Integer> conflictedDataValueIndexes = new TreeSet<>();
+        List<Map<String, Object>> conflicts = (List<Map<String, Object>>) importSummary.get( "conflicts" );
+        if ( conflicts != null )
+        {
+            for ( Map<String, Object> conflict : conflicts )
+            {
+                Object indexes = conflict.get( "indexes" );
+                if ( !(indexes instanceof List) || ((List<?>) indexes).isEmpty() )
+                {
+                    return allReportIndexes( reportCount );
+                }
+                for ( Object index : (List<?>) indexes )
+                {
+                    conflictedDataValueIndexes.add( ((Number) index).intValue() );
+                }
+            }
+        }
+
+        Map<String, Object> importCount = (Map<String, Object>) importSummary.get( "importCount" );
+        Object ignored = importCount == null ? null : importCount.get( "ignored" );
+        if ( ignored instanceof Number && ((Number) ignored).intValue() > conflictedDataValueIndexes.size() )
+        {
+            return allReportIndexes( reportCount );
+        }
+
+        Set<Integer> conflictedReportIndexes = new TreeSet<>();
+        for ( int conflictedDataValueIndex : conflictedDataValueIndexes )
+        {
+            int reportIndex = getReportIndex( conflictedDataValueIndex, batchedReportOffsets );
+            if ( reportIndex < 0 )
+            {
+                return allReportIndexes( reportCount );
+            }
+            conflictedReportIndexes.add( reportIndex );
+        }
+        return conflictedReportIndexes;
+    }
+
+    protected int getReportIndex( int dataValueIndex, List<Integer> batchedReportOffsets )
+    {
+        for ( int i = batchedReportOffsets.size() - 1; i >= 0; i-- )
+        {
+            if ( batchedReportOffsets.get( i ) <= dataValueIndex )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected Set<Integer> allReportIndexes( int reportCount )
+    {
+        return IntStream.range( 0, reportCount ).boxed().collect( Collectors.toCollection( TreeSet::new ) );
+    }
+
+    protected RemoteDhis2ClientException findRemoteDhis2ClientException( Throwable throwable )
+    {
+        for ( Throwable cause = throwable; cause != null; cause = cause.getCause() )
+        {
+            if ( cause instanceof RemoteDhis2ClientException )
+            {
+                return (RemoteDhis2ClientException) cause;
+            }
+            if ( cause.getCause() == cause )
+            {
+                break;
+            }
+        }
+        return null;
+    }
+}
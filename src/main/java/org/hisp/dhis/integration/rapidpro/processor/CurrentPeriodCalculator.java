@@ -28,23 +28,25 @@
 package org.hisp.dhis.integration.rapidpro.processor;
 
 import java.util.Date;
-import java.util.List;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
-import org.hisp.dhis.api.model.v40_0.DataSet;
+import org.hisp.dhis.integration.rapidpro.cache.DataSetCache;
 import org.hisp.dhis.integration.sdk.support.period.PeriodBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 public class CurrentPeriodCalculator implements Processor
 {
+    @Autowired
+    private DataSetCache dataSetCache;
+
     @Override
     public void process( Exchange exchange )
         throws Exception
     {
-        List<DataSet> dataSets = exchange.getMessage().getBody( List.class );
-        String periodType = dataSets.get( 0 ).getPeriodType().get().value();
+        String periodType = dataSetCache.getPeriodType( exchange.getMessage().getHeader( "dataSetCode", String.class ) );
         int reportPeriodOffset = exchange.getMessage().getHeader( "reportPeriodOffset", Integer.class );
         String period;
         if ( periodType.equalsIgnoreCase( "Daily" ) )
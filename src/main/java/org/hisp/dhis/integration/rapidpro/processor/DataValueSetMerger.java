@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Merges the transformed reports of a batch, which all belong to the same data set, into a single data value set. The
+ * organisation unit and period of each report are pushed down into its data values so that reports for different
+ * organisation units or periods can be imported together. The offset of each report's first data value in the merged
+ * data value set is kept in the <code>batchedReportOffsets</code> exchange property so that the conflicts of the import
+ * summary can be traced back to the reports of the batch.
+ */
+@Component
+public class DataValueSetMerger implements Processor
+{
+    public static final String BATCHED_REPORT_OFFSETS_PROPERTY = "batchedReportOffsets";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void process( Exchange exchange )
+        throws Exception
+    {
+        List<Exchange> batchedReports = exchange.getProperty( "batchedReports", List.class );
+        List<Map<String, Object>> dataValues = new ArrayList<>();
+        List<Integer> batchedReportOffsets = new ArrayList<>();
+        String dataSet = null;
+        for ( Exchange batchedReport : batchedReports )
+        {
+            batchedReportOffsets.add( dataValues.size() );
+            Map<String, Object> dataValueSet = objectMapper.readValue(
+                batchedReport.getMessage().getBody( String.class ), Map.class );
+            dataSet = (String) dataValueSet.get( "dataSet" );
+            for ( Map<String, Object> dataValue : (List<Map<String, Object>>) dataValueSet.get( "dataValues" ) )
+            {
+                Map<String, Object> mergedDataValue = new LinkedHashMap<>( dataValue );
+                mergedDataValue.putIfAbsent( "orgUnit", dataValueSet.get( "orgUnit" ) );
+                mergedDataValue.putIfAbsent( "period", dataValueSet.get( "period" ) );
+                dataValues.add( mergedDataValue );
+            }
+        }
+
+        Map<String, Object> mergedDataValueSet = new HashMap<>();
+        mergedDataValueSet.put( "dataSet", dataSet );
+        mergedDataValueSet.put( "dataValues", dataValues );
+
+        exchange.setProperty( BATCHED_REPORT_OFFSETS_PROPERTY, batchedReportOffsets );
+        Exchange firstReport = batchedReports.get( 0 );
+        exchange.getMessage().setHeader( "dataSetCode", firstReport.getMessage().getHeader( "dataSetCode" ) );
+        exchange.getMessage().setHeader( "CamelDhis2.queryParams",
+            firstReport.getMessage().getHeader( "CamelDhis2.queryParams" ) );
+        exchange.getMessage().setBody( objectMapper.writeValueAsString( mergedDataValueSet ) );
+    }
+}
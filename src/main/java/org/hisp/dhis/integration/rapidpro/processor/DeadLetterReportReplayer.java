@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.jms.ConnectionFactory;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.support.DefaultExchange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Re-queues a batch of claimed <code>REPORT_DEAD_LETTER_CHANNEL</code> rows. The reports are sent in a single
+ * transacted JMS session and the rows are marked as processed with a single <code>UPDATE</code>. The JMS session is
+ * committed inside the database transaction: should the database commit fail after the reports were queued, the rows
+ * are re-queued once their lease runs out, so a failure duplicates reports rather than losing them.
+ */
+@Component
+public class DeadLetterReportReplayer implements Processor
+{
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ReportGroupIdSetter reportGroupIdSetter;
+
+    @Autowired
+    private Environment environment;
+
+    @Value( "${spring.sql.init.platform}" )
+    private String platform;
+
+    private JmsTemplate jmsTemplate;
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        jmsTemplate = new JmsTemplate( connectionFactory );
+        jmsTemplate.setSessionTransacted( true );
+    }
+
+    @Override
+    public void process( Exchange exchange )
+        throws Exception
+    {
+        List<Map<String, Object>> rows = exchange.getMessage().getBody( List.class );
+        List<Exchange> reports = new ArrayList<>();
+        List<Object> ids = new ArrayList<>();
+        for ( Map<String, Object> row : rows )
+        {
+            reports.add( toReport( exchange, row ) );
+            ids.add( row.get( "id" ) );
+        }
+
+        String processedUpdate = environment.getRequiredProperty( "report.processed.dlc.update." + platform );
+        transactionTemplate.executeWithoutResult( status -> {
+            namedParameterJdbcTemplate.update( processedUpdate,
+                Map.of( "ids", ids, "nodeId", exchange.getMessage().getHeader( "nodeId" ) ) );
+            jmsTemplate.execute( session -> {
+                MessageProducer producer = session.createProducer( session.createQueue( "dhis2AggregateReports" ) );
+                try
+                {
+                    for ( Exchange report : reports )
+                    {
+                        producer.send( toMessage( session, report ) );
+                    }
+                    session.commit();
+                }
+                finally
+                {
+                    producer.close();
+                }
+                return null;
+            }, true );
+        } );
+    }
+
+    protected Exchange toReport( Exchange exchange, Map<String, Object> row )
+        throws Exception
+    {
+        Exchange report = new DefaultExchange( exchange.getContext() );
+        report.getMessage().setHeader( "dataSetCode", row.get( "data_set_code" ) );
+        report.getMessage().setHeader( "reportPeriodOffset", row.get( "report_period_offset" ) );
+        report.getMessage().setHeader( "orgUnitId", row.get( "organisation_unit_id" ) );
+        report.getMessage().setHeader( "attemptCount", row.get( "attempt_count" ) );
+        report.getMessage().setBody( row.get( "payload" ) );
+        reportGroupIdSetter.process( report );
+
+        return report;
+    }
+
+    protected Message toMessage( Session session, Exchange report )
+        throws Exception
+    {
+        Message message = session.createTextMessage( report.getMessage().getBody( String.class ) );
+        for ( Map.Entry<String, Object> header : report.getMessage().getHeaders().entrySet() )
+        {
+            if ( header.getValue() != null )
+            {
+                message.setObjectProperty( header.getKey(), header.getValue() );
+            }
+        }
+        return message;
+    }
+}
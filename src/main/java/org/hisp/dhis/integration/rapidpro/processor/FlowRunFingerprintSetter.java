@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Sets the <code>flowRunFingerprint</code> header of an aggregate report flow run. The fingerprint is made up of the
+ * flow run UUID and a SHA-256 hash of the flow results' values so that a flow run polled from the RapidPro API and the
+ * same flow run received from a RapidPro webhook share the same fingerprint. The header is removed when the flow run
+ * UUID is unknown, as is the case for webhook messages with a custom payload.
+ */
+@Component
+public class FlowRunFingerprintSetter implements Processor
+{
+    public static final String FLOW_RUN_FINGERPRINT_HEADER = "flowRunFingerprint";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        exchange.getMessage().removeHeader( FLOW_RUN_FINGERPRINT_HEADER );
+
+        String runUuid;
+        Map<String, Object> results;
+        if ( exchange.getMessage().getBody() instanceof Map )
+        {
+            // flow run from the RapidPro API
+            Map<String, Object> flowRun = exchange.getMessage().getBody( Map.class );
+            runUuid = (String) flowRun.get( "uuid" );
+            results = (Map<String, Object>) flowRun.get( "values" );
+        }
+        else
+        {
+            // RapidPro webhook message
+            String body = exchange.getMessage().getBody( String.class );
+            exchange.getMessage().setBody( body );
+            Map<String, Object> webhookMessage = readWebhookMessage( body );
+            Map<String, Object> run = webhookMessage == null ? null : (Map<String, Object>) webhookMessage.get( "run" );
+            runUuid = run == null ? null : (String) run.get( "uuid" );
+            results = runUuid == null ? null : (Map<String, Object>) webhookMessage.get( "results" );
+        }
+
+        if ( runUuid != null )
+        {
+            exchange.getMessage().setHeader( FLOW_RUN_FINGERPRINT_HEADER, runUuid + ":" + hash( results ) );
+        }
+    }
+
+    protected String hash( Map<String, Object> results )
+    {
+        Hasher hasher = Hashing.sha256().newHasher();
+        if ( results != null )
+        {
+            for ( Map.Entry<String, Object> result : new TreeMap<>( results ).entrySet() )
+            {
+                Object value = result.getValue() instanceof Map ? ((Map<String, Object>) result.getValue()).get(
+                    "value" ) : result.getValue();
+                hasher.putString( result.getKey(), StandardCharsets.UTF_8 ).putChar( '=' )
+                    .putString( String.valueOf( value ), StandardCharsets.UTF_8 ).putChar( '\n' );
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    protected Map<String, Object> readWebhookMessage( String body )
+    {
+        try
+        {
+            return objectMapper.readValue( body, Map.class );
+        }
+        catch ( JsonProcessingException e )
+        {
+            // malformed reports are rejected further down the line when they are transformed
+            return null;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.hisp.dhis.integration.rapidpro.cache.CategoryOptionComboIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Java implementation of <code>dataValueSet.ds</code> which maps a RapidPro flow run to a DHIS2 data value set. The
+ * output is identical to the DataSonnet mapping: object keys are sorted and the contact in the comment is rendered
+ * the way <code>std.escapeStringJson(std.manifestJsonEx(payload.contact, ' '))</code> renders it. Unlike the
+ * DataSonnet mapping, data element codes are normalised once per report instead of once per result.
+ */
+@Component
+public class NativeDataValueSetMapper implements Processor
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( NativeDataValueSetMapper.class );
+
+    @Autowired
+    private CategoryOptionComboIndex categoryOptionComboIndex;
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        Map<String, Object> payload = exchange.getMessage().getBody( Map.class );
+        List<String> dataElementCodes = exchange.getMessage().getHeader( "dataElementCodes", List.class );
+
+        Map<String, String> dataElementCodesByNormalisedCode = new HashMap<>();
+        for ( String dataElementCode : dataElementCodes )
+        {
+            dataElementCodesByNormalisedCode.putIfAbsent( dataElementCode.toLowerCase().replace( " ", "_" ),
+                dataElementCode );
+        }
+
+        String comment = null;
+        List<Map<String, Object>> dataValues = new ArrayList<>();
+        for ( Map.Entry<String, Object> result : ((Map<String, Object>) payload.get( "results" )).entrySet() )
+        {
+            Map<String, Object> resultValue = (Map<String, Object>) result.getValue();
+            String resultName = resultValue.containsKey( "name" ) ? (String) resultValue.get( "name" ) :
+                result.getKey();
+            String truncatedResultName = truncateCatOptComboSuffix( resultName );
+            String dataElementCode = dataElementCodesByNormalisedCode.get( truncatedResultName.toLowerCase() );
+            if ( dataElementCode == null )
+            {
+                LOGGER.warn( "Ignoring data value because of unknown DHIS2 data element code '" + truncatedResultName
+                    + "'. Hint: ensure that the RapidPro result name matches the corresponding DHIS2 data element code" );
+            }
+            else
+            {
+                if ( comment == null )
+                {
+                    comment = "RapidPro contact details: " + escapeStringJson(
+                        manifestJsonEx( payload.get( "contact" ), " ", "" ) );
+                }
+                Map<String, Object> dataValue = new TreeMap<>();
+                dataValue.put( "dataElement", dataElementCode );
+                dataValue.put( "value", resultValue.get( "value" ) );
+                dataValue.put( "comment", comment );
+                String catOptComboCode = lookupCatOptComboCode( resultName );
+                if ( catOptComboCode != null )
+                {
+                    dataValue.put( "categoryOptionCombo", catOptComboCode );
+                }
+                dataValues.add( dataValue );
+            }
+        }
+
+        Map<String, Object> dataValueSet = new TreeMap<>();
+        dataValueSet.put( "completedDate", LocalDate.now().toString() );
+        dataValueSet.put( "orgUnit", exchange.getMessage().getHeader( "orgUnitId" ) );
+        dataValueSet.put( "dataSet", exchange.getMessage().getHeader( "dataSetCode" ) );
+        dataValueSet.put( "period", exchange.getMessage().getHeader( "period" ) );
+        dataValueSet.put( "dataValues", dataValues );
+
+        exchange.getMessage().setBody( dataValueSet );
+    }
+
+    protected String lookupCatOptComboCode( String resultName )
+    {
+        if ( !resultName.contains( "__" ) )
+        {
+            return null;
+        }
+        String catOptComboCode = resultName.substring( resultName.indexOf( "__" ) + 2 );
+        String dhis2CatOptComboCode = categoryOptionComboIndex.lookup( catOptComboCode );
+        if ( dhis2CatOptComboCode == null )
+        {
+            LOGGER.warn(
+                "Ignoring category option combination because of unknown category option combination code '"
+                    + catOptComboCode
+                    + "'. Hint: ensure the RapidPro result name suffix starts with '__'  and that the trailing code matches the corresponding DHIS2 category option combination code" );
+        }
+        return dhis2CatOptComboCode;
+    }
+
+    protected String truncateCatOptComboSuffix( String resultName )
+    {
+        return resultName.contains( "__" ) ? resultName.substring( 0, resultName.indexOf( "__" ) ) : resultName;
+    }
+
+    protected String manifestJsonEx( Object value, String indent, String currentIndent )
+    {
+        if ( value == null )
+        {
+            return "null";
+        }
+        else if ( value instanceof String )
+        {
+            return escapeStringJson( (String) value );
+        }
+        else if ( value instanceof Number )
+        {
+            return renderNumber( (Number) value );
+        }
+        else if ( value instanceof Map )
+        {
+            Map<String, Object> object = new TreeMap<>( (Map<String, Object>) value );
+            if ( object.isEmpty() )
+            {
+                return "{ }";
+            }
+            StringBuilder json = new StringBuilder( "{\n" );
+            String fieldIndent = currentIndent + indent;
+            boolean first = true;
+            for ( Map.Entry<String, Object> field : object.entrySet() )
+            {
+                if ( !first )
+                {
+                    json.append( ",\n" );
+                }
+                json.append( fieldIndent ).append( escapeStringJson( field.getKey() ) ).append( ": " )
+                    .append( manifestJsonEx( field.getValue(), indent, fieldIndent ) );
+                first = false;
+            }
+            return json.append( '\n' ).append( currentIndent ).append( '}' ).toString();
+        }
+        else if ( value instanceof List )
+        {
+            List<Object> array = (List<Object>) value;
+            if ( array.isEmpty() )
+            {
+                return "[ ]";
+            }
+            StringBuilder json = new StringBuilder( "[\n" );
+            String elementIndent = currentIndent + indent;
+            for ( int i = 0; i < array.size(); i++ )
+            {
+                if ( i > 0 )
+                {
+                    json.append( ",\n" );
+                }
+                json.append( elementIndent ).append( manifestJsonEx( array.get( i ), indent, elementIndent ) );
+            }
+            return json.append( '\n' ).append( currentIndent ).append( ']' ).toString();
+        }
+        else
+        {
+            return value.toString();
+        }
+    }
+
+    protected String renderNumber( Number number )
+    {
+        double doubleValue = number.doubleValue();
+        if ( doubleValue == Math.rint( doubleValue ) && !Double.isInfinite( doubleValue ) )
+        {
+            return Long.toString( number.longValue() );
+        }
+        return Double.toString( doubleValue );
+    }
+
+    protected String escapeStringJson( String value )
+    {
+        StringBuilder escaped = new StringBuilder( value.length() + 16 ).append( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            switch ( c )
+            {
+            case '"':
+                escaped.append( "\\\"" );
+                break;
+            case '\\':
+                escaped.append( "\\\\" );
+                break;
+            case '\b':
+                escaped.append( "\\b" );
+                break;
+            case '\f':
+                escaped.append( "\\f" );
+                break;
+            case '\n':
+                escaped.append( "\\n" );
+                break;
+            case '\r':
+                escaped.append( "\\r" );
+                break;
+            case '\t':
+                escaped.append( "\\t" );
+                break;
+            default:
+                if ( c < ' ' )
+                {
+                    escaped.append( String.format( "\\u%04x", (int) c ) );
+                }
+                else
+                {
+                    escaped.append( c );
+                }
+            }
+        }
+        return escaped.append( '"' ).toString();
+    }
+}
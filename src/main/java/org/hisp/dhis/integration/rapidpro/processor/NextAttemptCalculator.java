@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.hisp.dhis.integration.rapidpro.expression.ErrorClassExpr;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the failed attempt of a report about to be saved in the dead letter channel and schedules its next attempt.
+ * Only transient failures are rescheduled: the delay starts at <code>report.retry.backoff.initial.seconds</code> and
+ * doubles with each attempt up to <code>report.retry.backoff.max.seconds</code>, plus up to 10% of random jitter so
+ * that reports failing together are not retried together. No attempt is scheduled once the report has failed
+ * <code>report.retry.max.attempts</code> times.
+ */
+@Component
+public class NextAttemptCalculator implements Processor
+{
+    @Value( "${report.retry.max.attempts:5}" )
+    private int maxAttempts;
+
+    @Value( "${report.retry.backoff.initial.seconds:60}" )
+    private long initialBackoffSeconds;
+
+    @Value( "${report.retry.backoff.max.seconds:3600}" )
+    private long maxBackoffSeconds;
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        int attemptCount = exchange.getMessage().getHeader( "attemptCount", 0, Integer.class ) + 1;
+        exchange.getMessage().setHeader( "attemptCount", attemptCount );
+
+        String errorClass = exchange.getMessage().getHeader( "errorClass", String.class );
+        if ( ErrorClassExpr.TRANSIENT.equals( errorClass ) && attemptCount < maxAttempts )
+        {
+            long backoffSeconds = getBackoffSeconds( attemptCount );
+            long jitterSeconds = ThreadLocalRandom.current().nextLong( backoffSeconds / 10 + 1 );
+            exchange.getMessage().setHeader( "nextAttemptAt",
+                Timestamp.from( Instant.now().plusSeconds( backoffSeconds + jitterSeconds ) ) );
+        }
+        else
+        {
+            exchange.getMessage().setHeader( "nextAttemptAt", null );
+        }
+    }
+
+    protected long getBackoffSeconds( int attemptCount )
+    {
+        long backoffSeconds = initialBackoffSeconds << Math.min( attemptCount - 1, 30 );
+        return backoffSeconds < 0 ? maxBackoffSeconds : Math.min( backoffSeconds, maxBackoffSeconds );
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedCamelContext;
+import org.apache.camel.ExtendedExchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.StreamCache;
+import org.apache.camel.spi.UnitOfWork;
+import org.apache.camel.support.DefaultExchange;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads the pages of a cursor-paginated RapidPro collection, such as <code>runs.json</code> or
+ * <code>contacts.json</code>, while fetching up to <code>rapidpro.page.prefetch.size</code> of the following pages in
+ * the background. Setting <code>rapidpro.page.prefetch.size</code> to <code>0</code> fetches each page only when it
+ * is read. A page is handed over as the body returned by the fetch endpoint, such as a stream cache spooled to disk,
+ * and the fetch exchange is kept open until the page is read so that the body is not released beforehand.
+ */
+@Component
+public class PagePrefetcher
+{
+    @Autowired
+    private CamelContext camelContext;
+
+    @Autowired
+    private ProducerTemplate producerTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value( "${rapidpro.page.prefetch.size:1}" )
+    private int prefetchSize;
+
+    private ExecutorService executorService;
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        executorService = camelContext.getExecutorServiceManager().newCachedThreadPool( this, "PagePrefetcher" );
+    }
+
+    /**
+     * Creates a processor that replaces the exchange body with the next page of a collection and sets the exchange
+     * property <code>nextPageUrlProperty</code> to the URL of the page after it, or to <code>null</code> when the
+     * last page is read. The first page is the one at the URL held by <code>nextPageUrlProperty</code> when the
+     * processor is first invoked for the exchange.
+     *
+     * @param fetchPageEndpointUri endpoint fetching the page at the URL held by <code>nextPageUrlProperty</code>.
+     *                             The endpoint receives the headers and properties of the exchange reading the first
+     *                             page.
+     * @param nextPageUrlProperty  name of the exchange property holding the URL of the next page
+     */
+    public Processor reader( String fetchPageEndpointUri, String nextPageUrlProperty )
+    {
+        String pageCursorProperty = nextPageUrlProperty + "Cursor";
+        return exchange -> {
+            PageCursor pageCursor = exchange.getProperty( pageCursorProperty, PageCursor.class );
+            if ( pageCursor == null )
+            {
+                PageCursor newPageCursor = new PageCursor( exchange, fetchPageEndpointUri, nextPageUrlProperty );
+                exchange.setProperty( pageCursorProperty, newPageCursor );
+                exchange.adapt( ExtendedExchange.class ).addOnCompletion( new SynchronizationAdapter()
+                {
+                    @Override
+                    public void onDone( Exchange exchange )
+                    {
+                        newPageCursor.close();
+                    }
+                } );
+                pageCursor = newPageCursor;
+            }
+
+            Page page = pageCursor.take();
+            exchange.getMessage().setBody( page.body );
+            exchange.setProperty( nextPageUrlProperty, page.next );
+            if ( page.next == null )
+            {
+                exchange.removeProperty( pageCursorProperty );
+            }
+        };
+    }
+
+    protected String readNext( Object page )
+        throws IOException
+    {
+        if ( page == null )
+        {
+            return null;
+        }
+        try ( JsonParser jsonParser = objectMapper.createParser(
+            camelContext.getTypeConverter().convertTo( InputStream.class, page ) ) )
+        {
+            if ( jsonParser.nextToken() == JsonToken.START_OBJECT )
+            {
+                while ( jsonParser.nextToken() == JsonToken.FIELD_NAME )
+                {
+                    String fieldName = jsonParser.getCurrentName();
+                    JsonToken valueToken = jsonParser.nextToken();
+                    if ( fieldName.equals( "next" ) )
+                    {
+                        return valueToken == JsonToken.VALUE_NULL ? null : jsonParser.getText();
+                    }
+                    jsonParser.skipChildren();
+                }
+            }
+            return null;
+        }
+        finally
+        {
+            if ( page instanceof StreamCache )
+            {
+                ((StreamCache) page).reset();
+            }
+        }
+    }
+
+    private static final class Page
+    {
+        private final Exchange fetchExchange;
+
+        private final Object body;
+
+        private final String next;
+
+        private Page( Exchange fetchExchange, Object body, String next )
+        {
+            this.fetchExchange = fetchExchange;
+            this.body = body;
+            this.next = next;
+        }
+
+        /**
+         * Completes the fetch exchange, which releases the page body (e.g., deletes the spooled file).
+         */
+        private void release()
+        {
+            fetchExchange.getUnitOfWork().done( fetchExchange );
+        }
+    }
+
+    private final class PageCursor
+    {
+        private final Map<String, Object> headers;
+
+        private final Map<String, Object> properties;
+
+        private final String fetchPageEndpointUri;
+
+        private final String nextPageUrlProperty;
+
+        private final BlockingQueue<Object> pages = new LinkedBlockingQueue<>();
+
+        private final Semaphore prefetchPermits = new Semaphore( prefetchSize );
+
+        private final Future<?> prefetch;
+
+        private String nextPageUrl;
+
+        private Page currentPage;
+
+        private boolean closed;
+
+        private PageCursor( Exchange exchange, String fetchPageEndpointUri, String nextPageUrlProperty )
+        {
+            this.headers = new HashMap<>( exchange.getMessage().getHeaders() );
+            this.properties = new HashMap<>( exchange.getProperties() );
+            this.fetchPageEndpointUri = fetchPageEndpointUri;
+            this.nextPageUrlProperty = nextPageUrlProperty;
+            this.nextPageUrl = exchange.getProperty( nextPageUrlProperty, String.class );
+            this.prefetch = prefetchSize > 0 ? executorService.submit( this::prefetch ) : null;
+        }
+
+        private Page take()
+            throws Exception
+        {
+            releaseCurrentPage();
+            Page page;
+            if ( prefetch == null )
+            {
+                page = fetch( nextPageUrl );
+                nextPageUrl = page.next;
+            }
+            else
+            {
+                Object prefetchedPage = pages.take();
+                prefetchPermits.release();
+                if ( prefetchedPage instanceof Exception )
+                {
+                    throw (Exception) prefetchedPage;
+                }
+                page = (Page) prefetchedPage;
+            }
+            setCurrentPage( page );
+            return page;
+        }
+
+        private void prefetch()
+        {
+            String pageUrl = nextPageUrl;
+            try
+            {
+                while ( pageUrl != null )
+                {
+                    prefetchPermits.acquire();
+                    Page page = fetch( pageUrl );
+                    if ( !offer( page ) )
+                    {
+                        return;
+                    }
+                    pageUrl = page.next;
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                pages.add( e );
+                Thread.currentThread().interrupt();
+            }
+            catch ( Exception e )
+            {
+                pages.add( e );
+            }
+        }
+
+        private Page fetch( String pageUrl )
+            throws Exception
+        {
+            Exchange fetchExchange = new DefaultExchange( camelContext );
+            fetchExchange.getMessage().setHeaders( new HashMap<>( headers ) );
+            properties.forEach( fetchExchange::setProperty );
+            fetchExchange.setProperty( nextPageUrlProperty, pageUrl );
+            // the fetch exchange is given its own unit of work so that the body it returns, such as a spooled stream
+            // cache, outlives the send and is only released once the page is read
+            UnitOfWork unitOfWork = camelContext.adapt( ExtendedCamelContext.class ).getUnitOfWorkFactory()
+                .createUnitOfWork( fetchExchange );
+            fetchExchange.adapt( ExtendedExchange.class ).setUnitOfWork( unitOfWork );
+            producerTemplate.send( fetchPageEndpointUri, fetchExchange );
+            try
+            {
+                if ( fetchExchange.getException() != null )
+                {
+                    throw fetchExchange.getException();
+                }
+                Object body = fetchExchange.getMessage().getBody();
+                return new Page( fetchExchange, body, readNext( body ) );
+            }
+            catch ( Exception e )
+            {
+                unitOfWork.done( fetchExchange );
+                throw e;
+            }
+        }
+
+        private synchronized boolean offer( Page page )
+        {
+            if ( closed )
+            {
+                page.release();
+                return false;
+            }
+            pages.add( page );
+            return true;
+        }
+
+        private synchronized void setCurrentPage( Page page )
+        {
+            currentPage = page;
+        }
+
+        private synchronized void releaseCurrentPage()
+        {
+            if ( currentPage != null )
+            {
+                currentPage.release();
+                currentPage = null;
+            }
+        }
+
+        private synchronized void close()
+        {
+            if ( closed )
+            {
+                return;
+            }
+            closed = true;
+            if ( prefetch != null )
+            {
+                prefetch.cancel( true );
+            }
+            releaseCurrentPage();
+            for ( Object page : pages )
+            {
+                if ( page instanceof Page )
+                {
+                    ((Page) page).release();
+                }
+            }
+            pages.clear();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops the due events in the <code>dueEvents</code> exchange property whose status update is still waiting in
+ * <code>EVENT_DEAD_LETTER_CHANNEL</code> so that they are not queued again before the failed update is retried. Only
+ * the dead letter channel rows of the due events are looked up, in chunks of up to 1000 event IDs.
+ */
+@Component
+public class PendingEventFilter implements Processor
+{
+    private static final int CHUNK_SIZE = 1000;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private Environment environment;
+
+    @Value( "${spring.sql.init.platform}" )
+    private String platform;
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        List<Map<String, Object>> dueEvents = exchange.getProperty( "dueEvents", List.class );
+        List<Object> eventIds = new ArrayList<>();
+        for ( Map<String, Object> dueEvent : dueEvents )
+        {
+            eventIds.add( dueEvent.get( "event" ) );
+        }
+
+        String pendingSelect = environment.getRequiredProperty( "event.pending.dlc.select." + platform );
+        Set<Object> pendingEventIds = new HashSet<>();
+        for ( int i = 0; i < eventIds.size(); i += CHUNK_SIZE )
+        {
+            pendingEventIds.addAll( namedParameterJdbcTemplate.queryForList( pendingSelect,
+                Map.of( "eventIds", eventIds.subList( i, Math.min( i + CHUNK_SIZE, eventIds.size() ) ) ),
+                Object.class ) );
+        }
+
+        List<Map<String, Object>> notPendingDueEvents = new ArrayList<>();
+        for ( Map<String, Object> dueEvent : dueEvents )
+        {
+            if ( !pendingEventIds.contains( dueEvent.get( "event" ) ) )
+            {
+                notPendingDueEvents.add( dueEvent );
+            }
+        }
+        exchange.setProperty( "dueEvents", notPendingDueEvents );
+    }
+}
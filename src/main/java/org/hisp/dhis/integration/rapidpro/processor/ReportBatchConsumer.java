@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.component.jms.JmsEndpoint;
+import org.hisp.dhis.integration.rapidpro.Dhis2RapidProException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Takes the next batch of queued aggregate reports for batched delivery. Up to <code>report.delivery.batch.size</code>
+ * reports are received within <code>report.delivery.batch.timeout</code> milliseconds of the first report in a
+ * transacted JMS session. The session is committed only after the batch was delivered, that is, after each of its
+ * reports was either imported or saved to the dead letter channel. Should the application terminate before then, the
+ * broker redelivers the reports of the batch.
+ */
+@Component
+public class ReportBatchConsumer implements Processor
+{
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Autowired
+    private ProducerTemplate producerTemplate;
+
+    @Value( "${report.delivery.batch.size:1}" )
+    private int batchSize;
+
+    @Value( "${report.delivery.batch.timeout:1000}" )
+    private long batchTimeout;
+
+    private JmsTemplate jmsTemplate;
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        jmsTemplate = new JmsTemplate( connectionFactory );
+        jmsTemplate.setSessionTransacted( true );
+    }
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        JmsEndpoint jmsEndpoint = exchange.getContext()
+            .getEndpoint( "jms:queue:dhis2AggregateReports", JmsEndpoint.class );
+        jmsTemplate.execute( session -> {
+            MessageConsumer consumer = session.createConsumer( session.createQueue( "dhis2AggregateReports" ) );
+            try
+            {
+                List<Exchange> reports = receive( consumer, session, jmsEndpoint );
+                if ( !reports.isEmpty() )
+                {
+                    Exchange result = producerTemplate.send( "direct:deliverReportBatch",
+                        batch -> batch.getMessage().setBody( reports ) );
+                    if ( result.getException() != null )
+                    {
+                        session.rollback();
+                        throw new Dhis2RapidProException( result.getException() );
+                    }
+                }
+                session.commit();
+            }
+            finally
+            {
+                consumer.close();
+            }
+            return null;
+        }, true );
+    }
+
+    protected List<Exchange> receive( MessageConsumer consumer, Session session, JmsEndpoint jmsEndpoint )
+        throws
+        JMSException
+    {
+        List<Exchange> reports = new ArrayList<>();
+        Message message = consumer.receive( batchTimeout );
+        long deadline = System.currentTimeMillis() + batchTimeout;
+        while ( message != null )
+        {
+            reports.add( jmsEndpoint.createExchange( message, session ) );
+            long remaining = deadline - System.currentTimeMillis();
+            if ( reports.size() == batchSize || remaining <= 0 )
+            {
+                break;
+            }
+            message = consumer.receive( remaining );
+        }
+        return reports;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.ConsumerTemplate;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Takes the next batch of queued aggregate reports for scheduled delivery. The batch is grouped by JMS message group
+ * so that the reports of a group can be delivered in order while different groups are delivered in parallel. The
+ * <code>drainQueue</code> exchange property is cleared once the queue is empty or the time budget of the scheduled
+ * run is spent.
+ */
+@Component
+public class ReportBatchReceiver implements Processor
+{
+    @Autowired
+    private ConsumerTemplate consumerTemplate;
+
+    @Value( "${report.delivery.schedule.batch.size:100}" )
+    private int batchSize;
+
+    @Value( "${report.delivery.schedule.time.budget.seconds:1800}" )
+    private long timeBudgetSeconds;
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        long deadline = exchange.getProperty( "drainDeadline",
+            System.currentTimeMillis() + timeBudgetSeconds * 1000, Long.class );
+        exchange.setProperty( "drainDeadline", deadline );
+
+        Map<Object, List<Exchange>> reportGroups = new LinkedHashMap<>();
+        int received = 0;
+        while ( received < batchSize && System.currentTimeMillis() < deadline )
+        {
+            Exchange report = consumerTemplate.receive( "jms:queue:dhis2AggregateReports", 1000 );
+            if ( report == null )
+            {
+                break;
+            }
+            reportGroups.computeIfAbsent( report.getMessage().getHeader( "JMSXGroupID" ), k -> new ArrayList<>() )
+                .add( report );
+            received++;
+        }
+
+        exchange.setProperty( "drainedCount", exchange.getProperty( "drainedCount", 0, Integer.class ) + received );
+        exchange.setProperty( "drainQueue", received == batchSize && System.currentTimeMillis() < deadline );
+        exchange.getMessage().setBody( new ArrayList<>( reportGroups.values() ) );
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Sets the JMS message group of an aggregate report about to be queued. Reports for the same data set, organisation
+ * unit (or, when the organisation unit is not yet known, RapidPro contact), and report period offset share a group so
+ * that they are delivered in order by a single consumer while the other groups are delivered concurrently.
+ */
+@Component
+public class ReportGroupIdSetter implements Processor
+{
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void process( Exchange exchange )
+        throws Exception
+    {
+        String body = exchange.getMessage().getBody( String.class );
+        exchange.getMessage().setBody( body );
+
+        String orgUnit = exchange.getMessage().getHeader( "orgUnitId", String.class );
+        if ( orgUnit == null )
+        {
+            orgUnit = readContactUuid( body );
+        }
+        String reportPeriodOffset = exchange.getMessage().getHeader( "reportPeriodOffset", "-1", String.class );
+
+        exchange.getMessage().setHeader( "JMSXGroupID",
+            String.format( "%s:%s:%s", exchange.getMessage().getHeader( "dataSetCode" ), orgUnit,
+                reportPeriodOffset ) );
+    }
+
+    protected String readContactUuid( String report )
+    {
+        try
+        {
+            Map<String, Object> contact = (Map<String, Object>) objectMapper.readValue( report, Map.class )
+                .get( "contact" );
+            return contact == null ? null : (String) contact.get( "uuid" );
+        }
+        catch ( JsonProcessingException e )
+        {
+            // malformed reports are rejected further down the line when they are transformed
+            return null;
+        }
+    }
+}
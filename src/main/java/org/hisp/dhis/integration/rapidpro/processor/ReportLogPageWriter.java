@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.converter.stream.CachedOutputStream;
+import org.hisp.dhis.integration.rapidpro.audit.SuccessLogCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes the report log rows streamed by the JDBC component as a page: <code>{"rows": [...], "nextBefore": 42}</code>.
+ * Rows are written one at a time to a stream cache, which is spooled to disk when the page is large, and compressed
+ * success log payloads are decompressed along the way. <code>nextBefore</code> is the ID of the last row when the
+ * statement returned more rows than the <code>limit</code> header, otherwise <code>null</code>.
+ */
+@Component
+public class ReportLogPageWriter implements Processor
+{
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void process( Exchange exchange )
+        throws
+        Exception
+    {
+        int limit = exchange.getMessage().getHeader( "limit", Integer.class );
+        Iterator<Map<String, Object>> rows = exchange.getMessage().getBody( Iterator.class );
+
+        CachedOutputStream cachedOutputStream = new CachedOutputStream( exchange );
+        JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator( cachedOutputStream );
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeArrayFieldStart( "rows" );
+        int rowCount = 0;
+        Object lastId = null;
+        boolean hasNextPage = false;
+        while ( rows.hasNext() )
+        {
+            Map<String, Object> row = rows.next();
+            if ( rowCount == limit )
+            {
+                hasNextPage = true;
+                break;
+            }
+            SuccessLogCodec.decompress( row );
+            lastId = row.get( "id" );
+            jsonGenerator.writeObject( row );
+            rowCount++;
+        }
+        jsonGenerator.writeEndArray();
+        jsonGenerator.writeObjectField( "nextBefore", hasNextPage ? lastId : null );
+        jsonGenerator.writeEndObject();
+        // flushed rather than closed since closing the generator would close the stream cache being written
+        jsonGenerator.flush();
+        exchange.getMessage().setBody( cachedOutputStream.newStreamCache() );
+    }
+}
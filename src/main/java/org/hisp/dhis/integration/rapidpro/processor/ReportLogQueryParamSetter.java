@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.Processor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Turns the query parameters of a report log request into the headers of the report log statements in
+ * <code>sql.properties</code>. A filter that is not given is set to <code>null</code> so that the statement ignores it.
+ * <code>fetchLimit</code> is one more than the requested page size to find out whether there is a next page, and
+ * <code>countLimit</code> is one more than <code>management.count.max</code> to find out whether a count was capped.
+ * Throws an {@link IllegalArgumentException}, such as a {@link NumberFormatException}, when a query parameter is
+ * invalid.
+ */
+@Component
+public class ReportLogQueryParamSetter implements Processor
+{
+    private static final Set<String> STATUSES = Set.of( "PROCESSED", "RETRY", "ERROR" );
+
+    @Value( "${management.page.max.size:1000}" )
+    private int maxPageSize;
+
+    @Value( "${management.count.max:100000}" )
+    private long maxCount;
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        Message message = exchange.getMessage();
+        String status = message.getHeader( "status", String.class );
+        if ( status != null && !STATUSES.contains( status ) )
+        {
+            throw new IllegalArgumentException( "Status must be one of " + String.join( ", ", STATUSES ) );
+        }
+        int limit = Integer.parseInt( message.getHeader( "limit", "100", String.class ) );
+        if ( limit < 1 || limit > maxPageSize )
+        {
+            throw new IllegalArgumentException( "Limit must be between 1 and " + maxPageSize );
+        }
+
+        message.setHeader( "dataSetCode", message.getHeader( "dataSetCode", String.class ) );
+        message.setHeader( "orgUnitId", message.getHeader( "orgUnitId", String.class ) );
+        message.setHeader( "status", status );
+        message.setHeader( "from", toTimestamp( message.getHeader( "from", String.class ) ) );
+        message.setHeader( "to", toTimestamp( message.getHeader( "to", String.class ) ) );
+        String before = message.getHeader( "before", String.class );
+        message.setHeader( "before", before == null ? null : Long.valueOf( before ) );
+        message.setHeader( "limit", limit );
+        message.setHeader( "fetchLimit", limit + 1 );
+        message.setHeader( "maxCount", maxCount );
+        message.setHeader( "countLimit", maxCount + 1 );
+    }
+
+    protected Timestamp toTimestamp( String instant )
+    {
+        if ( instant == null )
+        {
+            return null;
+        }
+        try
+        {
+            return Timestamp.from( Instant.parse( instant ) );
+        }
+        catch ( DateTimeParseException e )
+        {
+            throw new IllegalArgumentException( "Expected an ISO-8601 instant but got '" + instant + "'", e );
+        }
+    }
+}
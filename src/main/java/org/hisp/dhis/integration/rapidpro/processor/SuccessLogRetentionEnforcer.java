@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.hisp.dhis.integration.rapidpro.audit.SuccessLogPartitionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Removes success log rows older than <code>success.log.retention.days</code> days. Expired partitions are dropped
+ * whole when the success log tables are partitioned. Otherwise, expired rows are deleted in chunks of
+ * <code>success.log.retention.chunk.size</code> rows so that no single statement holds locks on a large part of the
+ * table.
+ */
+@Component
+public class SuccessLogRetentionEnforcer implements Processor
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( SuccessLogRetentionEnforcer.class );
+
+    @Autowired
+    private SuccessLogPartitionManager successLogPartitionManager;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private Environment environment;
+
+    @Value( "${spring.sql.init.platform}" )
+    private String platform;
+
+    @Value( "${success.log.retention.days:0}" )
+    private int retentionDays;
+
+    @Value( "${success.log.retention.chunk.size:1000}" )
+    private int chunkSize;
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        for ( String table : SuccessLogPartitionManager.TABLES )
+        {
+            if ( successLogPartitionManager.isEnabled() )
+            {
+                successLogPartitionManager.createUpcomingPartitions( table );
+            }
+            if ( retentionDays > 0 )
+            {
+                Instant cutoff = Instant.now().minus( retentionDays, ChronoUnit.DAYS );
+                if ( successLogPartitionManager.isEnabled() )
+                {
+                    successLogPartitionManager.dropPartitionsBefore( table, cutoff );
+                }
+                else
+                {
+                    deleteRowsBefore( table, cutoff );
+                }
+            }
+        }
+    }
+
+    protected long deleteRowsBefore( String table, Instant cutoff )
+    {
+        String delete = environment.getRequiredProperty(
+            table.toLowerCase().replace( '_', '.' ) + ".expired.delete." + platform ).replace( ":?", ":" );
+        Map<String, Object> parameters = Map.of( "cutoff", Timestamp.from( cutoff ), "chunkSize", chunkSize );
+        long deletedCount = 0;
+        int chunkDeletedCount;
+        do
+        {
+            chunkDeletedCount = namedParameterJdbcTemplate.update( delete, parameters );
+            deletedCount += chunkDeletedCount;
+        }
+        while ( chunkDeletedCount >= chunkSize );
+
+        if ( deletedCount > 0 )
+        {
+            LOGGER.info( "Deleted {} rows older than {} from {}", deletedCount, cutoff, table );
+        }
+        return deletedCount;
+    }
+}
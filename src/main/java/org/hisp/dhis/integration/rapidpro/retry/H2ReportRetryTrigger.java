@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.retry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.h2.api.Trigger;
+
+/**
+ * H2 counterpart of the PostgreSQL <code>NOTIFY report_retry</code> rule: bumps the version in
+ * <code>REPORT_RETRY_SIGNAL</code> when a row in <code>REPORT_DEAD_LETTER_CHANNEL</code> is inserted with, or updated
+ * to, the status <code>RETRY</code>. The bump is part of the writing transaction so {@link ReportRetryNotifier} only
+ * sees it, and the retry route only runs, once the <code>RETRY</code> rows are committed.
+ */
+public class H2ReportRetryTrigger implements Trigger
+{
+    private int statusColumnIndex = -1;
+
+    @Override
+    public void init( Connection conn, String schemaName, String triggerName, String tableName, boolean before,
+        int type )
+        throws
+        SQLException
+    {
+        try ( ResultSet columns = conn.getMetaData().getColumns( null, schemaName, tableName, null ) )
+        {
+            while ( columns.next() )
+            {
+                if ( columns.getString( "COLUMN_NAME" ).equalsIgnoreCase( "status" ) )
+                {
+                    statusColumnIndex = columns.getInt( "ORDINAL_POSITION" ) - 1;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void fire( Connection conn, Object[] oldRow, Object[] newRow )
+        throws
+        SQLException
+    {
+        if ( statusColumnIndex >= 0 && isRetry( newRow ) && !isRetry( oldRow ) )
+        {
+            try ( PreparedStatement preparedStatement = conn.prepareStatement(
+                "UPDATE REPORT_RETRY_SIGNAL SET version = version + 1 WHERE id = 1" ) )
+            {
+                preparedStatement.executeUpdate();
+            }
+        }
+    }
+
+    private boolean isRetry( Object[] row )
+    {
+        return row != null && "RETRY".equals( String.valueOf( row[statusColumnIndex] ) );
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.retry;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.ProducerTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Wakes up the "Retry Reports" route as soon as rows in <code>REPORT_DEAD_LETTER_CHANNEL</code> marked for retry are
+ * committed. On PostgreSQL, a rule on the table issues a <code>NOTIFY report_retry</code>, which PostgreSQL only
+ * delivers once the transaction commits, to a connection listening on the channel. The listening connection is opened
+ * outside the connection pool because it is held for as long as the application runs. On H2,
+ * {@link H2ReportRetryTrigger} bumps the version in <code>REPORT_RETRY_SIGNAL</code> within the writing transaction
+ * and the "Watch Report Retry Signal" route hands new versions to {@link #isNewSignal(long)} once they are committed.
+ * Signals are coalesced by the bounded SEDA queue the route consumes from.
+ */
+@Component
+public class ReportRetryNotifier
+{
+    public static final String RETRY_REPORTS_ENDPOINT_URI = "seda:retryReports?size=1&discardWhenFull=true";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( ReportRetryNotifier.class );
+
+    @Autowired
+    private DataSourceProperties dataSourceProperties;
+
+    @Autowired
+    private ProducerTemplate producerTemplate;
+
+    @Value( "${spring.sql.init.platform}" )
+    private String platform;
+
+    private final AtomicLong lastSignalVersion = new AtomicLong( -1 );
+
+    private volatile boolean listening;
+
+    private Thread listenerThread;
+
+    @PostConstruct
+    public void postConstruct()
+    {
+        if ( platform.equalsIgnoreCase( "postgresql" ) )
+        {
+            listening = true;
+            listenerThread = new Thread( this::listen, "ReportRetryListener" );
+            listenerThread.setDaemon( true );
+            listenerThread.start();
+        }
+    }
+
+    @PreDestroy
+    public void preDestroy()
+    {
+        listening = false;
+        if ( listenerThread != null )
+        {
+            listenerThread.interrupt();
+        }
+    }
+
+    /**
+     * @param signalVersion committed version of the H2 report retry signal
+     * @return <code>true</code> when the version changed since it was last seen
+     */
+    public boolean isNewSignal( long signalVersion )
+    {
+        return lastSignalVersion.getAndSet( signalVersion ) != signalVersion;
+    }
+
+    public void notifyRetry()
+    {
+        try
+        {
+            producerTemplate.sendBody( RETRY_REPORTS_ENDPOINT_URI, null );
+        }
+        catch ( Exception e )
+        {
+            LOGGER.debug( "Failed to signal report retry: " + e.getMessage() );
+        }
+    }
+
+    protected Connection openListenerConnection()
+        throws
+        Exception
+    {
+        return DriverManager.getConnection( dataSourceProperties.determineUrl(),
+            dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword() );
+    }
+
+    protected void listen()
+    {
+        while ( listening )
+        {
+            try ( Connection connection = openListenerConnection();
+                Statement statement = connection.createStatement() )
+            {
+                statement.execute( "LISTEN report_retry" );
+                // the PostgreSQL driver is not a compile-time dependency
+                Class<?> pgConnectionClass = Class.forName( "org.postgresql.PGConnection" );
+                Object pgConnection = connection.unwrap( pgConnectionClass );
+                Method getNotifications = pgConnectionClass.getMethod( "getNotifications", int.class );
+                LOGGER.debug( "Listening for report retries" );
+                while ( listening )
+                {
+                    Object[] notifications = (Object[]) getNotifications.invoke( pgConnection, 10000 );
+                    if ( notifications != null && notifications.length > 0 )
+                    {
+                        notifyRetry();
+                    }
+                }
+            }
+            catch ( Exception e )
+            {
+                if ( listening )
+                {
+                    LOGGER.warn( "Error while listening for report retries: re-listening in 10 seconds => "
+                        + e.getMessage() );
+                    try
+                    {
+                        Thread.sleep( 10000 );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -30,18 +30,39 @@ package org.hisp.dhis.integration.rapidpro.route;
 import org.apache.camel.ErrorHandlerFactory;
 import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
-import org.apache.camel.processor.aggregate.GroupedBodyAggregationStrategy;
-import org.hisp.dhis.api.model.v40_0.DataSet;
+import org.apache.camel.processor.aggregate.GroupedExchangeAggregationStrategy;
 import org.hisp.dhis.integration.rapidpro.CompleteDataSetRegistrationFunction;
+import org.hisp.dhis.integration.rapidpro.NodeIdSupplier;
 import org.hisp.dhis.integration.rapidpro.aggregationStrategy.ContactOrgUnitIdAggrStrategy;
+import org.hisp.dhis.integration.rapidpro.aggregationStrategy.ReportBatchAggrStrategy;
+import org.hisp.dhis.integration.rapidpro.audit.SuccessLogWriter;
+import org.hisp.dhis.integration.rapidpro.cache.ContactOrgUnitIdCache;
+import org.hisp.dhis.integration.rapidpro.cache.DataSetCache;
+import org.hisp.dhis.integration.rapidpro.expression.ErrorClassExpr;
 import org.hisp.dhis.integration.rapidpro.expression.RootCauseExpr;
+import org.hisp.dhis.integration.rapidpro.metrics.ReportQueueMetrics;
+import org.hisp.dhis.integration.rapidpro.processor.BatchImportSummaryMapper;
+import org.hisp.dhis.integration.rapidpro.processor.BatchedReportRestorer;
+import org.hisp.dhis.integration.rapidpro.processor.CompleteDateSetter;
 import org.hisp.dhis.integration.rapidpro.processor.CurrentPeriodCalculator;
+import org.hisp.dhis.integration.rapidpro.processor.DataValueSetMerger;
+import org.hisp.dhis.integration.rapidpro.processor.DeadLetterReportReplayer;
 import org.hisp.dhis.integration.rapidpro.processor.IdSchemeQueryParamSetter;
+import org.hisp.dhis.integration.rapidpro.processor.NativeDataValueSetMapper;
+import org.hisp.dhis.integration.rapidpro.processor.NextAttemptCalculator;
+import org.hisp.dhis.integration.rapidpro.processor.ReportBatchConsumer;
+import org.hisp.dhis.integration.rapidpro.processor.ReportBatchReceiver;
+import org.hisp.dhis.integration.rapidpro.retry.ReportRetryNotifier;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 
 @Component
@@ -53,6 +74,12 @@ public class DeliverReportRouteBuilder extends AbstractRouteBuilder
     @Autowired
     private RootCauseExpr rootCauseExpr;
 
+    @Autowired
+    private ErrorClassExpr errorClassExpr;
+
+    @Autowired
+    private NextAttemptCalculator nextAttemptCalculator;
+
     @Autowired
     private IdSchemeQueryParamSetter idSchemeQueryParamSetter;
 
@@ -62,6 +89,57 @@ public class DeliverReportRouteBuilder extends AbstractRouteBuilder
     @Autowired
     private CompleteDataSetRegistrationFunction completeDataSetRegistrationFunction;
 
+    @Autowired
+    private DataSetCache dataSetCache;
+
+    @Autowired
+    private ContactOrgUnitIdCache contactOrgUnitIdCache;
+
+    @Autowired
+    private DataValueSetMerger dataValueSetMerger;
+
+    @Autowired
+    private BatchedReportRestorer batchedReportRestorer;
+
+    @Autowired
+    private CompleteDateSetter completeDateSetter;
+
+    @Autowired
+    private ReportBatchReceiver reportBatchReceiver;
+
+    @Autowired
+    private ReportBatchConsumer reportBatchConsumer;
+
+    @Autowired
+    private ReportBatchAggrStrategy reportBatchAggrStrategy;
+
+    @Autowired
+    private BatchImportSummaryMapper batchImportSummaryMapper;
+
+    @Autowired
+    private NativeDataValueSetMapper nativeDataValueSetMapper;
+
+    @Autowired
+    private ReportQueueMetrics reportQueueMetrics;
+
+    @Autowired
+    private NodeIdSupplier nodeIdSupplier;
+
+    @Autowired
+    private DeadLetterReportReplayer deadLetterReportReplayer;
+
+    @Autowired
+    private SuccessLogWriter successLogWriter;
+
+    @Autowired
+    private ReportRetryNotifier reportRetryNotifier;
+
+    @Value( "${report.delivery.schedule.parallelism:4}" )
+    private int scheduledDeliveryParallelism;
+
+    @Value( "${report.import.job.timeout.seconds:3600}" )
+    private long importJobTimeoutSeconds;
+
     @Override
     protected void doConfigure()
     {
@@ -69,37 +147,121 @@ public class DeliverReportRouteBuilder extends AbstractRouteBuilder
             "direct:dlq" ).maximumRedeliveries( 3 ).useExponentialBackOff().useCollisionAvoidance()
             .allowRedeliveryWhileStopping( false );
 
-        from( "timer://retryReports?fixedRate=true&period=5000" )
+        ExecutorService scheduledDeliveryExecutorService = getCamelContext().getExecutorServiceManager()
+            .newFixedThreadPool( this, "ScheduledReportDelivery", scheduledDeliveryParallelism );
+
+        from( "timer://sweepReportRetries?fixedRate=true&period={{report.retry.sweep.period:60000}}" )
+            .routeId( "Sweep Report Retries" )
+            .to( ReportRetryNotifier.RETRY_REPORTS_ENDPOINT_URI );
+
+        from( "timer://watchReportRetrySignal?fixedRate=true&period={{report.retry.signal.poll.period:1000}}" )
+            .routeId( "Watch Report Retry Signal" )
+            .precondition( "'{{spring.sql.init.platform}}' == 'h2'" )
+            .setBody( simple( "${properties:report.retry.signal.select.h2}" ) )
+            .to( "jdbc:dataSource?outputType=SelectOne" )
+            .filter( method( reportRetryNotifier, "isNewSignal( ${body} )" ) )
+                .to( ReportRetryNotifier.RETRY_REPORTS_ENDPOINT_URI )
+            .end();
+
+        from( ReportRetryNotifier.RETRY_REPORTS_ENDPOINT_URI )
             .routeId( "Retry Reports" )
-            .setBody( simple( "${properties:report.retry.dlc.select.{{spring.sql.init.platform}}}" ) )
-            .to( "jdbc:dataSource" )
-            .split().body()
-                .setHeader( "id", simple( "${body['id']}" ) )
-                .log( LoggingLevel.INFO, LOGGER, "Retrying row with ID ${header.id}" )
-                .setHeader( "dataSetCode", simple( "${body['data_set_code']}" ) )
-                .setHeader( "reportPeriodOffset", simple( "${body['report_period_offset']}" ) )
-                .setHeader( "orgUnitId", simple( "${body['organisation_unit_id']}" ) )
-                .setBody( simple( "${body['payload']}" ) )
-                .to( "jms:queue:dhis2AggregateReports?exchangePattern=InOnly" )
-                .setBody( simple( "${properties:report.processed.dlc.update.{{spring.sql.init.platform}}}" ) )
-                .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+            .setHeader( "nodeId", constant( nodeIdSupplier.get() ) )
+            .setHeader( "leaseSeconds", simple( "{{report.retry.lease.seconds:300}}", Long.class ) )
+            .setBody( simple( "${properties:report.retry.dlc.claim.{{spring.sql.init.platform}}}" ) )
+            .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+            .filter( simple( "${body.size()} > 0" ) )
+                .log( LoggingLevel.INFO, LOGGER, "Retrying ${body.size()} dead letter channel rows" )
+                .process( deadLetterReportReplayer )
+                .filter( simple( "${body.size()} == 100" ) )
+                    .to( ReportRetryNotifier.RETRY_REPORTS_ENDPOINT_URI )
+                .end()
             .end();
 
-        from( "quartz://dhis2AggregateReports?cron={{report.delivery.schedule.expression}}" )
+        from( "quartz://dhis2AggregateReports?cron={{report.delivery.schedule.expression}}&stateful=true" )
             .routeId( "Schedule Report Delivery" )
             .precondition( "'{{report.delivery.schedule.expression:}}' != ''" )
-            .pollEnrich( "jms:queue:dhis2AggregateReports" )
-            .to( "direct:deliverReport" );
+            .setProperty( "drainQueue", constant( true ) )
+            .loopDoWhile( exchangeProperty( "drainQueue" ).isEqualTo( true ) )
+                .process( reportBatchReceiver )
+                .split( body() ).parallelProcessing().executorService( scheduledDeliveryExecutorService )
+                    .to( "direct:deliverReportGroup" )
+                .end()
+            .end()
+            .setHeader( "remainingDepth", method( reportQueueMetrics, "recordDrain( ${exchangeProperty.drainedCount} )" ) )
+            .log( LoggingLevel.INFO, LOGGER, "Delivered ${exchangeProperty.drainedCount} queued reports. Reports left in queue: ${header.remainingDepth}" );
 
-        from( "jms:queue:dhis2AggregateReports" )
+        from( "direct:deliverReportGroup" )
+            .routeId( "Deliver Report Group" )
+            .choice().when( simple( "{{report.delivery.batch.size:1}} > 1" ) )
+                .to( "direct:deliverReportBatch" )
+            .otherwise()
+                .split( body() )
+                    .process( batchedReportRestorer )
+                    .to( "direct:deliverReport" )
+                .end()
+            .end();
+
+        from( "jms:queue:dhis2AggregateReports?concurrentConsumers={{report.delivery.concurrent.consumers:1}}" )
             .routeId( "Consume Report" )
-            .precondition( "'{{report.delivery.schedule.expression:}}' == ''" )
+            .precondition( "'{{report.delivery.schedule.expression:}}' == '' && {{report.delivery.batch.size:1}} <= 1" )
             .to( "direct:deliverReport" );
 
+        from( "timer://consumeReportBatch?period=1" )
+            .routeId( "Consume Report Batch" )
+            .precondition( "'{{report.delivery.schedule.expression:}}' == '' && {{report.delivery.batch.size:1}} > 1" )
+            .process( reportBatchConsumer );
+
         from( "direct:deliverReport" )
             .routeId( "Deliver Report" )
             .to( "direct:transformReport" )
-            .to( "direct:transmitReport" );
+            .choice().when( simple( "'{{report.import.mode:SYNC}}' == 'ASYNC'" ) )
+                .to( "direct:transmitReportAsync" )
+            .otherwise()
+                .to( "direct:transmitReport" )
+            .end();
+
+        from( "direct:deliverReportBatch" )
+            .routeId( "Deliver Report Batch" )
+            .split( body(), reportBatchAggrStrategy )
+                .process( batchedReportRestorer )
+                .to( "direct:transformReport" )
+            .end()
+            .split( body() )
+                .to( "direct:transmitReportBatch" )
+            .end();
+
+        from( "direct:transmitReportBatch" )
+            .routeId( "Transmit Report Batch" )
+            .errorHandler( errorHandlerDefinition )
+            .setProperty( "batchedReports", body() )
+            .process( dataValueSetMerger )
+            .log( LoggingLevel.INFO, LOGGER, "Saving batch of ${exchangeProperty.batchedReports.size()} data value sets" )
+            .doTry()
+                .toD( "dhis2://post/resource?path=dataValueSets&inBody=resource&client=#dhis2Client" )
+                .setBody( (Function<Exchange, Object>) exchange -> exchange.getMessage().getBody( String.class ) )
+                .setProperty( "batchDhisResponse", simple( "${body}" ) )
+            .doCatch( Exception.class )
+                .log( LoggingLevel.WARN, LOGGER, "Error while saving batch of data value sets => ${exception.message}" )
+                .setProperty( "batchErrorClass", errorClassExpr )
+            .end()
+            .process( batchImportSummaryMapper )
+            .split( exchangeProperty( "batchedReports" ) )
+                .process( batchedReportRestorer )
+                .choice()
+                .when( simple( "${exchangeProperty.batchErrorClass} == 'TRANSIENT'" ) )
+                    .log( LoggingLevel.WARN, LOGGER, "Batch could not be sent: saving data value set to the dead letter channel" )
+                    .to( "direct:dlq" )
+                .when( method( batchImportSummaryMapper, "isImported" ) )
+                    .removeProperty( Exchange.EXCEPTION_CAUGHT )
+                    .setHeader( "dhisRequest", simple( "${body}" ) )
+                    .setHeader( "dhisResponse", exchangeProperty( "batchDhisResponse" ) )
+                    .to( "direct:completeDataSetRegistration" )
+                .otherwise()
+                    .removeProperty( Exchange.EXCEPTION_CAUGHT )
+                    .log( LoggingLevel.WARN, LOGGER, "Data value set was not fully imported with its batch: saving data value set individually" )
+                    .to( "direct:transmitReport" )
+                .end()
+            .end();
 
         from( "direct:transformReport" )
             .routeId( "Transform Report" )
@@ -110,27 +272,35 @@ public class DeliverReportRouteBuilder extends AbstractRouteBuilder
             .choice().when( header( "reportPeriodOffset" ).isNull() )
                 .setHeader( "reportPeriodOffset", constant( -1 ) )
             .end()
-            .enrich()
-            .simple( "dhis2://get/resource?path=dataElements&filter=dataSetElements.dataSet.code:eq:${headers['dataSetCode']}&fields=code&client=#dhis2Client" )
-            .aggregationStrategy( ( oldExchange, newExchange ) -> {
-                oldExchange.getMessage().setHeader( "dataElementCodes",
-                    jsonpath( "$.dataElements..code" ).evaluate( newExchange, List.class ) );
-                return oldExchange;
-            } )
+            .process( exchange -> exchange.getMessage().setHeader( "dataElementCodes",
+                dataSetCache.getDataElementCodes( exchange.getMessage().getHeader( "dataSetCode", String.class ) ) ) )
+            .choice().when( header( "orgUnitId" ).isNull() )
+                .process( exchange -> exchange.getMessage()
+                    .setHeader( "orgUnitId", contactOrgUnitIdCache.get( getContactUuid( exchange ) ) ) )
+            .end()
             .choice().when( header( "orgUnitId" ).isNull() )
                 .setHeader( "Authorization", constant( "Token {{rapidpro.api.token}}" ) )
                 .enrich().simple( "{{rapidpro.api.url}}/contacts.json?uuid=${body[contact][uuid]}&httpMethod=GET" )
                     .aggregationStrategy( contactOrgUnitIdAggrStrategy )
                 .end()
                 .removeHeader( "Authorization" )
+                .process( exchange -> contactOrgUnitIdCache.put( getContactUuid( exchange ),
+                    exchange.getMessage().getHeader( "orgUnitId", String.class ) ) )
             .end()
             .enrich( "direct:computePeriod", ( oldExchange, newExchange ) -> {
                 oldExchange.getMessage().setHeader( "period", newExchange.getMessage().getBody() );
                 return oldExchange;
             } )
-            .transform( datasonnet( "resource:classpath:dataValueSet.ds", Map.class, "application/x-java-object",
-                "application/x-java-object" ) )
+            .choice().when( simple( "'{{report.transform.engine:datasonnet}}' == 'native'" ) )
+                .process( nativeDataValueSetMapper )
+            .otherwise()
+                .transform( datasonnet( "resource:classpath:dataValueSet.ds", Map.class, "application/x-java-object",
+                    "application/x-java-object" ) )
+            .end()
             .process( idSchemeQueryParamSetter )
+            .choice().when( simple( "'{{report.completion.mode:REGISTRATION}}' == 'IMPORT'" ) )
+                .process( completeDateSetter )
+            .end()
             .marshal().json().transform().body( String.class );
 
         from( "direct:transmitReport" )
@@ -144,7 +314,114 @@ public class DeliverReportRouteBuilder extends AbstractRouteBuilder
             .unmarshal().json()
             .choice()
             .when( simple( "${body['status']} == 'SUCCESS' || ${body['status']} == 'OK'" ) )
-                .to( "direct:completeDataSetRegistration" )
+                .choice().when( simple( "'{{report.completion.mode:REGISTRATION}}' == 'IMPORT'" ) )
+                    .to( "direct:logSuccessfulReport" )
+                .otherwise()
+                    .to( "direct:completeDataSetRegistration" )
+                .endChoice()
+            .otherwise()
+                .log( LoggingLevel.ERROR, LOGGER, "Import error from DHIS2 while saving data value set => ${body}" )
+                .to( "direct:dlq" )
+            .end();
+
+        from( "direct:transmitReportAsync" )
+            .routeId( "Transmit Report Async" )
+            .errorHandler( errorHandlerDefinition )
+            .log( LoggingLevel.INFO, LOGGER, "Saving data value set asynchronously => ${body}" )
+            .setHeader( "dhisRequest", simple( "${body}" ) )
+            .process( exchange -> {
+                Map<String, Object> queryParams = new HashMap<>(
+                    exchange.getMessage().getHeader( "CamelDhis2.queryParams", Map.class ) );
+                queryParams.put( "async", "true" );
+                exchange.getMessage().setHeader( "CamelDhis2.queryParams", queryParams );
+            } )
+            .toD( "dhis2://post/resource?path=dataValueSets&inBody=resource&client=#dhis2Client" )
+            .setBody( (Function<Exchange, Object>) exchange -> exchange.getMessage().getBody( String.class ) )
+            .unmarshal().json()
+            .process( exchange -> {
+                Map<String, Object> response = (Map<String, Object>) exchange.getMessage().getBody( Map.class )
+                    .get( "response" );
+                exchange.getMessage().setHeader( "jobId", response == null ? null : response.get( "id" ) );
+            } )
+            .choice()
+            .when( header( "jobId" ).isNotNull() )
+                .process( exchange -> exchange.getMessage().setHeader( "attemptCount",
+                    exchange.getMessage().getHeader( "attemptCount", 0, Integer.class ) ) )
+                .setBody( simple( "${properties:report.import.job.insert.{{spring.sql.init.platform}}}" ) )
+                .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+                .log( LoggingLevel.INFO, LOGGER, "Started DHIS2 import job ${header.jobId}" )
+            .otherwise()
+                .log( LoggingLevel.ERROR, LOGGER, "Unexpected response from DHIS2 while starting import job => ${body}" )
+                .to( "direct:dlq" )
+            .end();
+
+        from( "timer://pollReportImportJobs?fixedRate=true&period={{report.import.job.poll.period:5000}}" )
+            .routeId( "Poll Report Import Jobs" )
+            .precondition( "'{{report.import.mode:SYNC}}' == 'ASYNC'" )
+            .setHeader( "nodeId", constant( nodeIdSupplier.get() ) )
+            .setHeader( "leaseSeconds", simple( "{{report.import.job.lease.seconds:60}}", Long.class ) )
+            .process( exchange -> exchange.getMessage().setHeader( "expiredBefore",
+                Timestamp.from( Instant.now().minusSeconds( importJobTimeoutSeconds ) ) ) )
+            .setBody( simple( "${properties:report.import.job.claim.{{spring.sql.init.platform}}}" ) )
+            .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+            .split().body()
+                .removeHeaders( "*" )
+                .setHeader( "nodeId", constant( nodeIdSupplier.get() ) )
+                .setHeader( "id", simple( "${body['id']}" ) )
+                .setHeader( "attemptCount", simple( "${body['attempt_count']}", Integer.class ) )
+                .setHeader( "jobId", simple( "${body['job_id']}" ) )
+                .setHeader( "originalPayload", simple( "${body['payload']}" ) )
+                .setHeader( "dhisRequest", simple( "${body['dhis_request']}" ) )
+                .setHeader( "dataSetCode", simple( "${body['data_set_code']}" ) )
+                .setHeader( "reportPeriodOffset", simple( "${body['report_period_offset']}" ) )
+                .setHeader( "orgUnitId", simple( "${body['organisation_unit_id']}" ) )
+                .setHeader( "period", simple( "${body['period']}" ) )
+                .setProperty( "expired", simple( "${body['expired']}" ) )
+                .toD( "dhis2://get/resource?path=system/tasks/DATAVALUE_IMPORT/${header.jobId}&client=#dhis2Client" )
+                .unmarshal().json( List.class )
+                .process( exchange -> {
+                    List<Map<String, Object>> notifications = exchange.getMessage().getBody( List.class );
+                    exchange.setProperty( "jobCompleted", !notifications.isEmpty() && Boolean.TRUE.equals(
+                        notifications.get( 0 ).get( "completed" ) ) );
+                } )
+                .choice()
+                .when( exchangeProperty( "jobCompleted" ).isEqualTo( true ) )
+                    .toD( "dhis2://get/resource?path=system/taskSummaries/DATAVALUE_IMPORT/${header.jobId}&client=#dhis2Client" )
+                    .setBody( (Function<Exchange, Object>) exchange -> exchange.getMessage().getBody( String.class ) )
+                    .setHeader( "dhisResponse", simple( "${body}" ) )
+                    .setBody( simple( "${properties:report.import.job.delete.{{spring.sql.init.platform}}}" ) )
+                    .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+                    .choice().when( header( "CamelJdbcUpdateCount" ).isEqualTo( 1 ) )
+                        .setBody( header( "dhisResponse" ) )
+                        .unmarshal().json()
+                        .to( "direct:completeReportImportJob" )
+                    .endChoice()
+                .when( exchangeProperty( "expired" ).isEqualTo( true ) )
+                    .log( LoggingLevel.ERROR, LOGGER, "Timed out waiting for DHIS2 import job ${header.jobId}" )
+                    .setBody( simple( "${properties:report.import.job.delete.{{spring.sql.init.platform}}}" ) )
+                    .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+                    .choice().when( header( "CamelJdbcUpdateCount" ).isEqualTo( 1 ) )
+                        .setBody( simple( "Timed out waiting for DHIS2 import job ${header.jobId}" ) )
+                        .to( "direct:dlq" )
+                    .endChoice()
+                .otherwise()
+                    .log( LoggingLevel.DEBUG, LOGGER, "DHIS2 import job ${header.jobId} is still running" )
+                    .setBody( simple( "${properties:report.import.job.release.{{spring.sql.init.platform}}}" ) )
+                    .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+                .end()
+            .end();
+
+        from( "direct:completeReportImportJob" )
+            .routeId( "Complete Report Import Job" )
+            .errorHandler( errorHandlerDefinition )
+            .choice()
+            .when( simple( "${body['status']} == 'SUCCESS' || ${body['status']} == 'OK'" ) )
+                .process( idSchemeQueryParamSetter )
+                .choice().when( simple( "'{{report.completion.mode:REGISTRATION}}' == 'IMPORT'" ) )
+                    .to( "direct:logSuccessfulReport" )
+                .otherwise()
+                    .to( "direct:completeDataSetRegistration" )
+                .endChoice()
             .otherwise()
                 .log( LoggingLevel.ERROR, LOGGER, "Import error from DHIS2 while saving data value set => ${body}" )
                 .to( "direct:dlq" )
@@ -153,6 +430,8 @@ public class DeliverReportRouteBuilder extends AbstractRouteBuilder
         from( "direct:dlq" )
             .routeId( "Save Failed Report" )
             .setHeader( "errorMessage", rootCauseExpr )
+            .setHeader( "errorClass", errorClassExpr )
+            .process( nextAttemptCalculator )
             .setHeader( "payload", header( "originalPayload" ) )
             .setHeader( "orgUnitId" ).ognl( "request.headers.orgUnitId" )
             .setHeader( "dataSetCode" ).ognl( "request.headers.dataSetCode" )
@@ -161,24 +440,78 @@ public class DeliverReportRouteBuilder extends AbstractRouteBuilder
 
         from( "direct:computePeriod" )
             .routeId( "Compute Period" )
-            .toD( "dhis2://get/collection?path=dataSets&arrayName=dataSets&filter=code:eq:${headers['dataSetCode']}&fields=periodType&client=#dhis2Client" )
-            .split().body().aggregationStrategy( new GroupedBodyAggregationStrategy() )
-                .convertBodyTo( DataSet.class )
-            .end()
             .process( currentPeriodCalculator );
 
+        from( "servlet:tasks/invalidateDataSetCache?muteException=true" )
+            .removeHeaders( "*" )
+            .process( exchange -> dataSetCache.invalidateAll() )
+            .setHeader( Exchange.CONTENT_TYPE, constant( "application/json" ) )
+            .setBody( constant( Map.of( "status", "success", "data", "Invalidated data set cache" ) ) )
+            .marshal().json();
+
         from( "direct:completeDataSetRegistration" )
+            .choice().when( simple( "{{report.registration.batch.size:1}} > 1" ) )
+                .to( "direct:batchDataSetRegistration" )
+            .otherwise()
+                .to( "direct:registerDataSetCompletion" )
+            .end();
+
+        from( "direct:registerDataSetCompletion" )
             .setBody( completeDataSetRegistrationFunction )
             .toD( "dhis2://post/resource?path=completeDataSetRegistrations&inBody=resource&client=#dhis2Client" )
             .unmarshal().json()
             .choice()
             .when( simple( "${body['status']} == 'SUCCESS' || ${body['status']} == 'OK'" ) )
-                .setHeader( "rapidProPayload", header( "originalPayload" ) )
-                .setBody( simple( "${properties:report.success.log.insert.{{spring.sql.init.platform}}}" ) )
-                .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+                .to( "direct:logSuccessfulReport" )
             .otherwise()
                 .log( LoggingLevel.ERROR, LOGGER, "Error from DHIS2 while completing data set registration => ${body}" )
                 .to( "direct:dlq" )
             .end();
+
+        from( "direct:batchDataSetRegistration" )
+            .routeId( "Batch Data Set Registration" )
+            .aggregate( constant( true ), new GroupedExchangeAggregationStrategy() )
+                .completionSize( "{{report.registration.batch.size:1}}" )
+                .completionTimeout( "{{report.registration.batch.timeout:1000}}" )
+                .forceCompletionOnStop()
+                .to( "direct:registerDataSetCompletionBatch" )
+            .end();
+
+        from( "direct:registerDataSetCompletionBatch" )
+            .routeId( "Register Data Set Completion Batch" )
+            .errorHandler( errorHandlerDefinition )
+            .removeProperty( "registrationBatchStatus" )
+            .setProperty( "batchedRegistrations", body() )
+            .setBody( completeDataSetRegistrationFunction )
+            .log( LoggingLevel.INFO, LOGGER, "Completing batch of ${exchangeProperty.batchedRegistrations.size()} data set registrations" )
+            .doTry()
+                .toD( "dhis2://post/resource?path=completeDataSetRegistrations&inBody=resource&client=#dhis2Client" )
+                .unmarshal().json()
+                .setProperty( "registrationBatchStatus", simple( "${body['status']}" ) )
+            .doCatch( Exception.class )
+                .log( LoggingLevel.WARN, LOGGER, "Error while completing batch of data set registrations => ${exception.message}" )
+            .end()
+            .split( exchangeProperty( "batchedRegistrations" ) )
+                .process( batchedReportRestorer )
+                .choice()
+                .when( simple( "${exchangeProperty.registrationBatchStatus} == 'SUCCESS' || ${exchangeProperty.registrationBatchStatus} == 'OK'" ) )
+                    .to( "direct:logSuccessfulReport" )
+                .otherwise()
+                    .log( LoggingLevel.WARN, LOGGER, "Batch of data set registrations was not fully imported: completing data set registration individually" )
+                    .to( "direct:registerDataSetCompletion" )
+                .end()
+            .end();
+
+        from( "direct:logSuccessfulReport" )
+            .routeId( "Log Successful Report" )
+            .setHeader( "rapidProPayload", header( "originalPayload" ) )
+            .process( exchange -> successLogWriter.write( "report.success.log.insert",
+                exchange.getMessage().getHeaders() ) );
+    }
+
+    private String getContactUuid( Exchange exchange )
+    {
+        Map<String, Object> contact = (Map<String, Object>) exchange.getMessage().getBody( Map.class ).get( "contact" );
+        return contact == null ? null : (String) contact.get( "uuid" );
     }
 }
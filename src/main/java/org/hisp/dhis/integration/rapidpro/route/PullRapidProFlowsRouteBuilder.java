@@ -29,33 +29,74 @@ package org.hisp.dhis.integration.rapidpro.route;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
+import org.apache.camel.StreamCache;
+import org.apache.camel.builder.AggregationStrategies;
+import org.hisp.dhis.integration.rapidpro.NodeIdSupplier;
 import org.hisp.dhis.integration.rapidpro.ProgramStageToFlowMap;
-import org.hisp.dhis.integration.rapidpro.expression.LastRunCalculator;
+import org.hisp.dhis.integration.rapidpro.cache.FlowRunFingerprintCache;
+import org.hisp.dhis.integration.rapidpro.expression.FlowRunsPageReader;
+import org.hisp.dhis.integration.rapidpro.expression.LastRunCheckpointCalculator;
 import org.hisp.dhis.integration.rapidpro.expression.LastRunAtColumnReader;
+import org.hisp.dhis.integration.rapidpro.metrics.FlowScanMetrics;
+import org.hisp.dhis.integration.rapidpro.outbox.FlowRunOutbox;
+import org.hisp.dhis.integration.rapidpro.processor.FlowRunFingerprintSetter;
+import org.hisp.dhis.integration.rapidpro.processor.PagePrefetcher;
+import org.hisp.dhis.integration.rapidpro.processor.ReportGroupIdSetter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 @Component
 public class PullRapidProFlowsRouteBuilder extends AbstractRouteBuilder
 {
     @Autowired
-    private LastRunCalculator lastRunCalculator;
+    private LastRunCheckpointCalculator lastRunCheckpointCalculator;
 
     @Autowired
     private LastRunAtColumnReader lastRunAtColumnReader;
 
+    @Autowired
+    private FlowRunsPageReader flowRunsPageReader;
+
     @Autowired
     private ProgramStageToFlowMap programStageToFlowMap;
 
+    @Autowired
+    private ReportGroupIdSetter reportGroupIdSetter;
+
+    @Autowired
+    private FlowRunFingerprintSetter flowRunFingerprintSetter;
+
+    @Autowired
+    private FlowRunFingerprintCache flowRunFingerprintCache;
+
+    @Autowired
+    private FlowScanMetrics flowScanMetrics;
+
+    @Autowired
+    private PagePrefetcher pagePrefetcher;
+
+    @Autowired
+    private FlowRunOutbox flowRunOutbox;
+
+    @Autowired
+    private NodeIdSupplier nodeIdSupplier;
+
     @Value( "${rapidpro.flow.uuids:}" )
     private String aggregateReportFlowUuids;
 
+    @Value( "${scan.reports.parallelism:4}" )
+    private int flowScanParallelism;
+
     @Override
     protected void doConfigure()
     {
+        ExecutorService flowScanExecutorService = getCamelContext().getExecutorServiceManager()
+            .newFixedThreadPool( this, "ScanRapidProFlows", flowScanParallelism );
+
         from( "servlet:tasks/scan?muteException=true" )
             .removeHeaders( "*" )
             .to( "direct:pull" )
@@ -77,55 +118,149 @@ public class PullRapidProFlowsRouteBuilder extends AbstractRouteBuilder
                 exchange.setProperty( "flowUuids", flowUuids );
             } )
             .setHeader( "Authorization", constant( "Token {{rapidpro.api.token}}" ) )
-            .split( simple( "${exchangeProperty.flowUuids}" ), "," )
+            .split( simple( "${exchangeProperty.flowUuids}" ), "," ).parallelProcessing().executorService( flowScanExecutorService )
                 .setHeader( "flowUuid", simple( "${body}" ) )
-                .setBody( simple( "${properties:last.run.select.{{spring.sql.init.platform}}}" ) )
-                .to( "jdbc:dataSource?useHeadersAsParameters=true" )
-                .setProperty( "lastRunAt", lastRunAtColumnReader )
-                .setProperty( "nextRunsPageUrl", simple( "{{rapidpro.api.url}}/runs.json?flow=${header.flowUuid}&after=${exchangeProperty.lastRunAt}&reverse=true" ) )
-                .setHeader( "newLastRunAt" ).ognl( "@java.sql.Timestamp@from(@java.time.Instant@now())" )
-                .loopDoWhile( exchangeProperty( "nextRunsPageUrl" ).isNotNull() )
-                    .toD( "${exchangeProperty.nextRunsPageUrl}" )
-                    .log( LoggingLevel.DEBUG, LOGGER, "Fetched flow runs from ${exchangeProperty.nextRunsPageUrl} => ${body}" )
-                    .unmarshal().json()
-                    .setProperty( "nextRunsPageUrl", simple( "${body[next]}" ) )
-                    .setHeader( "newLastRunAt", lastRunCalculator )
-                    .split( simple( "${body[results]}" ) )
-                        .filter( simple( "${body[exited_on]} != null && ${body[exit_type]} == 'completed'" ) )
-                            .choice()
-                                .when().simple("${body[values][data_set_code]} != null && ${body[values][event_id]} == null" )
-                                    .to("direct:queueAggregateReport")
-                                .when().simple( "${body[values][data_set_code]} == null && ${body[values][event_id]} != null")
-                                    .to("direct:queueProgramStageEvent")
-                                .otherwise()
-                                    .log( LoggingLevel.ERROR, LOGGER,
-                                        "Cannot process flow run for flow definition ${header.flowUuid} because one of the required flow results is missing. Hint: for aggregate data reports, save the data set code to a flow result named 'data_set_code' in RapidPro. For program stage events, save the value '@trigger.params.eventId' to a flow result named 'event_id'  in RapidPro." )
-                                .end()
+                .process( exchange -> exchange.setProperty( "flowScanStartedAt", System.currentTimeMillis() ) )
+                .doTry()
+                    .to( "direct:scanFlow" )
+                    .bean( flowScanMetrics, "recordScan( ${header.flowUuid}, ${exchangeProperty.flowScanStartedAt}, true )" )
+                .doCatch( Exception.class )
+                    .bean( flowScanMetrics, "recordScan( ${header.flowUuid}, ${exchangeProperty.flowScanStartedAt}, false )" )
+                    .process( flowRunOutbox::discard )
+                    .log( LoggingLevel.ERROR, LOGGER, "Error while scanning flow ${header.flowUuid} => ${exception.message}" )
+                .end()
+            .end();
+
+        from( "direct:scanFlow" )
+            .routeId( "Scan RapidPro Flow" )
+            .streamCaching()
+            .setBody( simple( "${properties:last.run.select.{{spring.sql.init.platform}}}" ) )
+            .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+            .setProperty( "lastRunAt", lastRunAtColumnReader )
+            .setProperty( "nextRunsPageUrl", simple( "{{rapidpro.api.url}}/runs.json?flow=${header.flowUuid}&after=${exchangeProperty.lastRunAt}&reverse=true" ) )
+            .setHeader( "newLastRunAt" ).ognl( "@java.sql.Timestamp@from(@java.time.Instant@now())" )
+            .process( flowRunOutbox::open )
+            .loopDoWhile( exchangeProperty( "nextRunsPageUrl" ).isNotNull() )
+                .process( pagePrefetcher.reader( "direct:fetchRunsPage", "nextRunsPageUrl" ) )
+                .setProperty( "flowRunsPage", flowRunsPageReader )
+                .split( exchangeProperty( "flowRunsPage" ) ).streaming()
+                    .to( "direct:queueFlowRun" )
+                .end()
+                .setProperty( "nextRunsPageUrl", simple( "${exchangeProperty.flowRunsPage.next}" ) )
+                .setHeader( "lastRunCheckpoint", lastRunCheckpointCalculator )
+                .process( flowRunOutbox::checkpoint )
+                .enrich( "direct:relayFlowRunOutbox", AggregationStrategies.useOriginal() )
+            .end()
+            .to( "direct:recheckPendingFlowRuns" );
+
+        from( "direct:recheckPendingFlowRuns" )
+            .routeId( "Recheck Pending Flow Runs" )
+            .removeHeader( "lastRunCheckpoint" )
+            .setHeader( "batchSize", simple( "{{pending.flow.run.recheck.batch.size:100}}", Integer.class ) )
+            .setBody( simple( "${properties:pending.flow.run.select.{{spring.sql.init.platform}}}" ) )
+            .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+            .split( body() )
+                .setHeader( "runUuid", simple( "${body[run_uuid]}" ) )
+                .to( "direct:throttlePendingFlowRunRecheck" )
+                .doTry()
+                    .setProperty( "nextRunsPageUrl", simple( "{{rapidpro.api.url}}/runs.json?uuid=${header.runUuid}" ) )
+                    .to( "direct:fetchRunsPage" )
+                    .setProperty( "flowRunsPage", flowRunsPageReader )
+                    .split( exchangeProperty( "flowRunsPage" ) ).streaming()
+                        .to( "direct:queueFlowRun" )
                     .end()
+                    .process( flowRunOutbox::checkpoint )
+                    .filter( simple( "${exchangeProperty.flowRunsPage.latestModifiedOn} == null" ) )
+                        .setBody( simple( "${properties:pending.flow.run.delete.{{spring.sql.init.platform}}}" ) )
+                        .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+                    .end()
+                .doCatch( Exception.class )
+                    .process( flowRunOutbox::discard )
+                    .log( LoggingLevel.WARN, LOGGER, "Error while rechecking pending flow run ${header.runUuid} of flow ${header.flowUuid} => ${exception.message}" )
                 .end()
-                .setBody( simple( "${properties:last.run.upsert.{{spring.sql.init.platform}}}" ) )
-                .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+            .end()
+            .enrich( "direct:relayFlowRunOutbox", AggregationStrategies.useOriginal() );
+
+        from( "direct:throttlePendingFlowRunRecheck" )
+            .routeId( "Throttle Pending Flow Run Recheck" )
+            .throttle( simple( "{{pending.flow.run.recheck.rate:10}}", Long.class ) ).timePeriodMillis( 1000 );
+
+        from( "direct:queueFlowRun" )
+            .routeId( "Queue Flow Run" )
+            .filter( simple( "${body[exited_on]} != null && ${body[exit_type]} == 'completed'" ) )
+                .choice()
+                    .when().simple("${body[values][data_set_code]} != null && ${body[values][event_id]} == null" )
+                        .to("direct:queueAggregateReport")
+                    .when().simple( "${body[values][data_set_code]} == null && ${body[values][event_id]} != null")
+                        .to("direct:queueProgramStageEvent")
+                    .otherwise()
+                        .log( LoggingLevel.ERROR, LOGGER,
+                            "Cannot process flow run for flow definition ${header.flowUuid} because one of the required flow results is missing. Hint: for aggregate data reports, save the data set code to a flow result named 'data_set_code' in RapidPro. For program stage events, save the value '@trigger.params.eventId' to a flow result named 'event_id'  in RapidPro." )
+                .end();
+
+        from( "timer://sweepFlowRunOutbox?fixedRate=true&period={{flow.run.outbox.sweep.period:60000}}" )
+            .routeId( "Sweep Flow Run Outbox" )
+            .to( "direct:relayFlowRunOutbox" );
+
+        from( FlowRunOutbox.RELAY_ENDPOINT_URI )
+            .routeId( "Signal Flow Run Outbox Relay" )
+            .to( "direct:relayFlowRunOutbox" );
+
+        from( "direct:relayFlowRunOutbox" )
+            .routeId( "Relay Flow Run Outbox" )
+            .setHeader( "nodeId", constant( nodeIdSupplier.get() ) )
+            .setHeader( "leaseSeconds", simple( "{{flow.run.outbox.lease.seconds:300}}", Long.class ) )
+            .setProperty( "claimedCount", constant( 100 ) )
+            .doTry()
+                .loopDoWhile( simple( "${exchangeProperty.claimedCount} == 100" ) )
+                    .setBody( simple( "${properties:flow.run.outbox.claim.{{spring.sql.init.platform}}}" ) )
+                    .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+                    .setProperty( "claimedCount", simple( "${body.size()}" ) )
+                    .split( body() )
+                        .process( flowRunOutbox::restore )
+                        .toD( "jms:queue:${exchangeProperty.outboxQueueName}?exchangePattern=InOnly" )
+                        .process( flowRunOutbox::remove )
+                    .end()
+                .end()
+            .doCatch( Exception.class )
+                .log( LoggingLevel.WARN, LOGGER, "Error while relaying queued flow runs => ${exception.message}" )
             .end();
 
+        from( "direct:fetchRunsPage" )
+            .routeId( "Fetch RapidPro Runs Page" )
+            .streamCaching()
+            .toD( "${exchangeProperty.nextRunsPageUrl}" )
+            .convertBodyTo( StreamCache.class )
+            .log( LoggingLevel.DEBUG, LOGGER, "Fetched flow runs from ${exchangeProperty.nextRunsPageUrl}" );
+
         from( "direct:queueAggregateReport" )
             .routeId("Queue Aggregate Report")
-            .setHeader( "dataSetCode", simple( "${body[values][data_set_code][value]}" ) )
-            .setHeader( "orgUnitId" ).ognl(
-                "request.body['values']['org_unit_id'] == null ? null : request.body['values']['org_unit_id']['value']" )
-            .setHeader( "reportPeriodOffset" ).ognl(
-                "request.body['values']['report_period_offset'] == null ? null : request.body['values']['report_period_offset']['value']" )
-            .transform( datasonnet( "resource:classpath:webhook.ds", String.class, "application/x-java-object",
-                "application/json" ) )
-            .to( "jms:queue:dhis2AggregateReports?exchangePattern=InOnly" )
-            .log( LoggingLevel.DEBUG, LOGGER,
-                "Enqueued aggregate report flow run [data set code = ${header.dataSetCode}, report period offset = ${header.reportPeriodOffset}, content = ${body}]" );
+            .process( flowRunFingerprintSetter )
+            .filter( exchange -> !flowRunFingerprintCache.isDuplicate(
+                exchange.getMessage().getHeader( "flowRunFingerprint", String.class ) ) )
+                .setHeader( "dataSetCode", simple( "${body[values][data_set_code][value]}" ) )
+                .setHeader( "orgUnitId" ).ognl(
+                    "request.body['values']['org_unit_id'] == null ? null : request.body['values']['org_unit_id']['value']" )
+                .setHeader( "reportPeriodOffset" ).ognl(
+                    "request.body['values']['report_period_offset'] == null ? null : request.body['values']['report_period_offset']['value']" )
+                .transform( datasonnet( "resource:classpath:webhook.ds", String.class, "application/x-java-object",
+                    "application/json" ) )
+                .process( reportGroupIdSetter )
+                .process( flowRunOutbox.appender( "dhis2AggregateReports" ) )
+                .log( LoggingLevel.DEBUG, LOGGER,
+                    "Enqueued aggregate report flow run [data set code = ${header.dataSetCode}, report period offset = ${header.reportPeriodOffset}, content = ${body}]" )
+            .end();
+
+        from( "quartz://expireFlowRunFingerprints?cron={{flow.run.fingerprint.expiry.schedule.expression:0 0 2 * * ?}}&stateful=true" )
+            .routeId( "Expire Flow Run Fingerprints" )
+            .process( exchange -> flowRunFingerprintCache.removeExpired() );
 
         from( "direct:queueProgramStageEvent" )
             .routeId( "Queue Program Stage Event" )
             .setHeader( "eventId", simple( "${body[values][event_id][value]}" ) )
             .transform( datasonnet( "resource:classpath:webhook.ds", String.class, "application/x-java-object",
                 "application/json" ) )
-            .to( "jms:queue:dhis2ProgramStageEvents?exchangePattern=InOnly" )
+            .process( flowRunOutbox.appender( "dhis2ProgramStageEvents" ) )
             .log( LoggingLevel.DEBUG, LOGGER, "Enqueued program stage event flow run [event Id = ${header.eventId}]" );
     }
 }
@@ -28,13 +28,20 @@
 
 package org.hisp.dhis.integration.rapidpro.route;
 
+import org.apache.camel.ErrorHandlerFactory;
 import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
+import org.hisp.dhis.integration.rapidpro.NodeIdSupplier;
 import org.hisp.dhis.integration.rapidpro.aggregationStrategy.AttributesAggrStrategy;
 import org.hisp.dhis.integration.rapidpro.aggregationStrategy.ProgramStageEventsAggrStrategy;
 import org.hisp.dhis.integration.rapidpro.aggregationStrategy.TrackedEntityIdAggrStrategy;
+import org.hisp.dhis.integration.rapidpro.expression.ErrorClassExpr;
+import org.hisp.dhis.integration.rapidpro.expression.RootCauseExpr;
+import org.hisp.dhis.integration.rapidpro.processor.EventStatusUpdateMerger;
 import org.hisp.dhis.integration.rapidpro.processor.EventStatusUpdateProcessor;
 import org.hisp.dhis.integration.rapidpro.processor.FetchDueEventsQueryParamSetter;
+import org.hisp.dhis.integration.rapidpro.processor.NextAttemptCalculator;
+import org.hisp.dhis.integration.rapidpro.processor.PendingEventFilter;
 import org.hisp.dhis.integration.rapidpro.processor.SetAttributesEndpointProcessor;
 import org.hisp.dhis.integration.rapidpro.processor.SetProgramStagesPropertyProcessor;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -66,11 +73,33 @@ public class QueueProgramStageEventsRouteBuilder extends AbstractRouteBuilder
     @Autowired
     private EventStatusUpdateProcessor eventStatusUpdateProcessor;
 
+    @Autowired
+    private EventStatusUpdateMerger eventStatusUpdateMerger;
+
+    @Autowired
+    private RootCauseExpr rootCauseExpr;
+
+    @Autowired
+    private ErrorClassExpr errorClassExpr;
+
+    @Autowired
+    private NextAttemptCalculator nextAttemptCalculator;
+
+    @Autowired
+    private PendingEventFilter pendingEventFilter;
+
+    @Autowired
+    private NodeIdSupplier nodeIdSupplier;
+
     @Override
     protected void doConfigure()
         throws
         Exception
     {
+        ErrorHandlerFactory errorHandlerDefinition = deadLetterChannel(
+            "direct:eventDlq" ).maximumRedeliveries( 3 ).useExponentialBackOff().useCollisionAvoidance()
+            .allowRedeliveryWhileStopping( false );
+
         from( "servlet:tasks/syncEvents?muteException=true" )
             .precondition( "{{sync.dhis2.events.to.rapidpro.flows}}" )
             .removeHeaders( "*" )
@@ -86,6 +115,7 @@ public class QueueProgramStageEventsRouteBuilder extends AbstractRouteBuilder
         from("direct:queueEvents")
             .routeId( "Queue Program Stage Events" )
             .to( "direct:fetchDueEvents" )
+            .process( pendingEventFilter )
             .split( simple( "${exchangeProperty.dueEvents}" ) )
                 .setProperty( "eventPayload", simple( "${body}" ) )
                 .to( "direct:fetchAttributes" )
@@ -124,12 +154,61 @@ public class QueueProgramStageEventsRouteBuilder extends AbstractRouteBuilder
             .routeId( "Update DHIS Program Stage Event Status" )
             .process( eventStatusUpdateProcessor )
             .marshal().json().convertBodyTo( String.class )
+            .setHeader( "eventId", simple( "${exchangeProperty.eventPayload['event']}" ) )
+            .setHeader( "payload", simple( "${body}" ) )
+            .to( "direct:postEventStatusUpdate" );
+
+        from( "direct:postEventStatusUpdate" )
+            .routeId( "Post Event Status Update" )
+            .errorHandler( errorHandlerDefinition )
             .toD( "dhis2://post/resource?path=tracker&inBody=resource&client=#dhis2Client" )
             .unmarshal().json()
             .choice().when( simple( "${body['status']} == 'SUCCESS' || ${body['status']} == 'OK'" ) )
-                .log( LoggingLevel.DEBUG, LOGGER, "Successfully updated DHIS program stage event status for event with ID => ${exchangeProperty.eventPayload['event']}" )
+                .log( LoggingLevel.DEBUG, LOGGER, "Successfully updated DHIS program stage event status for event with ID => ${header.eventId}" )
             .otherwise()
-                .log( LoggingLevel.ERROR, LOGGER, "Unexpected status code when updating the dhis program stage event status for event with ID => ${exchangeProperty.eventPayload['event']}. HTTP ${header.CamelHttpResponseCode}. HTTP response body => ${body}" )
+                .log( LoggingLevel.ERROR, LOGGER, "Unexpected status code when updating the dhis program stage event status for event with ID => ${header.eventId}. HTTP ${header.CamelHttpResponseCode}. HTTP response body => ${body}" )
+                .to( "direct:eventDlq" )
+            .end();
+
+        from( "direct:eventDlq" )
+            .routeId( "Save Failed Event" )
+            .setHeader( "errorMessage", rootCauseExpr )
+            .setHeader( "errorClass", errorClassExpr )
+            .process( nextAttemptCalculator )
+            .setBody( simple( "${properties:event.error.dlc.insert.{{spring.sql.init.platform}}}" ) )
+            .to( "jdbc:dataSource?useHeadersAsParameters=true" );
+
+        from( "timer://retryEvents?fixedRate=true&period={{event.retry.sweep.period:60000}}" )
+            .routeId( "Retry Events" )
+            .precondition( "{{sync.dhis2.events.to.rapidpro.flows}}" )
+            .setHeader( "nodeId", constant( nodeIdSupplier.get() ) )
+            .setHeader( "leaseSeconds", simple( "{{event.retry.lease.seconds:300}}", Long.class ) )
+            .setBody( simple( "${properties:event.retry.dlc.claim.{{spring.sql.init.platform}}}" ) )
+            .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+            .filter( simple( "${body.size()} > 0" ) )
+                .log( LoggingLevel.INFO, LOGGER, "Retrying ${body.size()} failed program stage event status updates" )
+                .setProperty( "failedEvents", body() )
+                .process( eventStatusUpdateMerger )
+                .doTry()
+                    .marshal().json().convertBodyTo( String.class )
+                    .toD( "dhis2://post/resource?path=tracker&inBody=resource&client=#dhis2Client" )
+                    .unmarshal().json()
+                    .setProperty( "eventBatchStatus", simple( "${body['status']}" ) )
+                .doCatch( Exception.class )
+                    .log( LoggingLevel.WARN, LOGGER, "Error while retrying program stage event status updates => ${exception.message}" )
+                .end()
+                .split( exchangeProperty( "failedEvents" ) )
+                    .setHeader( "id", simple( "${body['id']}" ) )
+                    .setHeader( "eventId", simple( "${body['event_id']}" ) )
+                    .setHeader( "payload", simple( "${body['payload']}" ) )
+                    .setHeader( "attemptCount", simple( "${body['attempt_count']}" ) )
+                    .choice().when( simple( "${exchangeProperty.eventBatchStatus} != 'SUCCESS' && ${exchangeProperty.eventBatchStatus} != 'OK'" ) )
+                        .setBody( header( "payload" ) )
+                        .to( "direct:postEventStatusUpdate" )
+                    .end()
+                    .setBody( simple( "${properties:event.processed.dlc.update.{{spring.sql.init.platform}}}" ) )
+                    .to( "jdbc:dataSource?useHeadersAsParameters=true" )
+                .end()
             .end();
     }
 }
@@ -30,6 +30,8 @@ package org.hisp.dhis.integration.rapidpro.route;
 import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
 import org.hisp.dhis.integration.rapidpro.expression.IterableReader;
+import org.hisp.dhis.integration.rapidpro.processor.ContactOrgUnitIdCacheFiller;
+import org.hisp.dhis.integration.rapidpro.processor.PagePrefetcher;
 import org.hisp.dhis.integration.rapidpro.processor.SetReportRateQueryParamProcessor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -45,6 +47,12 @@ public class ReminderRouteBuilder extends AbstractRouteBuilder
     @Autowired
     private IterableReader iterableReader;
 
+    @Autowired
+    private ContactOrgUnitIdCacheFiller contactOrgUnitIdCacheFiller;
+
+    @Autowired
+    private PagePrefetcher pagePrefetcher;
+
     @Override
     protected void doConfigure()
     {
@@ -95,10 +103,9 @@ public class ReminderRouteBuilder extends AbstractRouteBuilder
             .end();
 
         from( "direct:fetchContacts" )
-            .setHeader( "Authorization", constant( "Token {{rapidpro.api.token}}" ) )
-            .toD( "${exchangeProperty.nextContactsPageUrl}&httpMethod=GET" )
+            .process( pagePrefetcher.reader( "direct:fetchContactsPage", "nextContactsPageUrl" ) )
             .unmarshal().json()
-            .setProperty( "nextContactsPageUrl", simple( "${body[next]}" ) );
+            .process( contactOrgUnitIdCacheFiller );
 
         from( "direct:fetchReportRate" )
             .process( setReportRateQueryParamProcessor )
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.route;
+
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.hisp.dhis.integration.rapidpro.processor.ReportLogPageWriter;
+import org.hisp.dhis.integration.rapidpro.processor.ReportLogQueryParamSetter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lists and counts the rows of <code>REPORT_DEAD_LETTER_CHANNEL</code> and <code>REPORT_SUCCESS_LOG</code>. Rows are
+ * listed newest first in pages of at most <code>management.page.max.size</code> rows. A page is requested with the
+ * <code>nextBefore</code> ID returned by the previous page (i.e., keyset pagination) rather than an offset, so that
+ * earlier pages are never re-read. Counting stops at <code>management.count.max</code> rows so that a count does not
+ * scan a large table in full.
+ */
+@Component
+public class ReportLogRouteBuilder extends AbstractRouteBuilder
+{
+    @Autowired
+    private ReportLogQueryParamSetter reportLogQueryParamSetter;
+
+    @Autowired
+    private ReportLogPageWriter reportLogPageWriter;
+
+    @Override
+    protected void doConfigure()
+    {
+        from( "servlet:reports/deadLetters?httpMethodRestrict=GET&muteException=true" )
+            .routeId( "List Report Dead Letters" )
+            .setBody( simple( "${properties:report.dead.letter.list.{{spring.sql.init.platform}}}" ) )
+            .to( "direct:listReportLog" );
+
+        from( "servlet:reports/deadLetters/count?httpMethodRestrict=GET&muteException=true" )
+            .routeId( "Count Report Dead Letters" )
+            .setBody( simple( "${properties:report.dead.letter.count.{{spring.sql.init.platform}}}" ) )
+            .to( "direct:countReportLog" );
+
+        from( "servlet:reports/successLog?httpMethodRestrict=GET&muteException=true" )
+            .routeId( "List Report Success Log" )
+            .removeHeader( "status" )
+            .setBody( simple( "${properties:report.success.log.list.{{spring.sql.init.platform}}}" ) )
+            .to( "direct:listReportLog" );
+
+        from( "servlet:reports/successLog/count?httpMethodRestrict=GET&muteException=true" )
+            .routeId( "Count Report Success Log" )
+            .removeHeader( "status" )
+            .setBody( simple( "${properties:report.success.log.count.{{spring.sql.init.platform}}}" ) )
+            .to( "direct:countReportLog" );
+
+        from( "direct:listReportLog" )
+            .routeId( "List Report Log" )
+            .doTry()
+                .removeHeaders( "*", "dataSetCode", "orgUnitId", "status", "from", "to", "before", "limit" )
+                .process( reportLogQueryParamSetter )
+                .to( "jdbc:dataSource?useHeadersAsParameters=true&outputType=StreamList" )
+                .process( reportLogPageWriter )
+                .removeHeaders( "*" )
+                .setHeader( Exchange.CONTENT_TYPE, constant( "application/json" ) )
+            .doCatch( IllegalArgumentException.class )
+                .to( "direct:rejectReportLogRequest" )
+            .end();
+
+        from( "direct:countReportLog" )
+            .routeId( "Count Report Log" )
+            .doTry()
+                .removeHeaders( "*", "dataSetCode", "orgUnitId", "status", "from", "to" )
+                .process( reportLogQueryParamSetter )
+                .to( "jdbc:dataSource?useHeadersAsParameters=true&outputType=SelectOne" )
+                .process( exchange -> {
+                    long count = exchange.getMessage().getBody( Long.class );
+                    long maxCount = exchange.getMessage().getHeader( "maxCount", Long.class );
+                    exchange.getMessage()
+                        .setBody( Map.of( "count", Math.min( count, maxCount ), "capped", count > maxCount ) );
+                } )
+                .removeHeaders( "*" )
+                .setHeader( Exchange.CONTENT_TYPE, constant( "application/json" ) )
+                .marshal().json()
+            .doCatch( IllegalArgumentException.class )
+                .to( "direct:rejectReportLogRequest" )
+            .end();
+
+        from( "direct:rejectReportLogRequest" )
+            .routeId( "Reject Report Log Request" )
+            .removeHeaders( "*" )
+            .setHeader( Exchange.HTTP_RESPONSE_CODE, constant( 400 ) )
+            .setHeader( Exchange.CONTENT_TYPE, constant( "application/json" ) )
+            .setBody( exchange -> Map.of( "status", "error", "data",
+                exchange.getProperty( Exchange.EXCEPTION_CAUGHT, Exception.class ).getMessage() ) )
+            .marshal().json();
+    }
+}
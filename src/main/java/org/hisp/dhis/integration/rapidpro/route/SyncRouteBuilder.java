@@ -30,9 +30,12 @@ package org.hisp.dhis.integration.rapidpro.route;
 import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
 import org.hisp.dhis.api.model.v40_0.User;
+import org.hisp.dhis.integration.rapidpro.cache.ContactOrgUnitIdCache;
 import org.hisp.dhis.integration.rapidpro.expression.IterableReader;
+import org.hisp.dhis.integration.rapidpro.processor.ContactOrgUnitIdCacheFiller;
 import org.hisp.dhis.integration.rapidpro.processor.ExistingUserEnumerator;
 import org.hisp.dhis.integration.rapidpro.processor.NewUserEnumerator;
+import org.hisp.dhis.integration.rapidpro.processor.PagePrefetcher;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -51,6 +54,15 @@ public class SyncRouteBuilder extends AbstractRouteBuilder
     @Autowired
     private ExistingUserEnumerator existingUserEnumerator;
 
+    @Autowired
+    private ContactOrgUnitIdCacheFiller contactOrgUnitIdCacheFiller;
+
+    @Autowired
+    private ContactOrgUnitIdCache contactOrgUnitIdCache;
+
+    @Autowired
+    private PagePrefetcher pagePrefetcher;
+
     @Value( "${org.unit.id.scheme}" )
     private String orgUnitIdScheme;
 
@@ -82,9 +94,10 @@ public class SyncRouteBuilder extends AbstractRouteBuilder
                 .setHeader( "Authorization", constant( "Token {{rapidpro.api.token}}" ) )
                 .setProperty( "nextContactsPageUrl", simple( "{{rapidpro.api.url}}/contacts.json?group=DHIS2" ) )
                 .loopDoWhile( exchangeProperty( "nextContactsPageUrl" ).isNotNull() )
-                    .toD( "${exchangeProperty.nextContactsPageUrl}" ).unmarshal().json()
-                    .setProperty( "nextContactsPageUrl", simple( "${body[next]}" ) )
+                    .process( pagePrefetcher.reader( "direct:fetchContactsPage", "nextContactsPageUrl" ) )
+                    .unmarshal().json()
                     .setProperty( "rapidProContacts", simple( "${body}" ) )
+                    .process( contactOrgUnitIdCacheFiller )
                     .process( newUserEnumerator )
                     .split().body()
                         .to( "direct:createContact" )
@@ -97,6 +110,12 @@ public class SyncRouteBuilder extends AbstractRouteBuilder
             .end()
             .log( LoggingLevel.INFO, LOGGER, "Completed synchronisation of RapidPro contacts with DHIS2 users" );
 
+        from( "direct:fetchContactsPage" )
+            .routeId( "Fetch RapidPro Contacts Page" )
+            .setHeader( "Authorization", constant( "Token {{rapidpro.api.token}}" ) )
+            .toD( "${exchangeProperty.nextContactsPageUrl}&httpMethod=GET" )
+            .convertBodyTo( byte[].class );
+
         from( "direct:createContact" )
             .transform( datasonnet( "resource:classpath:contact.ds", Map.class, "application/x-java-object", "application/x-java-object" ) )
             .setProperty( "dhis2UserId", simple( "${body['fields']['dhis2_user_id']}" ) )
@@ -112,6 +131,9 @@ public class SyncRouteBuilder extends AbstractRouteBuilder
             .setProperty( "rapidProUuid", simple( "${body.getKey}" ) )
             .setBody( simple( "${body.getValue}" ) )
             .transform( datasonnet( "resource:classpath:contact.ds", Map.class, "application/x-java-object", "application/x-java-object" ) )
+            .process( exchange -> contactOrgUnitIdCache.put( exchange.getProperty( "rapidProUuid", String.class ),
+                (String) ((Map<String, Object>) exchange.getMessage().getBody( Map.class ).get( "fields" )).get(
+                    "dhis2_organisation_unit_id" ) ) )
             .marshal().json().convertBodyTo( String.class )
             .setHeader( "Authorization", constant( "Token {{rapidpro.api.token}}" ) )
             .log( LoggingLevel.DEBUG, LOGGER, "Updating RapidPro contact ${exchangeProperty.rapidProUuid}" )
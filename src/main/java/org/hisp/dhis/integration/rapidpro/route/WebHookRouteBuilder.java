@@ -29,11 +29,28 @@ package org.hisp.dhis.integration.rapidpro.route;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
+import org.hisp.dhis.integration.rapidpro.cache.FlowRunFingerprintCache;
+import org.hisp.dhis.integration.rapidpro.outbox.FlowRunOutbox;
+import org.hisp.dhis.integration.rapidpro.processor.FlowRunFingerprintSetter;
+import org.hisp.dhis.integration.rapidpro.processor.ReportGroupIdSetter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 public class WebHookRouteBuilder extends AbstractRouteBuilder
 {
+    @Autowired
+    private ReportGroupIdSetter reportGroupIdSetter;
+
+    @Autowired
+    private FlowRunFingerprintSetter flowRunFingerprintSetter;
+
+    @Autowired
+    private FlowRunFingerprintCache flowRunFingerprintCache;
+
+    @Autowired
+    private FlowRunOutbox flowRunOutbox;
+
     @Override
     protected void doConfigure()
     {
@@ -41,8 +58,14 @@ public class WebHookRouteBuilder extends AbstractRouteBuilder
             .precondition( "{{rapidpro.webhook.enabled}}" )
             .routeId( "RapidPro Webhook" )
             .removeHeader( Exchange.HTTP_URI )
-            .to( "jms:queue:dhis2AggregateReports?exchangePattern=InOnly" )
-            .log( LoggingLevel.DEBUG, LOGGER, "Enqueued webhook message [data set code = ${header.dataSetCode},report period offset = ${header.reportPeriodOffset},orgUnitId = ${header.orgUnitId},content = ${body}]" )
+            .process( flowRunFingerprintSetter )
+            .filter( exchange -> !flowRunFingerprintCache.isDuplicate(
+                exchange.getMessage().getHeader( "flowRunFingerprint", String.class ) ) )
+                .process( reportGroupIdSetter )
+                .process( flowRunOutbox.enqueuer( "dhis2AggregateReports" ) )
+                .wireTap( FlowRunOutbox.RELAY_ENDPOINT_URI )
+                .log( LoggingLevel.DEBUG, LOGGER, "Enqueued webhook message [data set code = ${header.dataSetCode},report period offset = ${header.reportPeriodOffset},orgUnitId = ${header.orgUnitId},content = ${body}]" )
+            .end()
             .setHeader( Exchange.HTTP_RESPONSE_CODE, constant( 202 ) )
             .setBody().simple( "${null}" );
     }
@@ -13,7 +13,27 @@ CREATE TABLE IF NOT EXISTS REPORT_DEAD_LETTER_CHANNEL (
     last_processed_at       TIMESTAMP WITH TIME ZONE            NOT NULL DEFAULT CURRENT_TIMESTAMP
 );
 
+ALTER TABLE REPORT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS attempt_count INTEGER NOT NULL DEFAULT 1;
+ALTER TABLE REPORT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS error_class VARCHAR;
+ALTER TABLE REPORT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS next_attempt_at TIMESTAMP WITH TIME ZONE;
+ALTER TABLE REPORT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS claimed_by VARCHAR;
+ALTER TABLE REPORT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS lease_until TIMESTAMP WITH TIME ZONE;
+
 CREATE INDEX ON REPORT_DEAD_LETTER_CHANNEL(status);
+CREATE INDEX IF NOT EXISTS REPORT_DEAD_LETTER_CHANNEL_NEXT_ATTEMPT_AT_IDX ON REPORT_DEAD_LETTER_CHANNEL(next_attempt_at);
+CREATE INDEX IF NOT EXISTS REPORT_DEAD_LETTER_CHANNEL_DATA_SET_CODE_ID_IDX ON REPORT_DEAD_LETTER_CHANNEL(data_set_code, id);
+CREATE INDEX IF NOT EXISTS REPORT_DEAD_LETTER_CHANNEL_ORGANISATION_UNIT_ID_ID_IDX ON REPORT_DEAD_LETTER_CHANNEL(organisation_unit_id, id);
+CREATE INDEX IF NOT EXISTS REPORT_DEAD_LETTER_CHANNEL_STATUS_ID_IDX ON REPORT_DEAD_LETTER_CHANNEL(status, id);
+CREATE INDEX IF NOT EXISTS REPORT_DEAD_LETTER_CHANNEL_CREATED_AT_ID_IDX ON REPORT_DEAD_LETTER_CHANNEL(created_at, id);
+
+CREATE TABLE IF NOT EXISTS REPORT_RETRY_SIGNAL (
+    id       INTEGER  PRIMARY KEY,
+    version  BIGINT   NOT NULL
+);
+
+INSERT INTO REPORT_RETRY_SIGNAL (id, version) SELECT 1, 0 WHERE NOT EXISTS (SELECT * FROM REPORT_RETRY_SIGNAL);
+
+CREATE TRIGGER IF NOT EXISTS REPORT_RETRY_NOTIFIER AFTER INSERT, UPDATE ON REPORT_DEAD_LETTER_CHANNEL FOR EACH ROW CALL 'org.hisp.dhis.integration.rapidpro.retry.H2ReportRetryTrigger';
 
 CREATE TABLE IF NOT EXISTS EVENT_DEAD_LETTER_CHANNEL (
     id                      INTEGER                             PRIMARY KEY AUTO_INCREMENT,
@@ -25,13 +45,46 @@ CREATE TABLE IF NOT EXISTS EVENT_DEAD_LETTER_CHANNEL (
     last_processed_at       TIMESTAMP WITH TIME ZONE            NOT NULL DEFAULT CURRENT_TIMESTAMP
 );
 
+ALTER TABLE EVENT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS attempt_count INTEGER NOT NULL DEFAULT 1;
+ALTER TABLE EVENT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS error_class VARCHAR;
+ALTER TABLE EVENT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS next_attempt_at TIMESTAMP WITH TIME ZONE;
+ALTER TABLE EVENT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS claimed_by VARCHAR;
+ALTER TABLE EVENT_DEAD_LETTER_CHANNEL ADD COLUMN IF NOT EXISTS lease_until TIMESTAMP WITH TIME ZONE;
+
 CREATE INDEX ON EVENT_DEAD_LETTER_CHANNEL(status);
+CREATE INDEX IF NOT EXISTS EVENT_DEAD_LETTER_CHANNEL_NEXT_ATTEMPT_AT_IDX ON EVENT_DEAD_LETTER_CHANNEL(next_attempt_at);
+CREATE INDEX IF NOT EXISTS EVENT_DEAD_LETTER_CHANNEL_STATUS_EVENT_ID_IDX ON EVENT_DEAD_LETTER_CHANNEL(status, event_id);
 
 CREATE TABLE IF NOT EXISTS POLLER (
     flow_uuid    VARCHAR                   PRIMARY KEY,
     last_run_at  TIMESTAMP WITH TIME ZONE  NOT NULL DEFAULT CURRENT_TIMESTAMP
 );
 
+CREATE TABLE IF NOT EXISTS FLOW_RUN_FINGERPRINT (
+    fingerprint  VARCHAR                   PRIMARY KEY,
+    created_at   TIMESTAMP WITH TIME ZONE  NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS FLOW_RUN_FINGERPRINT_CREATED_AT_IDX ON FLOW_RUN_FINGERPRINT(created_at);
+
+CREATE TABLE IF NOT EXISTS FLOW_RUN_OUTBOX (
+    id           INTEGER                   PRIMARY KEY AUTO_INCREMENT,
+    queue_name   VARCHAR                   NOT NULL,
+    headers      VARCHAR                   NOT NULL,
+    body         VARCHAR                   NOT NULL,
+    claimed_by   VARCHAR,
+    lease_until  TIMESTAMP WITH TIME ZONE,
+    created_at   TIMESTAMP WITH TIME ZONE  NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS PENDING_FLOW_RUN (
+    run_uuid         VARCHAR                   PRIMARY KEY,
+    flow_uuid        VARCHAR                   NOT NULL,
+    last_checked_at  TIMESTAMP WITH TIME ZONE  NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS PENDING_FLOW_RUN_FLOW_UUID_LAST_CHECKED_AT_IDX ON PENDING_FLOW_RUN(flow_uuid, last_checked_at);
+
 CREATE TABLE IF NOT EXISTS TOKEN (
     value_  VARCHAR PRIMARY KEY
 );
@@ -47,6 +100,35 @@ CREATE TABLE IF NOT EXISTS REPORT_SUCCESS_LOG (
     created_at              TIMESTAMP WITH TIME ZONE            NOT NULL DEFAULT CURRENT_TIMESTAMP
 );
 
+ALTER TABLE REPORT_SUCCESS_LOG ALTER COLUMN dhis_request SET NULL;
+ALTER TABLE REPORT_SUCCESS_LOG ALTER COLUMN dhis_response SET NULL;
+ALTER TABLE REPORT_SUCCESS_LOG ALTER COLUMN rapidpro_payload SET NULL;
+ALTER TABLE REPORT_SUCCESS_LOG ADD COLUMN IF NOT EXISTS dhis_request_deflated VARBINARY;
+ALTER TABLE REPORT_SUCCESS_LOG ADD COLUMN IF NOT EXISTS dhis_response_deflated VARBINARY;
+ALTER TABLE REPORT_SUCCESS_LOG ADD COLUMN IF NOT EXISTS rapidpro_payload_deflated VARBINARY;
+
+CREATE ALIAS IF NOT EXISTS SUCCESS_LOG_INFLATE FOR 'org.hisp.dhis.integration.rapidpro.audit.SuccessLogCodec.inflate';
+
+CREATE INDEX IF NOT EXISTS REPORT_SUCCESS_LOG_CREATED_AT_IDX ON REPORT_SUCCESS_LOG(created_at);
+CREATE INDEX IF NOT EXISTS REPORT_SUCCESS_LOG_DATA_SET_CODE_ID_IDX ON REPORT_SUCCESS_LOG(data_set_code, id);
+CREATE INDEX IF NOT EXISTS REPORT_SUCCESS_LOG_ORGANISATION_UNIT_ID_ID_IDX ON REPORT_SUCCESS_LOG(organisation_unit_id, id);
+
+CREATE TABLE IF NOT EXISTS REPORT_IMPORT_JOB (
+    id                      INTEGER                             PRIMARY KEY AUTO_INCREMENT,
+    job_id                  VARCHAR                             NOT NULL,
+    payload                 VARCHAR                             NOT NULL,
+    dhis_request            VARCHAR                             NOT NULL,
+    data_set_code           VARCHAR                             NOT NULL,
+    report_period_offset    INTEGER                             NOT NULL,
+    organisation_unit_id    VARCHAR,
+    period                  VARCHAR                             NOT NULL,
+    created_at              TIMESTAMP WITH TIME ZONE            NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+ALTER TABLE REPORT_IMPORT_JOB ADD COLUMN IF NOT EXISTS attempt_count INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE REPORT_IMPORT_JOB ADD COLUMN IF NOT EXISTS claimed_by VARCHAR;
+ALTER TABLE REPORT_IMPORT_JOB ADD COLUMN IF NOT EXISTS lease_until TIMESTAMP WITH TIME ZONE;
+
 CREATE TABLE IF NOT EXISTS EVENT_SUCCESS_LOG (
     id                      INTEGER                             PRIMARY KEY AUTO_INCREMENT,
     dhis_request            VARCHAR                             NOT NULL,
@@ -55,3 +137,12 @@ CREATE TABLE IF NOT EXISTS EVENT_SUCCESS_LOG (
     event_id                VARCHAR                             NOT NULL,
     created_at              TIMESTAMP WITH TIME ZONE            NOT NULL DEFAULT CURRENT_TIMESTAMP
 );
+
+ALTER TABLE EVENT_SUCCESS_LOG ALTER COLUMN dhis_request SET NULL;
+ALTER TABLE EVENT_SUCCESS_LOG ALTER COLUMN dhis_response SET NULL;
+ALTER TABLE EVENT_SUCCESS_LOG ALTER COLUMN rapidpro_payload SET NULL;
+ALTER TABLE EVENT_SUCCESS_LOG ADD COLUMN IF NOT EXISTS dhis_request_deflated VARBINARY;
+ALTER TABLE EVENT_SUCCESS_LOG ADD COLUMN IF NOT EXISTS dhis_response_deflated VARBINARY;
+ALTER TABLE EVENT_SUCCESS_LOG ADD COLUMN IF NOT EXISTS rapidpro_payload_deflated VARBINARY;
+
+CREATE INDEX IF NOT EXISTS EVENT_SUCCESS_LOG_CREATED_AT_IDX ON EVENT_SUCCESS_LOG(created_at);
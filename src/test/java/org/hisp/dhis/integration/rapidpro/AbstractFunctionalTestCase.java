@@ -115,11 +115,21 @@ public class AbstractFunctionalTestCase
         System.clearProperty( "org.unit.id.scheme" );
         System.clearProperty( "reminder.data.set.codes" );
         System.clearProperty( "report.delivery.schedule.expression" );
+        System.clearProperty( "report.delivery.batch.size" );
+        System.clearProperty( "report.registration.batch.size" );
+        System.clearProperty( "report.completion.mode" );
+        System.clearProperty( "report.import.mode" );
+        System.clearProperty( "report.retry.sweep.period" );
         System.clearProperty( "rapidpro.flow.uuids" );
         System.clearProperty( "rapidpro.webhook.enabled" );
 
         jdbcTemplate.execute( "TRUNCATE TABLE REPORT_DEAD_LETTER_CHANNEL" );
+        jdbcTemplate.execute( "TRUNCATE TABLE EVENT_DEAD_LETTER_CHANNEL" );
         jdbcTemplate.execute( "TRUNCATE TABLE REPORT_SUCCESS_LOG" );
+        jdbcTemplate.execute( "TRUNCATE TABLE REPORT_IMPORT_JOB" );
+        jdbcTemplate.execute( "TRUNCATE TABLE FLOW_RUN_FINGERPRINT" );
+        jdbcTemplate.execute( "TRUNCATE TABLE FLOW_RUN_OUTBOX" );
+        jdbcTemplate.execute( "TRUNCATE TABLE PENDING_FLOW_RUN" );
         jdbcTemplate.execute( "TRUNCATE TABLE MESSAGES" );
 
         for ( Map<String, Object> contact : fetchRapidProContacts() )
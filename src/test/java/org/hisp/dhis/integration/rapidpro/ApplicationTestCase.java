@@ -32,6 +32,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.boot.ApplicationArguments;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -236,6 +237,61 @@ public class ApplicationTestCase
         assertThrows( TerminateException.class, application::postConstruct );
     }
 
+    @ParameterizedTest
+    @ValueSource( strings = { "reportImportMode=ASYNC", "reportCompletionMode=IMPORT" } )
+    public void testPostConstructTerminatesGivenBatchedReportDeliveryAndIncompatibleMode( String mode )
+    {
+        String[] fieldAndValue = mode.split( "=" );
+        Application application = new Application()
+        {
+            @Override
+            protected void terminate( String shutdownMessage )
+            {
+                assertTrue( shutdownMessage.startsWith(
+                    "Bad report delivery configuration: batched report delivery does not support " ) );
+                throw new TerminateException();
+            }
+        };
+        application.setTestConnectionOnStartUp( false );
+        application.setApplicationArguments( new ApplicationArguments()
+        {
+            @Override
+            public String[] getSourceArgs()
+            {
+                return new String[0];
+            }
+
+            @Override
+            public Set<String> getOptionNames()
+            {
+                return null;
+            }
+
+            @Override
+            public boolean containsOption( String name )
+            {
+                return false;
+            }
+
+            @Override
+            public List<String> getOptionValues( String name )
+            {
+                return null;
+            }
+
+            @Override
+            public List<String> getNonOptionArgs()
+            {
+                return null;
+            }
+        } );
+        application.setRapidProApiUrl( Environment.RAPIDPRO_API_URL );
+        application.setRapidProApiToken( Environment.RAPIDPRO_API_TOKEN );
+        ReflectionTestUtils.setField( application, "reportDeliveryBatchSize", 2 );
+        ReflectionTestUtils.setField( application, fieldAndValue[0], fieldAndValue[1] );
+        assertThrows( TerminateException.class, application::postConstruct );
+    }
+
     @Test
     public void testRapidProConnectionGivenIncorrectApiUrl()
     {
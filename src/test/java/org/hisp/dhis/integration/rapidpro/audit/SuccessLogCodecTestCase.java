@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+public class SuccessLogCodecTestCase
+{
+    @Test
+    public void testDeflateAndInflate()
+    {
+        String payload = "{\"dataValues\":[" + "{\"dataElement\":\"GEN_EXT_FUND\",\"value\":\"2\",\"comment\":\"RapidPro contact details: {\\\"name\\\": \\\"John Doe\\\"}\"},".repeat(
+            50 ) + "]}";
+
+        byte[] deflatedPayload = SuccessLogCodec.deflate( payload );
+
+        assertTrue( deflatedPayload.length * 10 < payload.getBytes( StandardCharsets.UTF_8 ).length );
+        assertEquals( payload, SuccessLogCodec.inflate( deflatedPayload ) );
+    }
+
+    @Test
+    public void testDeflateGivenShortPayload()
+    {
+        assertNull( SuccessLogCodec.deflate( "{}" ) );
+        assertNull( SuccessLogCodec.deflate( null ) );
+        assertNull( SuccessLogCodec.inflate( null ) );
+    }
+
+    @Test
+    public void testDecompressRow()
+    {
+        String payload = "{\"results\":{" + "\"mal_de\":{\"value\":\"2\"},".repeat( 100 ) + "}}";
+        Map<String, Object> row = new LinkedCaseInsensitiveMap<>();
+        row.put( "ID", 1 );
+        row.put( "DHIS_RESPONSE", "{\"status\":\"OK\"}" );
+        row.put( "DHIS_RESPONSE_DEFLATED", null );
+        row.put( "RAPIDPRO_PAYLOAD", null );
+        row.put( "RAPIDPRO_PAYLOAD_DEFLATED", SuccessLogCodec.deflate( payload ) );
+
+        SuccessLogCodec.decompress( row );
+
+        assertEquals( 3, row.size() );
+        assertEquals( "{\"status\":\"OK\"}", row.get( "dhis_response" ) );
+        assertEquals( payload, row.get( "rapidpro_payload" ) );
+        assertFalse( row.containsKey( "rapidpro_payload_deflated" ) );
+    }
+
+    @Test
+    public void testDecompressGivenRowWithoutDeflatedColumns()
+    {
+        Map<String, Object> row = new HashMap<>( Map.of( "id", 1, "dhis_request", "{}" ) );
+
+        SuccessLogCodec.decompress( row );
+
+        assertEquals( Map.of( "id", 1, "dhis_request", "{}" ), row );
+    }
+}
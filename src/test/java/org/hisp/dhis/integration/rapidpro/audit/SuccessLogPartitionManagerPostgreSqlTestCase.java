@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+@Testcontainers
+public class SuccessLogPartitionManagerPostgreSqlTestCase
+{
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRESQL_CONTAINER = new PostgreSQLContainer<>(
+        DockerImageName.parse( "postgis/postgis:12-3.2-alpine" ).asCompatibleSubstituteFor( "postgres" ) );
+
+    private JdbcTemplate jdbcTemplate;
+
+    private SuccessLogPartitionManager successLogPartitionManager;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource( POSTGRESQL_CONTAINER.getJdbcUrl(),
+            POSTGRESQL_CONTAINER.getUsername(), POSTGRESQL_CONTAINER.getPassword() );
+        jdbcTemplate = new JdbcTemplate( dataSource );
+        jdbcTemplate.execute( "DROP SCHEMA public CASCADE" );
+        jdbcTemplate.execute( "CREATE SCHEMA public" );
+        new ResourceDatabasePopulator( new ClassPathResource( "schema-postgresql.sql" ) ).execute( dataSource );
+
+        successLogPartitionManager = new SuccessLogPartitionManager();
+        ReflectionTestUtils.setField( successLogPartitionManager, "jdbcTemplate", jdbcTemplate );
+        ReflectionTestUtils.setField( successLogPartitionManager, "transactionTemplate",
+            new TransactionTemplate( new DataSourceTransactionManager( dataSource ) ) );
+        ReflectionTestUtils.setField( successLogPartitionManager, "platform", "postgresql" );
+        ReflectionTestUtils.setField( successLogPartitionManager, "partitioningEnabled", true );
+        ReflectionTestUtils.setField( successLogPartitionManager, "partitionsAhead", 2 );
+    }
+
+    @Test
+    public void testPostConstructPartitionsPopulatedTable()
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            jdbcTemplate.update(
+                "INSERT INTO REPORT_SUCCESS_LOG (dhis_request, dhis_response, rapidpro_payload, data_set_code, report_period_offset, organisation_unit_id, created_at) VALUES ('{}', '{}', '{}', ?, 0, 'ACME', CURRENT_TIMESTAMP - INTERVAL '1 day' * ?)",
+                i % 2 == 0 ? "MAL_YEARLY" : "MAL_MONTHLY", i * 7 );
+        }
+        String legacyPartition = "report_success_log_"
+            + YearMonth.now( ZoneOffset.UTC ).toString().replace( "-", "" );
+
+        successLogPartitionManager.postConstruct();
+
+        assertTrue( successLogPartitionManager.isPartitioned( "REPORT_SUCCESS_LOG" ) );
+        assertTrue( successLogPartitionManager.isPartitioned( "EVENT_SUCCESS_LOG" ) );
+        assertEquals( 100,
+            jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM REPORT_SUCCESS_LOG", Integer.class ) );
+        assertEquals( 100,
+            jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM " + legacyPartition, Integer.class ) );
+        assertEquals( 50, jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM REPORT_SUCCESS_LOG WHERE data_set_code = 'MAL_YEARLY'", Integer.class ) );
+
+        List<String> indexes = jdbcTemplate.queryForList(
+            "SELECT indexname FROM pg_indexes WHERE tablename = 'report_success_log'", String.class );
+        assertTrue( indexes.containsAll( List.of( "report_success_log_pkey", "report_success_log_created_at_idx",
+            "report_success_log_data_set_code_id_idx", "report_success_log_organisation_unit_id_id_idx" ) ) );
+        assertEquals( indexes.size(), jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM pg_indexes WHERE tablename = ?", Integer.class, legacyPartition ) );
+        assertFalse( successLogPartitionManager.hasConstraint( legacyPartition, "REPORT_SUCCESS_LOG_partition_check" ) );
+
+        jdbcTemplate.update(
+            "INSERT INTO REPORT_SUCCESS_LOG (dhis_request, dhis_response, rapidpro_payload, data_set_code, report_period_offset) VALUES ('{}', '{}', '{}', 'MAL_YEARLY', 0)" );
+        assertEquals( 101,
+            jdbcTemplate.queryForObject( "SELECT MAX(id) FROM REPORT_SUCCESS_LOG", Integer.class ) );
+
+        successLogPartitionManager.postConstruct();
+        assertEquals( 101,
+            jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM REPORT_SUCCESS_LOG", Integer.class ) );
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SuccessLogPartitionManagerTestCase
+{
+    private final SuccessLogPartitionManager successLogPartitionManager = new SuccessLogPartitionManager();
+
+    @Test
+    public void testGetPartitionName()
+    {
+        assertEquals( "REPORT_SUCCESS_LOG_202209",
+            successLogPartitionManager.getPartitionName( "REPORT_SUCCESS_LOG", YearMonth.of( 2022, 9 ) ) );
+    }
+
+    @Test
+    public void testToTimestampLiteral()
+    {
+        assertEquals( "2022-09-01 00:00:00+00", successLogPartitionManager.toTimestampLiteral( YearMonth.of( 2022, 9 ) ) );
+    }
+
+    @Test
+    public void testGetExpiredPartitions()
+    {
+        List<String> partitions = List.of( "report_success_log_202208", "report_success_log_202209",
+            "report_success_log_202210", "report_success_log_default" );
+
+        assertEquals( List.of( "report_success_log_202208", "report_success_log_202209" ),
+            successLogPartitionManager.getExpiredPartitions( partitions, Instant.parse( "2022-10-01T00:00:00Z" ) ) );
+        assertEquals( List.of( "report_success_log_202208" ),
+            successLogPartitionManager.getExpiredPartitions( partitions, Instant.parse( "2022-09-30T23:59:59Z" ) ) );
+    }
+}
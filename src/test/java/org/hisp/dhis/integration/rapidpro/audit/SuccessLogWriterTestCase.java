@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SuccessLogWriterTestCase
+{
+    private List<Map<String, Object>> insertedRows;
+
+    private SuccessLogWriter successLogWriter;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        insertedRows = new CopyOnWriteArrayList<>();
+        successLogWriter = new SuccessLogWriter()
+        {
+            @Override
+            protected void insert( List<Row> rows )
+            {
+                for ( Row row : rows )
+                {
+                    insertedRows.add( (Map<String, Object>) ReflectionTestUtils.getField( row, "parameters" ) );
+                }
+            }
+
+            @Override
+            protected Statement readStatement( String statementKey )
+            {
+                return new Statement( "INSERT INTO REPORT_SUCCESS_LOG (data_set_code) VALUES (:dataSetCode)",
+                    List.of( "dataSetCode" ) );
+            }
+        };
+        ReflectionTestUtils.setField( successLogWriter, "bufferSize", 2 );
+        ReflectionTestUtils.setField( successLogWriter, "batchSize", 100 );
+        ReflectionTestUtils.setField( successLogWriter, "flushPeriod", 200L );
+    }
+
+    @Test
+    public void testWriteGivenWriteBehindDisabled()
+    {
+        successLogWriter.postConstruct();
+        successLogWriter.write( "report.success.log.insert", Map.of( "dataSetCode", "MAL_YEARLY", "foo", "bar" ) );
+
+        assertEquals( List.of( Map.of( "dataSetCode", "MAL_YEARLY" ) ), insertedRows );
+        assertEquals( 0, successLogWriter.getBufferedCount() );
+    }
+
+    @Test
+    public void testWriteGivenFullBuffer()
+    {
+        successLogWriter.postConstruct();
+        ReflectionTestUtils.setField( successLogWriter, "writeBehindEnabled", true );
+        ReflectionTestUtils.setField( successLogWriter, "running", true );
+        for ( int i = 0; i < 3; i++ )
+        {
+            successLogWriter.write( "report.success.log.insert", Map.of( "dataSetCode", "MAL_YEARLY_" + i ) );
+        }
+
+        assertEquals( 2, successLogWriter.getBufferedCount() );
+        assertEquals( 1, successLogWriter.getOverflowCount() );
+        assertEquals( List.of( Map.of( "dataSetCode", "MAL_YEARLY_2" ) ), insertedRows );
+    }
+
+    @Test
+    public void testPreDestroyFlushesBuffer()
+        throws
+        Exception
+    {
+        ReflectionTestUtils.setField( successLogWriter, "writeBehindEnabled", true );
+        successLogWriter.postConstruct();
+        successLogWriter.write( "report.success.log.insert", Map.of( "dataSetCode", "MAL_YEARLY" ) );
+        successLogWriter.write( "report.success.log.insert", Map.of( "dataSetCode", "MAL_MONTHLY" ) );
+        successLogWriter.preDestroy();
+
+        assertEquals( 2, insertedRows.size() );
+        assertEquals( 0, successLogWriter.getBufferedCount() );
+        assertEquals( 0, successLogWriter.getOverflowCount() );
+    }
+
+    @Test
+    public void testPreDestroyWaitsForFlushInProgress()
+        throws
+        Exception
+    {
+        CountDownLatch insertStartedLatch = new CountDownLatch( 1 );
+        CountDownLatch insertReleaseLatch = new CountDownLatch( 1 );
+        SuccessLogWriter blockingSuccessLogWriter = new SuccessLogWriter()
+        {
+            @Override
+            protected void insert( List<Row> rows )
+            {
+                insertStartedLatch.countDown();
+                try
+                {
+                    insertReleaseLatch.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                for ( Row row : rows )
+                {
+                    insertedRows.add( (Map<String, Object>) ReflectionTestUtils.getField( row, "parameters" ) );
+                }
+            }
+
+            @Override
+            protected Statement readStatement( String statementKey )
+            {
+                return new Statement( "INSERT INTO REPORT_SUCCESS_LOG (data_set_code) VALUES (:dataSetCode)",
+                    List.of( "dataSetCode" ) );
+            }
+        };
+        ReflectionTestUtils.setField( blockingSuccessLogWriter, "writeBehindEnabled", true );
+        ReflectionTestUtils.setField( blockingSuccessLogWriter, "bufferSize", 10 );
+        ReflectionTestUtils.setField( blockingSuccessLogWriter, "batchSize", 1 );
+        ReflectionTestUtils.setField( blockingSuccessLogWriter, "flushPeriod", 200L );
+        blockingSuccessLogWriter.postConstruct();
+
+        blockingSuccessLogWriter.write( "report.success.log.insert", Map.of( "dataSetCode", "MAL_YEARLY" ) );
+        assertTrue( insertStartedLatch.await( 30, TimeUnit.SECONDS ) );
+        blockingSuccessLogWriter.write( "report.success.log.insert", Map.of( "dataSetCode", "MAL_MONTHLY" ) );
+
+        Thread shutdownThread = new Thread( () -> {
+            try
+            {
+                blockingSuccessLogWriter.preDestroy();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+        shutdownThread.start();
+        shutdownThread.join( 500 );
+        assertTrue( shutdownThread.isAlive() );
+        assertEquals( 0, insertedRows.size() );
+
+        insertReleaseLatch.countDown();
+        shutdownThread.join( 30000 );
+        assertFalse( shutdownThread.isAlive() );
+        assertEquals( List.of( Map.of( "dataSetCode", "MAL_YEARLY" ), Map.of( "dataSetCode", "MAL_MONTHLY" ) ),
+            insertedRows );
+        assertEquals( 0, blockingSuccessLogWriter.getBufferedCount() );
+    }
+
+    @Test
+    public void testPreDestroyGivenFailingFinalFlush()
+    {
+        SuccessLogWriter failingSuccessLogWriter = new SuccessLogWriter()
+        {
+            @Override
+            protected void insert( List<Row> rows )
+            {
+                throw new IllegalStateException( "Database is unavailable" );
+            }
+
+            @Override
+            protected Statement readStatement( String statementKey )
+            {
+                return new Statement( "INSERT INTO REPORT_SUCCESS_LOG (data_set_code) VALUES (:dataSetCode)",
+                    List.of( "dataSetCode" ) );
+            }
+        };
+        ReflectionTestUtils.setField( failingSuccessLogWriter, "writeBehindEnabled", true );
+        ReflectionTestUtils.setField( failingSuccessLogWriter, "bufferSize", 10 );
+        ReflectionTestUtils.setField( failingSuccessLogWriter, "batchSize", 100 );
+        ReflectionTestUtils.setField( failingSuccessLogWriter, "flushPeriod", 50L );
+        failingSuccessLogWriter.postConstruct();
+        failingSuccessLogWriter.write( "report.success.log.insert", Map.of( "dataSetCode", "MAL_YEARLY" ) );
+
+        IllegalStateException exception = assertThrows( IllegalStateException.class,
+            failingSuccessLogWriter::preDestroy );
+        assertEquals( "Failed to flush 1 buffered success log rows before shutting down", exception.getMessage() );
+    }
+
+    @Test
+    public void testWriteGivenDeflateCompression()
+        throws
+        Exception
+    {
+        List<String> batchUpdateThreadNames = new CopyOnWriteArrayList<>();
+        SuccessLogWriter compressingSuccessLogWriter = new SuccessLogWriter()
+        {
+            @Override
+            protected void batchUpdate( String sql, SqlParameterSource[] batch )
+            {
+                batchUpdateThreadNames.add( Thread.currentThread().getName() );
+                for ( SqlParameterSource parameterSource : batch )
+                {
+                    insertedRows.add( ((MapSqlParameterSource) parameterSource).getValues() );
+                }
+            }
+
+            @Override
+            protected Statement readStatement( String statementKey )
+            {
+                return new Statement(
+                    "INSERT INTO REPORT_SUCCESS_LOG (data_set_code, rapidpro_payload, rapidpro_payload_deflated) VALUES (:dataSetCode, :rapidProPayload, :rapidProPayloadDeflated)",
+                    List.of( "dataSetCode", "rapidProPayload", "rapidProPayloadDeflated" ) );
+            }
+        };
+        ReflectionTestUtils.setField( compressingSuccessLogWriter, "writeBehindEnabled", true );
+        ReflectionTestUtils.setField( compressingSuccessLogWriter, "bufferSize", 2 );
+        ReflectionTestUtils.setField( compressingSuccessLogWriter, "batchSize", 100 );
+        ReflectionTestUtils.setField( compressingSuccessLogWriter, "flushPeriod", 200L );
+        ReflectionTestUtils.setField( compressingSuccessLogWriter, "compression", "deflate" );
+        compressingSuccessLogWriter.postConstruct();
+
+        String rapidProPayload = "{\"results\":{" + "\"mal_de\":{\"value\":\"2\"},".repeat( 100 ) + "}}";
+        compressingSuccessLogWriter.write( "report.success.log.insert",
+            Map.of( "dataSetCode", "MAL_YEARLY", "rapidProPayload", rapidProPayload ) );
+        compressingSuccessLogWriter.preDestroy();
+
+        assertEquals( List.of( "SuccessLogWriter" ), batchUpdateThreadNames );
+        assertEquals( 1, insertedRows.size() );
+        assertEquals( "MAL_YEARLY", insertedRows.get( 0 ).get( "dataSetCode" ) );
+        assertNull( insertedRows.get( 0 ).get( "rapidProPayload" ) );
+        byte[] storedRapidProPayload = (byte[]) insertedRows.get( 0 ).get( "rapidProPayloadDeflated" );
+        assertTrue( storedRapidProPayload.length < rapidProPayload.length() );
+        assertEquals( rapidProPayload, SuccessLogCodec.inflate( storedRapidProPayload ) );
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.hisp.dhis.api.model.v40_0.CategoryOptionCombo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CategoryOptionComboIndexTestCase
+{
+    private AtomicInteger fetchAllCount;
+
+    private AtomicInteger fetchCount;
+
+    private CountDownLatch refreshCountDownLatch;
+
+    private CategoryOptionComboIndex categoryOptionComboIndex;
+
+    private CamelContext camelContext;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        camelContext = new DefaultCamelContext();
+        camelContext.start();
+        fetchAllCount = new AtomicInteger();
+        fetchCount = new AtomicInteger();
+        refreshCountDownLatch = new CountDownLatch( 2 );
+        categoryOptionComboIndex = new CategoryOptionComboIndex()
+        {
+            @Override
+            protected Iterable<CategoryOptionCombo> fetchAll()
+            {
+                fetchAllCount.incrementAndGet();
+                refreshCountDownLatch.countDown();
+                return List.of( new CategoryOptionCombo().withCode( "MAL-0514Y" ),
+                    new CategoryOptionCombo().withCode( "MAL-15Y" ), new CategoryOptionCombo() );
+            }
+
+            @Override
+            protected String fetch( String catOptComboCode )
+            {
+                fetchCount.incrementAndGet();
+                return Map.of( "mal-new", "MAL-NEW" ).get( catOptComboCode );
+            }
+        };
+        ReflectionTestUtils.setField( categoryOptionComboIndex, "refreshSeconds", 300L );
+        ReflectionTestUtils.setField( categoryOptionComboIndex, "camelContext", camelContext );
+        categoryOptionComboIndex.postConstruct();
+    }
+
+    @AfterEach
+    public void afterEach()
+    {
+        camelContext.stop();
+    }
+
+    @Test
+    public void testLookupIsCaseInsensitive()
+    {
+        assertEquals( "MAL-0514Y", categoryOptionComboIndex.lookup( "mal-0514y" ) );
+        assertEquals( "MAL-15Y", categoryOptionComboIndex.lookup( "Mal-15y" ) );
+
+        assertEquals( 1, fetchAllCount.get() );
+        assertEquals( 0, fetchCount.get() );
+        assertEquals( 2, categoryOptionComboIndex.getSize() );
+    }
+
+    @Test
+    public void testLookupGivenCodeMissingFromIndex()
+    {
+        assertEquals( "MAL-NEW", categoryOptionComboIndex.lookup( "mal-new" ) );
+        assertEquals( "MAL-NEW", categoryOptionComboIndex.lookup( "mal-new" ) );
+        assertNull( categoryOptionComboIndex.lookup( "mal-unknown" ) );
+        assertNull( categoryOptionComboIndex.lookup( "mal-unknown" ) );
+
+        assertEquals( 2, fetchCount.get() );
+        assertEquals( 2, categoryOptionComboIndex.getMissCount() );
+        assertEquals( 2, categoryOptionComboIndex.getHitCount() );
+    }
+
+    @Test
+    public void testLookupRefreshesStaleIndexInBackground()
+        throws
+        InterruptedException
+    {
+        ReflectionTestUtils.setField( categoryOptionComboIndex, "refreshSeconds", 0L );
+        assertEquals( "MAL-0514Y", categoryOptionComboIndex.lookup( "mal-0514y" ) );
+        Thread.sleep( 5 );
+        assertEquals( "MAL-0514Y", categoryOptionComboIndex.lookup( "mal-0514y" ) );
+
+        assertEquals( true, refreshCountDownLatch.await( 30, TimeUnit.SECONDS ) );
+        assertEquals( 0, fetchCount.get() );
+    }
+
+    @Test
+    public void testLookupGivenFailedBackgroundRefreshWaitsForNextRefreshPeriod()
+        throws
+        InterruptedException
+    {
+        AtomicInteger failingFetchAllCount = new AtomicInteger();
+        CountDownLatch failedRefreshCountDownLatch = new CountDownLatch( 1 );
+        CategoryOptionComboIndex failingCategoryOptionComboIndex = new CategoryOptionComboIndex()
+        {
+            @Override
+            protected Iterable<CategoryOptionCombo> fetchAll()
+            {
+                if ( failingFetchAllCount.incrementAndGet() == 1 )
+                {
+                    return List.of( new CategoryOptionCombo().withCode( "MAL-0514Y" ) );
+                }
+                failedRefreshCountDownLatch.countDown();
+                throw new IllegalStateException( "DHIS2 is unavailable" );
+            }
+        };
+        ReflectionTestUtils.setField( failingCategoryOptionComboIndex, "refreshSeconds", 300L );
+        ReflectionTestUtils.setField( failingCategoryOptionComboIndex, "camelContext", camelContext );
+        failingCategoryOptionComboIndex.postConstruct();
+        assertEquals( "MAL-0514Y", failingCategoryOptionComboIndex.lookup( "mal-0514y" ) );
+        ReflectionTestUtils.setField( failingCategoryOptionComboIndex, "lastRefreshMillis", 1L );
+        assertEquals( "MAL-0514Y", failingCategoryOptionComboIndex.lookup( "mal-0514y" ) );
+        assertTrue( failedRefreshCountDownLatch.await( 30, TimeUnit.SECONDS ) );
+        while ( ((AtomicBoolean) ReflectionTestUtils.getField( failingCategoryOptionComboIndex, "refreshing" )).get() )
+        {
+            Thread.sleep( 5 );
+        }
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertEquals( "MAL-0514Y", failingCategoryOptionComboIndex.lookup( "mal-0514y" ) );
+        }
+        Thread.sleep( 50 );
+        assertEquals( 2, failingFetchAllCount.get() );
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hisp.dhis.integration.rapidpro.Dhis2RapidProException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class DataSetCacheTestCase
+{
+    private AtomicInteger fetchCount;
+
+    private DataSetCache dataSetCache;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        fetchCount = new AtomicInteger();
+        dataSetCache = new DataSetCache()
+        {
+            @Override
+            protected DataSetMetadata fetch( String dataSetCode )
+            {
+                fetchCount.incrementAndGet();
+                return new DataSetMetadata( "Monthly", List.of( dataSetCode + "_DE" ) );
+            }
+        };
+        ReflectionTestUtils.setField( dataSetCache, "ttlSeconds", 600L );
+        ReflectionTestUtils.setField( dataSetCache, "maxSize", 100L );
+        dataSetCache.postConstruct();
+    }
+
+    @Test
+    public void testGetFetchesOncePerDataSetCode()
+    {
+        assertEquals( "Monthly", dataSetCache.getPeriodType( "MAL_YEARLY" ) );
+        assertEquals( List.of( "MAL_YEARLY_DE" ), dataSetCache.getDataElementCodes( "MAL_YEARLY" ) );
+        assertEquals( List.of( "MAL_MONTHLY_DE" ), dataSetCache.getDataElementCodes( "MAL_MONTHLY" ) );
+
+        assertEquals( 2, fetchCount.get() );
+        assertEquals( 1, dataSetCache.getHitCount() );
+        assertEquals( 2, dataSetCache.getMissCount() );
+    }
+
+    @Test
+    public void testGetFetchesAgainAfterInvalidateAll()
+    {
+        dataSetCache.getPeriodType( "MAL_YEARLY" );
+        dataSetCache.invalidateAll();
+        dataSetCache.getPeriodType( "MAL_YEARLY" );
+
+        assertEquals( 2, fetchCount.get() );
+    }
+
+    @Test
+    public void testGetGivenNullDataSetCode()
+    {
+        assertThrows( Dhis2RapidProException.class, () -> dataSetCache.get( null ) );
+        assertEquals( 0, fetchCount.get() );
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.expression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.SocketTimeoutException;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.integration.sdk.api.RemoteDhis2ClientException;
+import org.junit.jupiter.api.Test;
+
+public class ErrorClassExprTestCase
+{
+    private final ErrorClassExpr errorClassExpr = new ErrorClassExpr();
+
+    @Test
+    public void testEvaluateGivenNetworkError()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.setProperty( Exchange.EXCEPTION_CAUGHT,
+            new RuntimeException( new SocketTimeoutException( "Read timed out" ) ) );
+        assertEquals( ErrorClassExpr.TRANSIENT, errorClassExpr.evaluate( exchange, String.class ) );
+    }
+
+    @Test
+    public void testEvaluateGivenServerError()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.setProperty( Exchange.EXCEPTION_CAUGHT, new RuntimeException( new RemoteDhis2ClientException( "Service Unavailable", 503, "" ) ) );
+        assertEquals( ErrorClassExpr.TRANSIENT, errorClassExpr.evaluate( exchange, String.class ) );
+    }
+
+    @Test
+    public void testEvaluateGivenRateLimited()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.setProperty( Exchange.EXCEPTION_CAUGHT,
+            new RemoteDhis2ClientException( "Too Many Requests", 429, "" ) );
+        assertEquals( ErrorClassExpr.TRANSIENT, errorClassExpr.evaluate( exchange, String.class ) );
+    }
+
+    @Test
+    public void testEvaluateGivenClientError()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.setProperty( Exchange.EXCEPTION_CAUGHT, new RemoteDhis2ClientException( "Conflict", 409, "{\"status\":\"ERROR\"}" ) );
+        assertEquals( ErrorClassExpr.PERMANENT, errorClassExpr.evaluate( exchange, String.class ) );
+    }
+
+    @Test
+    public void testEvaluateGivenImportError()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setBody( Map.of( "status", "ERROR", "httpStatusCode", 409 ) );
+        assertEquals( ErrorClassExpr.PERMANENT, errorClassExpr.evaluate( exchange, String.class ) );
+    }
+
+    @Test
+    public void testEvaluateGivenServerErrorWebMessage()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setBody( Map.of( "status", "ERROR", "httpStatusCode", 500 ) );
+        assertEquals( ErrorClassExpr.TRANSIENT, errorClassExpr.evaluate( exchange, String.class ) );
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.expression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.converter.stream.InputStreamCache;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class FlowRunsPageReaderTestCase
+{
+    private final FlowRunsPageReader flowRunsPageReader = new FlowRunsPageReader();
+
+    public FlowRunsPageReaderTestCase()
+    {
+        ReflectionTestUtils.setField( flowRunsPageReader, "objectMapper", new ObjectMapper() );
+    }
+
+    @Test
+    public void testEvaluateGivenExitedAndUnfinishedRuns()
+    {
+        FlowRunsPage flowRunsPage = read( "{\"next\": \"https://rapidpro.io/api/v2/runs.json?cursor=abc\", \"previous\": null, \"results\": ["
+            + "{\"uuid\": \"a\", \"values\": {\"data_set_code\": {\"value\": \"MAL_YEARLY\"}}, \"modified_on\": \"2023-01-03T00:00:00.000Z\", \"exited_on\": \"2023-01-03T00:00:00.000Z\"},"
+            + "{\"uuid\": \"b\", \"values\": {}, \"modified_on\": \"2023-01-02T00:00:00.000Z\", \"exited_on\": null},"
+            + "{\"uuid\": \"c\", \"values\": {}, \"modified_on\": \"2023-01-01T00:00:00.000Z\", \"exited_on\": null}]}" );
+
+        List<Map<String, Object>> runs = new ArrayList<>();
+        flowRunsPage.forEachRemaining( runs::add );
+
+        assertEquals( 3, runs.size() );
+        assertEquals( "MAL_YEARLY",
+            ((Map<String, Map<String, Object>>) runs.get( 0 ).get( "values" )).get( "data_set_code" ).get( "value" ) );
+        assertEquals( "https://rapidpro.io/api/v2/runs.json?cursor=abc", flowRunsPage.getNext() );
+        assertEquals( List.of( "a" ), flowRunsPage.getExitedRunUuids() );
+        assertEquals( List.of( "b", "c" ), flowRunsPage.getUnfinishedRunUuids() );
+        assertEquals( Instant.parse( "2023-01-03T00:00:00.000Z" ), flowRunsPage.getLatestModifiedOn() );
+    }
+
+    @Test
+    public void testEvaluateGivenNextAfterResults()
+    {
+        FlowRunsPage flowRunsPage = read(
+            "{\"results\": [{\"uuid\": \"a\", \"modified_on\": \"2023-01-03T00:00:00.000Z\", \"exited_on\": \"2023-01-03T00:00:00.000Z\"}], \"next\": null}" );
+
+        assertEquals( "a", flowRunsPage.next().get( "uuid" ) );
+        assertFalse( flowRunsPage.hasNext() );
+        assertNull( flowRunsPage.getNext() );
+        assertTrue( flowRunsPage.getUnfinishedRunUuids().isEmpty() );
+    }
+
+    @Test
+    public void testEvaluateGivenNoResults()
+    {
+        FlowRunsPage flowRunsPage = read( "{\"next\": null, \"previous\": null, \"results\": []}" );
+
+        assertFalse( flowRunsPage.hasNext() );
+        assertNull( flowRunsPage.getNext() );
+        assertNull( flowRunsPage.getLatestModifiedOn() );
+    }
+
+    @Test
+    public void testEvaluateGivenStreamCache()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setBody( new InputStreamCache(
+            "{\"next\": null, \"results\": [{\"uuid\": \"a\", \"modified_on\": \"2023-01-03T00:00:00.000Z\", \"exited_on\": null}]}".getBytes(
+                StandardCharsets.UTF_8 ) ) );
+        FlowRunsPage flowRunsPage = flowRunsPageReader.evaluate( exchange, FlowRunsPage.class );
+
+        assertEquals( "a", flowRunsPage.next().get( "uuid" ) );
+        assertFalse( flowRunsPage.hasNext() );
+        assertEquals( List.of( "a" ), flowRunsPage.getUnfinishedRunUuids() );
+    }
+
+    private FlowRunsPage read( String page )
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setBody( page );
+        return flowRunsPageReader.evaluate( exchange, FlowRunsPage.class );
+    }
+}
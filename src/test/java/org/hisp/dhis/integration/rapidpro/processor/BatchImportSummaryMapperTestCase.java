@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.integration.sdk.api.RemoteDhis2ClientException;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class BatchImportSummaryMapperTestCase
+{
+    private final BatchImportSummaryMapper batchImportSummaryMapper = new BatchImportSummaryMapper();
+
+    public BatchImportSummaryMapperTestCase()
+    {
+        ReflectionTestUtils.setField( batchImportSummaryMapper, "objectMapper", new ObjectMapper() );
+    }
+
+    @Test
+    public void testProcessGivenSuccessfulImport()
+    {
+        Exchange exchange = newBatchExchange();
+        exchange.setProperty( "batchDhisResponse",
+            "{\"status\":\"OK\",\"response\":{\"status\":\"SUCCESS\",\"importCount\":{\"imported\":5,\"ignored\":0},\"conflicts\":[]}}" );
+        batchImportSummaryMapper.process( exchange );
+
+        assertEquals( Set.of(), exchange.getProperty( BatchImportSummaryMapper.CONFLICTED_REPORT_INDEXES_PROPERTY ) );
+    }
+
+    @Test
+    public void testProcessGivenConflicts()
+    {
+        Exchange exchange = newBatchExchange();
+        exchange.setProperty( "batchDhisResponse",
+            "{\"status\":\"WARNING\",\"response\":{\"status\":\"WARNING\",\"importCount\":{\"imported\":3,\"ignored\":2},\"conflicts\":[{\"object\":\"tpz77FcntKx\",\"value\":\"Value must be a number\",\"indexes\":[2,3]}]}}" );
+        batchImportSummaryMapper.process( exchange );
+
+        assertEquals( Set.of( 1 ), exchange.getProperty( BatchImportSummaryMapper.CONFLICTED_REPORT_INDEXES_PROPERTY ) );
+    }
+
+    @Test
+    public void testProcessGivenConflictWithoutIndexes()
+    {
+        Exchange exchange = newBatchExchange();
+        exchange.setProperty( "batchDhisResponse",
+            "{\"status\":\"WARNING\",\"importCount\":{\"imported\":4,\"ignored\":1},\"conflicts\":[{\"object\":\"tpz77FcntKx\",\"value\":\"Value must be a number\"}]}" );
+        batchImportSummaryMapper.process( exchange );
+
+        assertEquals( Set.of( 0, 1, 2 ),
+            exchange.getProperty( BatchImportSummaryMapper.CONFLICTED_REPORT_INDEXES_PROPERTY ) );
+    }
+
+    @Test
+    public void testProcessGivenIgnoredDataValuesWithoutConflicts()
+    {
+        Exchange exchange = newBatchExchange();
+        exchange.setProperty( "batchDhisResponse",
+            "{\"status\":\"SUCCESS\",\"importCount\":{\"imported\":4,\"ignored\":1},\"conflicts\":[]}" );
+        batchImportSummaryMapper.process( exchange );
+
+        assertEquals( Set.of( 0, 1, 2 ),
+            exchange.getProperty( BatchImportSummaryMapper.CONFLICTED_REPORT_INDEXES_PROPERTY ) );
+    }
+
+    @Test
+    public void testProcessGivenRemoteDhis2ClientException()
+    {
+        Exchange exchange = newBatchExchange();
+        exchange.setProperty( Exchange.EXCEPTION_CAUGHT, new RemoteDhis2ClientException( "Conflict", 409,
+            "{\"status\":\"WARNING\",\"response\":{\"status\":\"WARNING\",\"importCount\":{\"imported\":4,\"ignored\":1},\"conflicts\":[{\"object\":\"tpz77FcntKx\",\"value\":\"Value must be a number\",\"indexes\":[4]}]}}" ) );
+        batchImportSummaryMapper.process( exchange );
+
+        assertEquals( Set.of( 2 ), exchange.getProperty( BatchImportSummaryMapper.CONFLICTED_REPORT_INDEXES_PROPERTY ) );
+    }
+
+    @Test
+    public void testProcessGivenErrorStatus()
+    {
+        Exchange exchange = newBatchExchange();
+        exchange.setProperty( Exchange.EXCEPTION_CAUGHT,
+            new RemoteDhis2ClientException( "Conflict", 409, "{\"status\":\"ERROR\"}" ) );
+        batchImportSummaryMapper.process( exchange );
+
+        assertEquals( Set.of( 0, 1, 2 ),
+            exchange.getProperty( BatchImportSummaryMapper.CONFLICTED_REPORT_INDEXES_PROPERTY ) );
+    }
+
+    private Exchange newBatchExchange()
+    {
+        DefaultCamelContext camelContext = new DefaultCamelContext();
+        Exchange exchange = new DefaultExchange( camelContext );
+        exchange.setProperty( "batchedReports", List.of( new DefaultExchange( camelContext ),
+            new DefaultExchange( camelContext ), new DefaultExchange( camelContext ) ) );
+        exchange.setProperty( DataValueSetMerger.BATCHED_REPORT_OFFSETS_PROPERTY, List.of( 0, 2, 4 ) );
+        return exchange;
+    }
+}
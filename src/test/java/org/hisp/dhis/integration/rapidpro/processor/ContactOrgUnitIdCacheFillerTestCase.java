@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.integration.rapidpro.cache.ContactOrgUnitIdCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ContactOrgUnitIdCacheFillerTestCase
+{
+    @Test
+    public void testProcess()
+        throws
+        Exception
+    {
+        ContactOrgUnitIdCache contactOrgUnitIdCache = new ContactOrgUnitIdCache();
+        ReflectionTestUtils.setField( contactOrgUnitIdCache, "ttlSeconds", 3600L );
+        ReflectionTestUtils.setField( contactOrgUnitIdCache, "maxSize", 100L );
+        contactOrgUnitIdCache.postConstruct();
+        contactOrgUnitIdCache.put( "c2", "stale" );
+
+        ContactOrgUnitIdCacheFiller contactOrgUnitIdCacheFiller = new ContactOrgUnitIdCacheFiller();
+        ReflectionTestUtils.setField( contactOrgUnitIdCacheFiller, "contactOrgUnitIdCache", contactOrgUnitIdCache );
+
+        Map<String, Object> contactWithoutOrgUnit = new HashMap<>();
+        contactWithoutOrgUnit.put( "dhis2_organisation_unit_id", null );
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setBody( Map.of( "results",
+            List.of( Map.of( "uuid", "c1", "fields", Map.of( "dhis2_organisation_unit_id", "fdc6uOvgoji" ) ),
+                Map.of( "uuid", "c2", "fields", contactWithoutOrgUnit ) ) ) );
+        contactOrgUnitIdCacheFiller.process( exchange );
+
+        assertEquals( "fdc6uOvgoji", contactOrgUnitIdCache.get( "c1" ) );
+        assertNull( contactOrgUnitIdCache.get( "c2" ) );
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class EventStatusUpdateMergerTestCase
+{
+    private final EventStatusUpdateMerger eventStatusUpdateMerger = new EventStatusUpdateMerger();
+
+    public EventStatusUpdateMergerTestCase()
+    {
+        ReflectionTestUtils.setField( eventStatusUpdateMerger, "objectMapper", new ObjectMapper() );
+    }
+
+    @Test
+    public void testProcess()
+        throws
+        Exception
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setBody( List.of(
+            Map.of( "id", 1, "event_id", "Ab1cDeF2GhI", "payload",
+                "{\"events\": [{\"event\": \"Ab1cDeF2GhI\", \"status\": \"ACTIVE\"}]}" ),
+            Map.of( "id", 2, "event_id", "Jk3lMnO4PqR", "payload",
+                "{\"events\": [{\"event\": \"Jk3lMnO4PqR\", \"status\": \"ACTIVE\"}]}" ) ) );
+        eventStatusUpdateMerger.process( exchange );
+
+        List<Map<String, Object>> events = (List<Map<String, Object>>) exchange.getMessage().getBody( Map.class )
+            .get( "events" );
+        assertEquals( 2, events.size() );
+        assertEquals( "Ab1cDeF2GhI", events.get( 0 ).get( "event" ) );
+        assertEquals( "Jk3lMnO4PqR", events.get( 1 ).get( "event" ) );
+        assertEquals( Map.of( "async", "false", "importStrategy", "UPDATE" ),
+            exchange.getMessage().getHeader( "CamelDhis2.queryParams" ) );
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class FlowRunFingerprintSetterTestCase
+{
+    private final FlowRunFingerprintSetter flowRunFingerprintSetter = new FlowRunFingerprintSetter();
+
+    public FlowRunFingerprintSetterTestCase()
+    {
+        ReflectionTestUtils.setField( flowRunFingerprintSetter, "objectMapper", new ObjectMapper() );
+    }
+
+    @Test
+    public void testProcessGivenFlowRunAndWebhookMessageOfSameRun()
+    {
+        Exchange flowRunExchange = new DefaultExchange( new DefaultCamelContext() );
+        flowRunExchange.getMessage().setBody( Map.of( "uuid", "3e9137ee-574c-4d3e-8ac8-9103788b91ac", "values",
+            Map.of( "data_set_code", Map.of( "name", "Data Set Code", "value", "MAL_YEARLY", "category", "Has Text" ),
+                "gen_ext_fund", Map.of( "name", "Gen Ext Fund", "value", "2", "category", "Has Text" ) ) ) );
+        flowRunFingerprintSetter.process( flowRunExchange );
+
+        Exchange webhookExchange = new DefaultExchange( new DefaultCamelContext() );
+        webhookExchange.getMessage().setBody(
+            "{\"run\": {\"uuid\": \"3e9137ee-574c-4d3e-8ac8-9103788b91ac\"}, \"results\": {\"gen_ext_fund\": {\"value\": \"2\"}, \"data_set_code\": {\"value\": \"MAL_YEARLY\"}}}" );
+        flowRunFingerprintSetter.process( webhookExchange );
+
+        String fingerprint = flowRunExchange.getMessage().getHeader( "flowRunFingerprint", String.class );
+        assertTrue( fingerprint.startsWith( "3e9137ee-574c-4d3e-8ac8-9103788b91ac:" ) );
+        assertEquals( fingerprint, webhookExchange.getMessage().getHeader( "flowRunFingerprint" ) );
+    }
+
+    @Test
+    public void testProcessGivenDifferentResults()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setBody( Map.of( "uuid", "3e9137ee", "values",
+            Map.of( "gen_ext_fund", Map.of( "value", "2" ) ) ) );
+        flowRunFingerprintSetter.process( exchange );
+
+        Exchange otherExchange = new DefaultExchange( new DefaultCamelContext() );
+        otherExchange.getMessage().setBody( Map.of( "uuid", "3e9137ee", "values",
+            Map.of( "gen_ext_fund", Map.of( "value", "3" ) ) ) );
+        flowRunFingerprintSetter.process( otherExchange );
+
+        assertNotEquals( exchange.getMessage().getHeader( "flowRunFingerprint" ),
+            otherExchange.getMessage().getHeader( "flowRunFingerprint" ) );
+    }
+
+    @Test
+    public void testProcessGivenWebhookMessageWithoutRun()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setHeader( "flowRunFingerprint", "foo" );
+        exchange.getMessage().setBody( "{\"contact\": {\"uuid\": \"8a1d6ecd\"}, \"results\": {}}" );
+        flowRunFingerprintSetter.process( exchange );
+
+        assertNull( exchange.getMessage().getHeader( "flowRunFingerprint" ) );
+    }
+}
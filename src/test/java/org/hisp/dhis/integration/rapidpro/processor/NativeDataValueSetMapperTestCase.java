@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.ValueBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.model.language.DatasonnetExpression;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.api.model.v40_0.CategoryOptionCombo;
+import org.hisp.dhis.integration.rapidpro.NativeDataSonnetLibrary;
+import org.hisp.dhis.integration.rapidpro.cache.CategoryOptionComboIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class NativeDataValueSetMapperTestCase
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final List<String> DATA_ELEMENT_CODES = List.of( "GEN_EXT_FUND", "MAL_POP_TOTAL",
+        "MAL_LLIN_DISTR_PW", "GEN_DOMESTIC FUND", "MAL_LLIN_DISTR_NB", "MAL-PEOPLE-PROT-BY-IRS", "MAL_POP_AT_RISK",
+        "GEN_PREG_EXPECT", "GEN_FUND_NEED" );
+
+    private CamelContext camelContext;
+
+    private DatasonnetExpression dsExpression;
+
+    private NativeDataValueSetMapper nativeDataValueSetMapper;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        CategoryOptionComboIndex categoryOptionComboIndex = new CategoryOptionComboIndex()
+        {
+            @Override
+            protected Iterable<CategoryOptionCombo> fetchAll()
+            {
+                return List.of( new CategoryOptionCombo().withCode( "MAL-0514Y" ) );
+            }
+
+            @Override
+            protected String fetch( String catOptComboCode )
+            {
+                return null;
+            }
+        };
+        ReflectionTestUtils.setField( categoryOptionComboIndex, "refreshSeconds", 300L );
+
+        NativeDataSonnetLibrary nativeDataSonnetLibrary = new NativeDataSonnetLibrary();
+        ReflectionTestUtils.setField( nativeDataSonnetLibrary, "categoryOptionComboIndex",
+            categoryOptionComboIndex );
+        camelContext = new DefaultCamelContext();
+        camelContext.getRegistry().bind( "native", nativeDataSonnetLibrary );
+
+        dsExpression = new DatasonnetExpression( "resource:classpath:dataValueSet.ds" );
+        dsExpression.setResultType( Map.class );
+        dsExpression.setBodyMediaType( "application/x-java-object" );
+        dsExpression.setOutputMediaType( "application/x-java-object" );
+
+        nativeDataValueSetMapper = new NativeDataValueSetMapper();
+        ReflectionTestUtils.setField( nativeDataValueSetMapper, "categoryOptionComboIndex",
+            categoryOptionComboIndex );
+    }
+
+    @Test
+    public void testProcessGivenWebhookPayload()
+        throws
+        IOException
+    {
+        Map<String, Object> payload = OBJECT_MAPPER.readValue( String.format( StreamUtils.copyToString(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream( "webhook.json" ),
+            Charset.defaultCharset() ), "d9a9a8ea-4a4b-4f2a-8d6c-bbbb0ad6b2ba" ), Map.class );
+
+        assertSameOutput( payload );
+    }
+
+    @Test
+    public void testProcessGivenNamedResultsAndUnknownCatOptCombo()
+        throws
+        IOException
+    {
+        Map<String, Object> contact = new LinkedHashMap<>();
+        contact.put( "uuid", "d9a9a8ea-4a4b-4f2a-8d6c-bbbb0ad6b2ba" );
+        contact.put( "name", "John \"Quoted\" Doe\\" );
+        contact.put( "urn", "tel:+12065551212" );
+        contact.put( "fields", Map.of( "age", 42, "tags", List.of( "a", "b" ), "empty", List.of() ) );
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put( "gen_domestic_fund", Map.of( "value", "5", "name", "GEN_DOMESTIC_FUND" ) );
+        results.put( "mal_pop_total__mal-unknown", Map.of( "value", "10" ) );
+        results.put( "mal_pop_total__MAL-0514Y", Map.of( "value", "11" ) );
+        results.put( "unknown", Map.of( "value", "12" ) );
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put( "contact", contact );
+        payload.put( "results", results );
+
+        assertSameOutput( payload );
+    }
+
+    private void assertSameOutput( Map<String, Object> payload )
+        throws
+        IOException
+    {
+        Exchange dataSonnetExchange = newExchange( payload );
+        Map<String, Object> dataSonnetDataValueSet = new ValueBuilder( dsExpression ).evaluate( dataSonnetExchange,
+            Map.class );
+
+        Exchange nativeExchange = newExchange( payload );
+        nativeDataValueSetMapper.process( nativeExchange );
+
+        assertEquals( OBJECT_MAPPER.writeValueAsString( dataSonnetDataValueSet ),
+            OBJECT_MAPPER.writeValueAsString( nativeExchange.getMessage().getBody() ) );
+    }
+
+    private Exchange newExchange( Map<String, Object> payload )
+    {
+        Exchange exchange = new DefaultExchange( camelContext );
+        exchange.getMessage().setHeader( "orgUnitId", "fdc6uOvgoji" );
+        exchange.getMessage().setHeader( "dataElementCodes", DATA_ELEMENT_CODES );
+        exchange.getMessage().setHeader( "period", "2023W1" );
+        exchange.getMessage().setHeader( "dataSetCode", "MAL_YEARLY" );
+        exchange.getMessage().setBody( payload );
+        return exchange;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.integration.rapidpro.expression.ErrorClassExpr;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class NextAttemptCalculatorTestCase
+{
+    private final NextAttemptCalculator nextAttemptCalculator = new NextAttemptCalculator();
+
+    public NextAttemptCalculatorTestCase()
+    {
+        ReflectionTestUtils.setField( nextAttemptCalculator, "maxAttempts", 5 );
+        ReflectionTestUtils.setField( nextAttemptCalculator, "initialBackoffSeconds", 60L );
+        ReflectionTestUtils.setField( nextAttemptCalculator, "maxBackoffSeconds", 600L );
+    }
+
+    @Test
+    public void testProcessGivenTransientErrorOnFirstAttempt()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setHeader( "errorClass", ErrorClassExpr.TRANSIENT );
+        Instant before = Instant.now();
+        nextAttemptCalculator.process( exchange );
+
+        assertEquals( 1, exchange.getMessage().getHeader( "attemptCount" ) );
+        Instant nextAttemptAt = exchange.getMessage().getHeader( "nextAttemptAt", Timestamp.class ).toInstant();
+        assertTrue( !nextAttemptAt.isBefore( before.plusSeconds( 60 ) ) );
+        assertTrue( !nextAttemptAt.isAfter( Instant.now().plusSeconds( 66 ) ) );
+    }
+
+    @Test
+    public void testProcessGivenTransientErrorOnLastAttempt()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setHeader( "errorClass", ErrorClassExpr.TRANSIENT );
+        exchange.getMessage().setHeader( "attemptCount", "4" );
+        nextAttemptCalculator.process( exchange );
+
+        assertEquals( 5, exchange.getMessage().getHeader( "attemptCount" ) );
+        assertNull( exchange.getMessage().getHeader( "nextAttemptAt" ) );
+    }
+
+    @Test
+    public void testProcessGivenPermanentError()
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setHeader( "errorClass", ErrorClassExpr.PERMANENT );
+        nextAttemptCalculator.process( exchange );
+
+        assertEquals( 1, exchange.getMessage().getHeader( "attemptCount" ) );
+        assertNull( exchange.getMessage().getHeader( "nextAttemptAt" ) );
+    }
+
+    @Test
+    public void testGetBackoffSeconds()
+    {
+        assertEquals( 60, nextAttemptCalculator.getBackoffSeconds( 1 ) );
+        assertEquals( 120, nextAttemptCalculator.getBackoffSeconds( 2 ) );
+        assertEquals( 480, nextAttemptCalculator.getBackoffSeconds( 4 ) );
+        assertEquals( 600, nextAttemptCalculator.getBackoffSeconds( 5 ) );
+        assertEquals( 600, nextAttemptCalculator.getBackoffSeconds( 100 ) );
+    }
+}
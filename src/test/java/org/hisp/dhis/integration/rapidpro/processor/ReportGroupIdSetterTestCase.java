@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ReportGroupIdSetterTestCase
+{
+    private final ReportGroupIdSetter reportGroupIdSetter = new ReportGroupIdSetter();
+
+    public ReportGroupIdSetterTestCase()
+    {
+        ReflectionTestUtils.setField( reportGroupIdSetter, "objectMapper", new ObjectMapper() );
+    }
+
+    @Test
+    public void testProcessGivenOrgUnitId()
+        throws
+        Exception
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setHeader( "dataSetCode", "MAL_YEARLY" );
+        exchange.getMessage().setHeader( "orgUnitId", "fdc6uOvgoji" );
+        exchange.getMessage().setHeader( "reportPeriodOffset", 0 );
+        exchange.getMessage().setBody( "{\"contact\": {\"uuid\": \"8a1d6ecd\"}}" );
+        reportGroupIdSetter.process( exchange );
+
+        assertEquals( "MAL_YEARLY:fdc6uOvgoji:0", exchange.getMessage().getHeader( "JMSXGroupID" ) );
+    }
+
+    @Test
+    public void testProcessGivenNoOrgUnitId()
+        throws
+        Exception
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.getMessage().setHeader( "dataSetCode", "MAL_YEARLY" );
+        exchange.getMessage().setBody( "{\"contact\": {\"uuid\": \"8a1d6ecd\"}}" );
+        reportGroupIdSetter.process( exchange );
+
+        assertEquals( "MAL_YEARLY:8a1d6ecd:-1", exchange.getMessage().getHeader( "JMSXGroupID" ) );
+    }
+}
@@ -27,8 +27,11 @@
  */
 package org.hisp.dhis.integration.rapidpro.route;
 
+import static org.apache.camel.builder.Builder.constant;
 import static org.hisp.dhis.integration.rapidpro.Environment.DHIS_IMAGE_NAME;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -52,10 +55,17 @@ import org.hisp.dhis.api.model.v40_0.DataValueSet;
 import org.hisp.dhis.api.model.v40_0.WebMessage;
 import org.hisp.dhis.integration.rapidpro.AbstractFunctionalTestCase;
 import org.hisp.dhis.integration.rapidpro.Environment;
+import org.hisp.dhis.integration.rapidpro.NodeIdSupplier;
+import org.hisp.dhis.integration.rapidpro.aggregationStrategy.ReportBatchAggrStrategy;
+import org.hisp.dhis.integration.rapidpro.processor.NextAttemptCalculator;
+import org.hisp.dhis.integration.rapidpro.processor.ReportBatchConsumer;
+import org.hisp.dhis.integration.sdk.api.RemoteDhis2ClientException;
 import org.hisp.dhis.integration.sdk.support.period.PeriodBuilder;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.util.StreamUtils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -65,6 +75,24 @@ public class DeliverReportRouteBuilderFunctionalTestCase extends AbstractFunctio
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private ReportBatchConsumer reportBatchConsumer;
+
+    @Autowired
+    private ReportBatchAggrStrategy reportBatchAggrStrategy;
+
+    @Autowired
+    private NodeIdSupplier nodeIdSupplier;
+
+    @Autowired
+    private NextAttemptCalculator nextAttemptCalculator;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private org.springframework.core.env.Environment environment;
+
     @Test
     public void testDataValueSetIsCreated()
         throws
@@ -120,6 +148,187 @@ public class DeliverReportRouteBuilderFunctionalTestCase extends AbstractFunctio
             ((Map) objectMapper.readValue( rapidProPayload, Map.class ).get( "contact" )).get( "name" ) );
     }
 
+    @Test
+    public void testDataValueSetsAreBatched()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        System.setProperty( "report.delivery.batch.size", "2" );
+        ReflectionTestUtils.setField( reportBatchConsumer, "batchSize", 2 );
+        ReflectionTestUtils.setField( reportBatchAggrStrategy, "batchSize", 2 );
+        AdviceWith.adviceWith( camelContext, "Transmit Report Batch", r -> r.weaveAddLast().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+        spyEndpoint.setExpectedCount( 1 );
+
+        camelContext.start();
+        String contactUuid = syncContactsAndFetchFirstContactUuid();
+
+        String webhookMessage = StreamUtils.copyToString(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream( "webhook.json" ),
+            Charset.defaultCharset() );
+        for ( int i = 0; i < 2; i++ )
+        {
+            producerTemplate.sendBodyAndHeaders( "jms:queue:dhis2AggregateReports",
+                ExchangePattern.InOnly, String.format( webhookMessage, contactUuid ),
+                Map.of( "dataSetCode", "MAL_YEARLY" ) );
+        }
+
+        spyEndpoint.await( 30, TimeUnit.SECONDS );
+        spyEndpoint.assertIsSatisfied();
+
+        List<Map<String, Object>> successLog = jdbcTemplate.queryForList( "SELECT * FROM REPORT_SUCCESS_LOG" );
+        assertEquals( 2, successLog.size() );
+        for ( Map<String, Object> successLogRow : successLog )
+        {
+            assertEquals( "MAL_YEARLY",
+                objectMapper.readValue( (String) successLogRow.get( "DHIS_REQUEST" ), Map.class ).get( "dataSet" ) );
+        }
+        assertEquals( 0, jdbcTemplate.queryForList( "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL" ).size() );
+    }
+
+    @Test
+    public void testDataSetRegistrationsAreBatched()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        System.setProperty( "report.registration.batch.size", "2" );
+        AdviceWith.adviceWith( camelContext, "Register Data Set Completion Batch",
+            r -> r.weaveAddLast().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+        spyEndpoint.setExpectedCount( 1 );
+
+        camelContext.start();
+        String contactUuid = syncContactsAndFetchFirstContactUuid();
+
+        String webhookMessage = StreamUtils.copyToString(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream( "webhook.json" ),
+            Charset.defaultCharset() );
+        for ( int i = 0; i < 2; i++ )
+        {
+            producerTemplate.sendBodyAndHeaders( "jms:queue:dhis2AggregateReports",
+                ExchangePattern.InOnly, String.format( webhookMessage, contactUuid ),
+                Map.of( "dataSetCode", "MAL_YEARLY" ) );
+        }
+
+        spyEndpoint.await( 30, TimeUnit.SECONDS );
+        spyEndpoint.assertIsSatisfied();
+
+        assertEquals( 2, jdbcTemplate.queryForList( "SELECT * FROM REPORT_SUCCESS_LOG" ).size() );
+        assertEquals( 0, jdbcTemplate.queryForList( "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL" ).size() );
+    }
+
+    @Test
+    public void testDataSetIsCompletedWithinImportGivenImportCompletionMode()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        System.setProperty( "report.completion.mode", "IMPORT" );
+        AdviceWith.adviceWith( camelContext, "Transmit Report", r -> {
+            r.weaveByToUri( "direct:completeDataSetRegistration" ).replace().to( "mock:registration" );
+            r.weaveAddLast().to( "mock:spy" );
+        } );
+        MockEndpoint registrationEndpoint = camelContext.getEndpoint( "mock:registration", MockEndpoint.class );
+        registrationEndpoint.setExpectedCount( 0 );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+        spyEndpoint.setExpectedCount( 1 );
+
+        camelContext.start();
+        String contactUuid = syncContactsAndFetchFirstContactUuid();
+
+        String webhookMessage = StreamUtils.copyToString(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream( "webhook.json" ),
+            Charset.defaultCharset() );
+        producerTemplate.sendBodyAndHeaders( "jms:queue:dhis2AggregateReports",
+            ExchangePattern.InOnly, String.format( webhookMessage, contactUuid ),
+            Map.of( "dataSetCode", "MAL_YEARLY" ) );
+
+        spyEndpoint.await( 30, TimeUnit.SECONDS );
+        spyEndpoint.assertIsSatisfied();
+        registrationEndpoint.assertIsSatisfied();
+
+        Map<String, Object> successLogRow = jdbcTemplate.queryForList( "SELECT * FROM REPORT_SUCCESS_LOG" ).get( 0 );
+        assertTrue( objectMapper.readValue( (String) successLogRow.get( "DHIS_REQUEST" ), Map.class )
+            .containsKey( "completeDate" ) );
+    }
+
+    @Test
+    public void testDataValueSetIsImportedAsynchronouslyGivenAsyncImportMode()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        System.setProperty( "report.import.mode", "ASYNC" );
+        AdviceWith.adviceWith( camelContext, "Complete Report Import Job", r -> r.weaveAddLast().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+        spyEndpoint.setExpectedCount( 1 );
+
+        camelContext.start();
+        String contactUuid = syncContactsAndFetchFirstContactUuid();
+
+        String webhookMessage = StreamUtils.copyToString(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream( "webhook.json" ),
+            Charset.defaultCharset() );
+        producerTemplate.sendBodyAndHeaders( "jms:queue:dhis2AggregateReports",
+            ExchangePattern.InOnly, String.format( webhookMessage, contactUuid ),
+            Map.of( "dataSetCode", "MAL_YEARLY" ) );
+
+        spyEndpoint.await( 60, TimeUnit.SECONDS );
+        spyEndpoint.assertIsSatisfied();
+
+        assertEquals( 0, jdbcTemplate.queryForList( "SELECT * FROM REPORT_IMPORT_JOB" ).size() );
+        assertEquals( 0, jdbcTemplate.queryForList( "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL" ).size() );
+        assertEquals( 1, jdbcTemplate.queryForList( "SELECT * FROM REPORT_SUCCESS_LOG" ).size() );
+
+        DataValueSet dataValueSet = Environment.DHIS2_CLIENT.get(
+                "dataValueSets" ).withParameter( "orgUnit", Environment.ORG_UNIT_ID )
+            .withParameter( "period", PeriodBuilder.yearOf( new Date(), -1 ) ).withParameter( "dataSet", "qNtxTrp56wV" )
+            .transfer()
+            .returnAs( DataValueSet.class );
+
+        Optional<DataValue> dataValue = dataValueSet.getDataValues().get().stream()
+            .filter( v -> v.getDataElement().get().equals( "tpz77FcntKx" ) ).findFirst();
+
+        assertEquals( "2", dataValue.get().getValue().get() );
+    }
+
+    @Test
+    public void testReportImportJobsAreNotPolledGivenSyncImportMode()
+        throws
+        Exception
+    {
+        camelContext.start();
+        assertNull( camelContext.getRoute( "Poll Report Import Jobs" ) );
+    }
+
+    @Test
+    public void testTimedOutReportImportJobKeepsAttemptCount()
+        throws
+        Exception
+    {
+        System.setProperty( "report.import.mode", "ASYNC" );
+        AdviceWith.adviceWith( camelContext, "Poll Report Import Jobs",
+            r -> r.weaveByToUri( "dhis2://get/resource?path=system/tasks/*" ).replace().setBody( constant( "[]" ) ) );
+        jdbcTemplate.update(
+            "INSERT INTO REPORT_IMPORT_JOB (job_id, payload, dhis_request, data_set_code, report_period_offset, period, attempt_count, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+            "abc123", "{}", "{}", "MAL_YEARLY", -1, "2022", 2, Timestamp.from( Instant.parse( "2000-01-01T00:00:00Z" ) ) );
+
+        camelContext.start();
+
+        List<Map<String, Object>> deadLetterChannel = jdbcTemplate.queryForList(
+            "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL" );
+        for ( int i = 0; i < 60 && deadLetterChannel.isEmpty(); i++ )
+        {
+            Thread.sleep( 1000 );
+            deadLetterChannel = jdbcTemplate.queryForList( "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL" );
+        }
+        assertEquals( 1, deadLetterChannel.size() );
+        assertEquals( 3, deadLetterChannel.get( 0 ).get( "attempt_count" ) );
+        assertEquals( 0, jdbcTemplate.queryForList( "SELECT * FROM REPORT_IMPORT_JOB" ).size() );
+    }
+
     @Test
     public void testRecordInDeadLetterChannelIsCreatedGivenWebMessageErrorWhileCreatingDataValueSet()
         throws
@@ -212,6 +421,37 @@ public class DeliverReportRouteBuilderFunctionalTestCase extends AbstractFunctio
         assertEquals( 1, spyEndpoint.getReceivedCounter() );
     }
 
+    @Test
+    public void testScheduledReportDeliveryDrainsQueue()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        System.setProperty( "report.delivery.schedule.expression", "0 0/1 * * * ?" );
+        AdviceWith.adviceWith( camelContext, "Transmit Report", r -> r.weaveAddLast().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+        spyEndpoint.setExpectedCount( 3 );
+
+        camelContext.start();
+        camelContext.getRouteController().stopRoute( "Schedule Report Delivery" );
+
+        String contactUuid = syncContactsAndFetchFirstContactUuid();
+        String webhookMessage = StreamUtils.copyToString(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream( "webhook.json" ),
+            Charset.defaultCharset() );
+        for ( int i = 0; i < 3; i++ )
+        {
+            producerTemplate.sendBodyAndHeaders( "jms:queue:dhis2AggregateReports?exchangePattern=InOnly",
+                String.format( webhookMessage, contactUuid ), Map.of( "dataSetCode", "MAL_YEARLY" ) );
+        }
+
+        camelContext.getRouteController().startRoute( "Schedule Report Delivery" );
+
+        spyEndpoint.await( 2, TimeUnit.MINUTES );
+        assertEquals( 3, spyEndpoint.getReceivedCounter() );
+        assertEquals( 3, jdbcTemplate.queryForList( "SELECT * FROM REPORT_SUCCESS_LOG" ).size() );
+    }
+
     @Test
     public void testRecordInDeadLetterChannelIsCreatedGivenErrorWhileCreatingDataValueSet()
         throws
@@ -298,6 +538,130 @@ public class DeliverReportRouteBuilderFunctionalTestCase extends AbstractFunctio
         assertTrue( lastProcessedAsInstant.isAfter( createdAtAsInstant ) );
     }
 
+    @Test
+    @Timeout( value = 5, unit = TimeUnit.MINUTES )
+    public void testTransientFailureIsReProcessedOnlyOnceNextAttemptIsDue()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        System.setProperty( "report.retry.sweep.period", "1000" );
+        ReflectionTestUtils.setField( nextAttemptCalculator, "initialBackoffSeconds", 20L );
+        failDataValueSetImports( 503 );
+
+        camelContext.start();
+        sendReport( syncContactsAndFetchFirstContactUuid() );
+
+        List<Map<String, Object>> deadLetterChannel = jdbcTemplate.queryForList(
+            "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL ORDER BY id" );
+        assertEquals( 1, deadLetterChannel.size() );
+        assertEquals( "ERROR", deadLetterChannel.get( 0 ).get( "STATUS" ) );
+        assertEquals( "TRANSIENT", deadLetterChannel.get( 0 ).get( "ERROR_CLASS" ) );
+        assertNotNull( deadLetterChannel.get( 0 ).get( "NEXT_ATTEMPT_AT" ) );
+        Instant nextAttemptAt = toInstant( deadLetterChannel.get( 0 ).get( "NEXT_ATTEMPT_AT" ) );
+
+        Thread.sleep( 5000 );
+        deadLetterChannel = jdbcTemplate.queryForList( "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL ORDER BY id" );
+        assertEquals( 1, deadLetterChannel.size() );
+        assertEquals( "ERROR", deadLetterChannel.get( 0 ).get( "STATUS" ) );
+
+        deadLetterChannel = awaitRecords( 2 );
+        assertEquals( "PROCESSED", deadLetterChannel.get( 0 ).get( "STATUS" ) );
+        assertFalse( toInstant( deadLetterChannel.get( 0 ).get( "LAST_PROCESSED_AT" ) ).isBefore(
+            nextAttemptAt.minusSeconds( 1 ) ) );
+        assertEquals( "ERROR", deadLetterChannel.get( 1 ).get( "STATUS" ) );
+        assertEquals( 2, deadLetterChannel.get( 1 ).get( "ATTEMPT_COUNT" ) );
+    }
+
+    @Test
+    @Timeout( value = 5, unit = TimeUnit.MINUTES )
+    public void testPermanentFailureIsNeverReProcessed()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        System.setProperty( "report.retry.sweep.period", "1000" );
+        failDataValueSetImports( 409 );
+
+        camelContext.start();
+        sendReport( syncContactsAndFetchFirstContactUuid() );
+
+        List<Map<String, Object>> deadLetterChannel = jdbcTemplate.queryForList(
+            "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL" );
+        assertEquals( 1, deadLetterChannel.size() );
+        assertEquals( "PERMANENT", deadLetterChannel.get( 0 ).get( "ERROR_CLASS" ) );
+        assertNull( deadLetterChannel.get( 0 ).get( "NEXT_ATTEMPT_AT" ) );
+
+        Thread.sleep( 10000 );
+        deadLetterChannel = jdbcTemplate.queryForList( "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL" );
+        assertEquals( 1, deadLetterChannel.size() );
+        assertEquals( "ERROR", deadLetterChannel.get( 0 ).get( "STATUS" ) );
+        assertEquals( 1, deadLetterChannel.get( 0 ).get( "ATTEMPT_COUNT" ) );
+    }
+
+    @Test
+    @Timeout( value = 5, unit = TimeUnit.MINUTES )
+    public void testAttemptCountStopsAtMaxAttempts()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        System.setProperty( "report.retry.sweep.period", "1000" );
+        ReflectionTestUtils.setField( nextAttemptCalculator, "maxAttempts", 2 );
+        ReflectionTestUtils.setField( nextAttemptCalculator, "initialBackoffSeconds", 1L );
+        failDataValueSetImports( 503 );
+
+        camelContext.start();
+        sendReport( syncContactsAndFetchFirstContactUuid() );
+
+        List<Map<String, Object>> deadLetterChannel = awaitRecords( 2 );
+        assertEquals( 2, deadLetterChannel.get( 1 ).get( "ATTEMPT_COUNT" ) );
+        assertNull( deadLetterChannel.get( 1 ).get( "NEXT_ATTEMPT_AT" ) );
+
+        Thread.sleep( 10000 );
+        deadLetterChannel = jdbcTemplate.queryForList( "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL ORDER BY id" );
+        assertEquals( 2, deadLetterChannel.size() );
+        assertEquals( "ERROR", deadLetterChannel.get( 1 ).get( "STATUS" ) );
+    }
+
+    @Test
+    @Timeout( value = 5, unit = TimeUnit.MINUTES )
+    public void testRetryRecordLeasedByAnotherNodeIsNotReProcessedUntilLeaseExpires()
+        throws
+        Exception
+    {
+        System.setProperty( "report.retry.sweep.period", "1000" );
+        insertRetryRecord( "leased", "other-node", Instant.now().plusSeconds( 30 ) );
+        insertRetryRecord( "lease expired", "other-node", Instant.now().minusSeconds( 3600 ) );
+
+        camelContext.start();
+
+        Map<String, Object> expiredLeaseRecord = awaitProcessedRecord( "lease expired" );
+        assertEquals( nodeIdSupplier.get(), expiredLeaseRecord.get( "CLAIMED_BY" ) );
+        Map<String, Object> leasedRecord = findRecord( "leased" );
+        assertEquals( "RETRY", leasedRecord.get( "STATUS" ) );
+        assertEquals( "other-node", leasedRecord.get( "CLAIMED_BY" ) );
+
+        leasedRecord = awaitProcessedRecord( "leased" );
+        assertEquals( nodeIdSupplier.get(), leasedRecord.get( "CLAIMED_BY" ) );
+    }
+
+    @Test
+    public void testProcessedUpdateSkipsRecordClaimedByAnotherNode()
+    {
+        insertRetryRecord( "claimed by other node", "other-node", Instant.now().plusSeconds( 300 ) );
+        insertRetryRecord( "claimed by this node", nodeIdSupplier.get(), Instant.now().plusSeconds( 300 ) );
+
+        int updateCount = namedParameterJdbcTemplate.update( environment.getRequiredProperty(
+                "report.processed.dlc.update." + environment.getRequiredProperty( "spring.sql.init.platform" ) ),
+            Map.of( "ids", List.of( findRecord( "claimed by other node" ).get( "ID" ),
+                findRecord( "claimed by this node" ).get( "ID" ) ), "nodeId", nodeIdSupplier.get() ) );
+
+        assertEquals( 1, updateCount );
+        assertEquals( "RETRY", findRecord( "claimed by other node" ).get( "STATUS" ) );
+        assertEquals( "PROCESSED", findRecord( "claimed by this node" ).get( "STATUS" ) );
+    }
+
     @Test
     public void testDataValueSetIsCreatedGivenOrgUnitIdSchemeIsCode()
         throws
@@ -329,4 +693,81 @@ public class DeliverReportRouteBuilderFunctionalTestCase extends AbstractFunctio
         assertEquals( "2", dataValue.get().getValue().get() );
         assertTrue( dataValue.get().getComment().isPresent() );
     }
+
+    private void insertRetryRecord( String errorMessage, String claimedBy, Instant leaseUntil )
+    {
+        jdbcTemplate.update(
+            "INSERT INTO REPORT_DEAD_LETTER_CHANNEL (payload, data_set_code, report_period_offset, error_message, status, claimed_by, lease_until) VALUES (?, ?, ?, ?, 'RETRY', ?, ?)",
+            "{\"contact\": {\"uuid\": \"" + UUID.randomUUID() + "\"}}", "MAL_YEARLY", -1, errorMessage, claimedBy,
+            Timestamp.from( leaseUntil ) );
+    }
+
+    private Map<String, Object> findRecord( String errorMessage )
+    {
+        return jdbcTemplate.queryForList( "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL WHERE error_message = ?",
+            errorMessage ).get( 0 );
+    }
+
+    private Map<String, Object> awaitProcessedRecord( String errorMessage )
+        throws
+        InterruptedException
+    {
+        Map<String, Object> record = findRecord( errorMessage );
+        for ( int i = 0; i < 120 && !record.get( "STATUS" ).equals( "PROCESSED" ); i++ )
+        {
+            Thread.sleep( 1000 );
+            record = findRecord( errorMessage );
+        }
+        assertEquals( "PROCESSED", record.get( "STATUS" ) );
+        return record;
+    }
+
+    private void failDataValueSetImports( int httpStatusCode )
+        throws
+        Exception
+    {
+        AdviceWith.adviceWith( camelContext, "Transmit Report",
+            r -> r.weaveByToUri( "dhis2://post/resource?path=dataValueSets&inBody=resource&client=#dhis2Client" )
+                .replace().process( exchange -> {
+                    throw new RemoteDhis2ClientException( "DHIS2 import failed", httpStatusCode, "" );
+                } ) );
+    }
+
+    private void sendReport( String contactUuid )
+        throws
+        IOException
+    {
+        String webhookMessage = StreamUtils.copyToString(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream( "webhook.json" ),
+            Charset.defaultCharset() );
+        producerTemplate.sendBodyAndHeaders( "jms:queue:dhis2AggregateReports", ExchangePattern.InOut,
+            String.format( webhookMessage, contactUuid ), Map.of( "dataSetCode", "MAL_YEARLY" ) );
+    }
+
+    private List<Map<String, Object>> awaitRecords( int count )
+        throws
+        InterruptedException
+    {
+        List<Map<String, Object>> deadLetterChannel = jdbcTemplate.queryForList(
+            "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL ORDER BY id" );
+        for ( int i = 0; i < 120 && deadLetterChannel.size() < count; i++ )
+        {
+            Thread.sleep( 1000 );
+            deadLetterChannel = jdbcTemplate.queryForList( "SELECT * FROM REPORT_DEAD_LETTER_CHANNEL ORDER BY id" );
+        }
+        assertEquals( count, deadLetterChannel.size() );
+        return deadLetterChannel;
+    }
+
+    private Instant toInstant( Object timestamp )
+    {
+        if ( timestamp instanceof OffsetDateTime )
+        {
+            return ((OffsetDateTime) timestamp).toInstant();
+        }
+        else
+        {
+            return ((Timestamp) timestamp).toInstant();
+        }
+    }
 }
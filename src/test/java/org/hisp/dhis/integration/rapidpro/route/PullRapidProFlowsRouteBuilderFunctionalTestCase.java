@@ -42,18 +42,25 @@ import org.hisp.dhis.api.model.v40_0.DataValueSet;
 import org.hisp.dhis.api.model.v40_0.WebMessage;
 import org.hisp.dhis.integration.rapidpro.AbstractFunctionalTestCase;
 import org.hisp.dhis.integration.rapidpro.Environment;
+import org.hisp.dhis.integration.rapidpro.SelfSignedHttpClientConfigurer;
+import org.hisp.dhis.integration.rapidpro.cache.FlowRunFingerprintCache;
+import org.hisp.dhis.integration.rapidpro.metrics.FlowScanMetrics;
 import org.hisp.dhis.integration.sdk.support.period.PeriodBuilder;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static io.restassured.RestAssured.given;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -71,6 +78,12 @@ public class PullRapidProFlowsRouteBuilderFunctionalTestCase extends AbstractFun
     @Autowired
     private PullRapidProFlowsRouteBuilder pullRapidProFlowsRouteBuilder;
 
+    @Autowired
+    private FlowRunFingerprintCache flowRunFingerprintCache;
+
+    @Autowired
+    private FlowScanMetrics flowScanMetrics;
+
     @Override
     public void doBeforeEach()
     {
@@ -376,7 +389,7 @@ public class PullRapidProFlowsRouteBuilderFunctionalTestCase extends AbstractFun
         System.setProperty( "sync.rapidpro.contacts", "true" );
         ReflectionTestUtils.setField( pullRapidProFlowsRouteBuilder, "aggregateReportFlowUuids",
             aggregateReportFlowUuid );
-        AdviceWith.adviceWith( camelContext, "Scan RapidPro Flows",
+        AdviceWith.adviceWith( camelContext, "Fetch RapidPro Runs Page",
             r -> r.weaveByToUri( "${exchangeProperty.nextRunsPageUrl}" ).replace().to( "mock:rapidPro" ) );
         MockEndpoint rapidProMockEndpoint = camelContext.getEndpoint( "mock:rapidPro", MockEndpoint.class );
         rapidProMockEndpoint.whenAnyExchangeReceived( exchange -> {
@@ -419,7 +432,7 @@ public class PullRapidProFlowsRouteBuilderFunctionalTestCase extends AbstractFun
         System.setProperty( "sync.rapidpro.contacts", "true" );
         ReflectionTestUtils.setField( pullRapidProFlowsRouteBuilder, "aggregateReportFlowUuids",
             aggregateReportFlowUuid );
-        AdviceWith.adviceWith( camelContext, "Scan RapidPro Flows",
+        AdviceWith.adviceWith( camelContext, "Fetch RapidPro Runs Page",
             r -> r.weaveByToUri( "${exchangeProperty.nextRunsPageUrl}" ).replace().to( "mock:rapidPro" ) );
         MockEndpoint rapidProMockEndpoint = camelContext.getEndpoint( "mock:rapidPro", MockEndpoint.class );
         rapidProMockEndpoint.whenAnyExchangeReceived( exchange -> {
@@ -429,9 +442,12 @@ public class PullRapidProFlowsRouteBuilderFunctionalTestCase extends AbstractFun
 
             List<Map<String, Object>> results = (List<Map<String, Object>>) flowRuns.get( "results" );
             Map<String, Object> result = results.get( 0 );
+            result.put( "uuid", UUID.randomUUID().toString() );
             for ( int i = 0; i < 249; i++ )
             {
-                results.add( result );
+                Map<String, Object> otherResult = new HashMap<>( result );
+                otherResult.put( "uuid", UUID.randomUUID().toString() );
+                results.add( otherResult );
             }
 
             if ( !exchange.getProperties().get( "nextRunsPageUrl" ).equals( "mock:rapidPro?page=2" ) )
@@ -441,9 +457,8 @@ public class PullRapidProFlowsRouteBuilderFunctionalTestCase extends AbstractFun
             exchange.getMessage().setBody( objectMapper.writeValueAsString( flowRuns ) );
         } );
 
-        AdviceWith.adviceWith( camelContext, "Queue Aggregate Report",
-            r -> r.weaveByToUri( "jms:queue:dhis2AggregateReports?exchangePattern=InOnly" ).replace()
-                .to( "mock:spy" ) );
+        AdviceWith.adviceWith( camelContext, "Relay Flow Run Outbox",
+            r -> r.weaveByToUri( "jms:queue:*" ).replace().to( "mock:spy" ) );
         MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
 
         camelContext.start();
@@ -453,4 +468,265 @@ public class PullRapidProFlowsRouteBuilderFunctionalTestCase extends AbstractFun
         spyEndpoint.await( 30, TimeUnit.SECONDS );
         assertEquals( 500, spyEndpoint.getReceivedCounter() );
     }
+
+    @Test
+    public void testPullGivenDuplicateFlowRuns()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        ReflectionTestUtils.setField( pullRapidProFlowsRouteBuilder, "aggregateReportFlowUuids",
+            aggregateReportFlowUuid );
+        AdviceWith.adviceWith( camelContext, "Fetch RapidPro Runs Page",
+            r -> r.weaveByToUri( "${exchangeProperty.nextRunsPageUrl}" ).replace().to( "mock:rapidPro" ) );
+        MockEndpoint rapidProMockEndpoint = camelContext.getEndpoint( "mock:rapidPro", MockEndpoint.class );
+        rapidProMockEndpoint.whenAnyExchangeReceived( exchange -> {
+            Map<String, Object> flowRuns = objectMapper.readValue(
+                Thread.currentThread().getContextClassLoader().getResourceAsStream(
+                    "flowRuns.json" ), Map.class );
+
+            List<Map<String, Object>> results = (List<Map<String, Object>>) flowRuns.get( "results" );
+            results.add( results.get( 0 ) );
+            exchange.getMessage().setBody( objectMapper.writeValueAsString( flowRuns ) );
+        } );
+
+        AdviceWith.adviceWith( camelContext, "Relay Flow Run Outbox",
+            r -> r.weaveByToUri( "jms:queue:*" ).replace().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+
+        camelContext.start();
+
+        long failedScanCount = flowScanMetrics.getFailedScanCount().getOrDefault( aggregateReportFlowUuid, 0L );
+        producerTemplate.sendBody( "direct:pull", null );
+        producerTemplate.sendBody( "direct:pull", null );
+        assertEquals( 1, spyEndpoint.getReceivedCounter() );
+        assertEquals( 3, flowRunFingerprintCache.getSuppressedCount() );
+        assertEquals( 1, jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM FLOW_RUN_FINGERPRINT", Integer.class ) );
+    }
+
+    @Test
+    public void testPullGivenSameFlowRunReceivedFromWebhookDuringScan()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        System.setProperty( "rapidpro.webhook.enabled", "true" );
+        ReflectionTestUtils.setField( pullRapidProFlowsRouteBuilder, "aggregateReportFlowUuids",
+            aggregateReportFlowUuid );
+        Map<String, Object> flowRuns = objectMapper.readValue(
+            Thread.currentThread().getContextClassLoader().getResourceAsStream( "flowRuns.json" ), Map.class );
+        Map<String, Object> flowRun = ((List<Map<String, Object>>) flowRuns.get( "results" )).get( 0 );
+        String webhookMessage = objectMapper.writeValueAsString(
+            Map.of( "contact", flowRun.get( "contact" ), "flow", flowRun.get( "flow" ), "run",
+                Map.of( "uuid", flowRun.get( "uuid" ) ), "results", flowRun.get( "values" ) ) );
+
+        AdviceWith.adviceWith( camelContext, "Fetch RapidPro Runs Page",
+            r -> r.weaveByToUri( "${exchangeProperty.nextRunsPageUrl}" ).replace().to( "mock:rapidPro" ) );
+        MockEndpoint rapidProMockEndpoint = camelContext.getEndpoint( "mock:rapidPro", MockEndpoint.class );
+        rapidProMockEndpoint.whenAnyExchangeReceived(
+            exchange -> exchange.getMessage().setBody( objectMapper.writeValueAsString( flowRuns ) ) );
+
+        // the webhook message arrives after the scan found the flow run not to be queued but before it queues it
+        AdviceWith.adviceWith( camelContext, "Queue Aggregate Report", r -> r.weaveAddLast().process(
+            exchange -> producerTemplate.request( dhis2RapidProHttpEndpointUri
+                    + "/services/webhook?dataSetCode=MAL_YEARLY&httpClientConfigurer=#selfSignedHttpClientConfigurer&httpMethod=POST",
+                webhookExchange -> webhookExchange.getMessage().setBody( webhookMessage ) ) ) );
+        AdviceWith.adviceWith( camelContext, "Relay Flow Run Outbox",
+            r -> r.weaveByToUri( "jms:queue:*" ).replace().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+
+        camelContext.getRegistry().bind( "selfSignedHttpClientConfigurer", new SelfSignedHttpClientConfigurer() );
+        camelContext.start();
+
+        producerTemplate.sendBody( "direct:pull", null );
+        assertEquals( 1, spyEndpoint.getReceivedCounter() );
+        assertEquals( 1, flowRunFingerprintCache.getSuppressedCount() );
+        assertEquals( 1, jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM FLOW_RUN_FINGERPRINT", Integer.class ) );
+        assertEquals( 0, jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM FLOW_RUN_OUTBOX", Integer.class ) );
+    }
+
+    @Test
+    public void testPullGivenFailingFlow()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        String failingFlowUuid = UUID.randomUUID().toString();
+        ReflectionTestUtils.setField( pullRapidProFlowsRouteBuilder, "aggregateReportFlowUuids",
+            failingFlowUuid + "," + aggregateReportFlowUuid );
+        AdviceWith.adviceWith( camelContext, "Fetch RapidPro Runs Page",
+            r -> r.weaveByToUri( "${exchangeProperty.nextRunsPageUrl}" ).replace().to( "mock:rapidPro" ) );
+        MockEndpoint rapidProMockEndpoint = camelContext.getEndpoint( "mock:rapidPro", MockEndpoint.class );
+        rapidProMockEndpoint.whenAnyExchangeReceived( exchange -> {
+            if ( exchange.getMessage().getHeader( "flowUuid" ).equals( failingFlowUuid ) )
+            {
+                throw new RuntimeException( "RapidPro is unavailable" );
+            }
+            Map<String, Object> flowRuns = objectMapper.readValue(
+                Thread.currentThread().getContextClassLoader().getResourceAsStream(
+                    "flowRuns.json" ), Map.class );
+
+            List<Map<String, Object>> results = (List<Map<String, Object>>) flowRuns.get( "results" );
+            results.get( 0 ).put( "uuid", UUID.randomUUID().toString() );
+            exchange.getMessage().setBody( objectMapper.writeValueAsString( flowRuns ) );
+        } );
+
+        AdviceWith.adviceWith( camelContext, "Relay Flow Run Outbox",
+            r -> r.weaveByToUri( "jms:queue:*" ).replace().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+
+        camelContext.start();
+
+        producerTemplate.sendBody( "direct:pull", null );
+        assertEquals( 1, spyEndpoint.getReceivedCounter() );
+        assertEquals( 0,
+            jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM POLLER WHERE flow_uuid = ?", Integer.class,
+                failingFlowUuid ) );
+        assertEquals( 1,
+            jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM POLLER WHERE flow_uuid = ?", Integer.class,
+                aggregateReportFlowUuid ) );
+        assertEquals( 1L, flowScanMetrics.getFailedScanCount().get( failingFlowUuid ) );
+        assertTrue( flowScanMetrics.getLastScanDurationMillis().containsKey( aggregateReportFlowUuid ) );
+    }
+
+    @Test
+    public void testPullGivenFailureAfterFirstPage()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        ReflectionTestUtils.setField( pullRapidProFlowsRouteBuilder, "aggregateReportFlowUuids",
+            aggregateReportFlowUuid );
+        AdviceWith.adviceWith( camelContext, "Fetch RapidPro Runs Page",
+            r -> r.weaveByToUri( "${exchangeProperty.nextRunsPageUrl}" ).replace().to( "mock:rapidPro" ) );
+        MockEndpoint rapidProMockEndpoint = camelContext.getEndpoint( "mock:rapidPro", MockEndpoint.class );
+        rapidProMockEndpoint.whenAnyExchangeReceived( exchange -> {
+            if ( exchange.getProperties().get( "nextRunsPageUrl" ).equals( "mock:rapidPro?page=2" ) )
+            {
+                throw new RuntimeException( "RapidPro is unavailable" );
+            }
+            Map<String, Object> flowRuns = objectMapper.readValue(
+                Thread.currentThread().getContextClassLoader().getResourceAsStream(
+                    "flowRuns.json" ), Map.class );
+
+            Map<String, Object> result = ((List<Map<String, Object>>) flowRuns.get( "results" )).get( 0 );
+            result.put( "uuid", UUID.randomUUID().toString() );
+            result.put( "modified_on", "2023-01-02T00:00:00.000Z" );
+            flowRuns.put( "next", "mock:rapidPro?page=2" );
+            exchange.getMessage().setBody( objectMapper.writeValueAsString( flowRuns ) );
+        } );
+
+        AdviceWith.adviceWith( camelContext, "Relay Flow Run Outbox",
+            r -> r.weaveByToUri( "jms:queue:*" ).replace().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+
+        camelContext.start();
+
+        producerTemplate.sendBody( "direct:pull", null );
+        assertEquals( 1, spyEndpoint.getReceivedCounter() );
+        assertEquals( 0, jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM FLOW_RUN_OUTBOX", Integer.class ) );
+        assertEquals( Instant.parse( "2023-01-02T00:00:00.000Z" ),
+            jdbcTemplate.queryForObject( "SELECT last_run_at FROM POLLER WHERE flow_uuid = ?", Timestamp.class,
+                aggregateReportFlowUuid ).toInstant() );
+    }
+
+    @Test
+    public void testPullGivenUnfinishedFlowRun()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        ReflectionTestUtils.setField( pullRapidProFlowsRouteBuilder, "aggregateReportFlowUuids",
+            aggregateReportFlowUuid );
+        String runUuid = UUID.randomUUID().toString();
+        AtomicBoolean exited = new AtomicBoolean( false );
+        AdviceWith.adviceWith( camelContext, "Fetch RapidPro Runs Page",
+            r -> r.weaveByToUri( "${exchangeProperty.nextRunsPageUrl}" ).replace().to( "mock:rapidPro" ) );
+        MockEndpoint rapidProMockEndpoint = camelContext.getEndpoint( "mock:rapidPro", MockEndpoint.class );
+        rapidProMockEndpoint.whenAnyExchangeReceived( exchange -> {
+            Map<String, Object> flowRuns = objectMapper.readValue(
+                Thread.currentThread().getContextClassLoader().getResourceAsStream(
+                    "flowRuns.json" ), Map.class );
+
+            List<Map<String, Object>> results = (List<Map<String, Object>>) flowRuns.get( "results" );
+            Map<String, Object> result = results.get( 0 );
+            result.put( "uuid", runUuid );
+            result.put( "modified_on", "2023-01-01T00:00:00.000Z" );
+            if ( !exited.get() )
+            {
+                result.put( "exited_on", null );
+                result.put( "exit_type", null );
+            }
+            else if ( !((String) exchange.getProperties().get( "nextRunsPageUrl" )).contains( "uuid=" + runUuid ) )
+            {
+                results.clear();
+            }
+            exchange.getMessage().setBody( objectMapper.writeValueAsString( flowRuns ) );
+        } );
+
+        AdviceWith.adviceWith( camelContext, "Relay Flow Run Outbox",
+            r -> r.weaveByToUri( "jms:queue:*" ).replace().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+
+        camelContext.start();
+
+        producerTemplate.sendBody( "direct:pull", null );
+        assertEquals( 0, spyEndpoint.getReceivedCounter() );
+        assertEquals( 1, jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM PENDING_FLOW_RUN WHERE run_uuid = ?",
+            Integer.class, runUuid ) );
+        assertTrue( jdbcTemplate.queryForObject( "SELECT last_run_at FROM POLLER WHERE flow_uuid = ?", Timestamp.class,
+            aggregateReportFlowUuid ).toInstant().isAfter( Instant.parse( "2023-01-01T00:00:00.000Z" ) ) );
+
+        exited.set( true );
+        producerTemplate.sendBody( "direct:pull", null );
+        assertEquals( 1, spyEndpoint.getReceivedCounter() );
+        assertEquals( 0, jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM PENDING_FLOW_RUN WHERE run_uuid = ?",
+            Integer.class, runUuid ) );
+    }
+
+    @Test
+    public void testPullGivenFailingPendingFlowRunRecheck()
+        throws
+        Exception
+    {
+        System.setProperty( "sync.rapidpro.contacts", "true" );
+        ReflectionTestUtils.setField( pullRapidProFlowsRouteBuilder, "aggregateReportFlowUuids",
+            aggregateReportFlowUuid );
+        String runUuid = UUID.randomUUID().toString();
+        AdviceWith.adviceWith( camelContext, "Fetch RapidPro Runs Page",
+            r -> r.weaveByToUri( "${exchangeProperty.nextRunsPageUrl}" ).replace().to( "mock:rapidPro" ) );
+        MockEndpoint rapidProMockEndpoint = camelContext.getEndpoint( "mock:rapidPro", MockEndpoint.class );
+        rapidProMockEndpoint.whenAnyExchangeReceived( exchange -> {
+            if ( ((String) exchange.getProperties().get( "nextRunsPageUrl" )).contains( "uuid=" + runUuid ) )
+            {
+                throw new RuntimeException( "RapidPro is unavailable" );
+            }
+            Map<String, Object> flowRuns = objectMapper.readValue(
+                Thread.currentThread().getContextClassLoader().getResourceAsStream(
+                    "flowRuns.json" ), Map.class );
+
+            Map<String, Object> result = ((List<Map<String, Object>>) flowRuns.get( "results" )).get( 0 );
+            result.put( "uuid", runUuid );
+            result.put( "modified_on", "2023-01-01T00:00:00.000Z" );
+            result.put( "exited_on", null );
+            result.put( "exit_type", null );
+            exchange.getMessage().setBody( objectMapper.writeValueAsString( flowRuns ) );
+        } );
+
+        AdviceWith.adviceWith( camelContext, "Relay Flow Run Outbox",
+            r -> r.weaveByToUri( "jms:queue:*" ).replace().to( "mock:spy" ) );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+
+        camelContext.start();
+
+        long failedScanCount = flowScanMetrics.getFailedScanCount().getOrDefault( aggregateReportFlowUuid, 0L );
+        producerTemplate.sendBody( "direct:pull", null );
+        producerTemplate.sendBody( "direct:pull", null );
+        assertEquals( 0, spyEndpoint.getReceivedCounter() );
+        assertEquals( 1, jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM PENDING_FLOW_RUN WHERE run_uuid = ?",
+            Integer.class, runUuid ) );
+        assertEquals( failedScanCount,
+            flowScanMetrics.getFailedScanCount().getOrDefault( aggregateReportFlowUuid, 0L ) );
+        assertTrue( flowScanMetrics.getLastScanDurationMillis().containsKey( aggregateReportFlowUuid ) );
+    }
 }
@@ -52,6 +52,7 @@ import java.util.concurrent.CountDownLatch;
 
 import static org.hisp.dhis.integration.rapidpro.Environment.DHIS2_CLIENT;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 public class QueueProgramStageEventsRouteBuilderFunctionalTestCase extends AbstractFunctionalTestCase
 {
@@ -369,6 +370,7 @@ public class QueueProgramStageEventsRouteBuilderFunctionalTestCase extends Abstr
             r -> r.interceptSendToEndpoint( "jms:queue:events?exchangePattern=InOnly" ).to( "mock:spy" ).stop() );
         MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
         spyEndpoint.setExpectedCount( 1 );
+        spyEndpoint.setAssertPeriod( 5000 );
 
         camelContext.start();
         producerTemplate.sendBody( "direct:queueEvents", ExchangePattern.InOut, null );
@@ -440,4 +442,138 @@ public class QueueProgramStageEventsRouteBuilderFunctionalTestCase extends Abstr
         assertEquals( 0, expectedLogMessage.getCount() );
     }
 
+    @Test
+    public void testEventStatusUpdateErrorIsSavedInDeadLetterChannel()
+        throws
+        Exception
+    {
+        Environment.createDhis2TrackedEntitiesWithEnrollment( Environment.ORG_UNIT_ID, 1, List.of( "ZP5HZ87wzc0" ) );
+        Map<String, Object> payload = (Map<String, Object>) DHIS2_CLIENT.get( "tracker/events" )
+            .transfer()
+            .returnAs( Map.class );
+        Map<String, Object> event = ((List<Map<String, Object>>) payload.get( "instances" )).get( 0 );
+
+        AdviceWith.adviceWith( camelContext, "Post Event Status Update",
+            r -> r.weaveByToUri( "dhis2://post/resource?path=tracker&inBody=resource&client=#dhis2Client" )
+                .replace().to( "mock:dhis2" ) );
+        MockEndpoint fakeDhis2Endpoint = camelContext.getEndpoint( "mock:dhis2", MockEndpoint.class );
+        fakeDhis2Endpoint.whenAnyExchangeReceived(
+            exchange -> exchange.getMessage().setBody( "{\"status\": \"ERROR\"}" ) );
+
+        camelContext.start();
+        producerTemplate.sendBodyAndProperty( "direct:updateDhisProgramStageEventStatus", null, "eventPayload", event );
+
+        List<Map<String, Object>> deadLetterChannel = jdbcTemplate.queryForList(
+            "SELECT * FROM EVENT_DEAD_LETTER_CHANNEL" );
+        assertEquals( 1, deadLetterChannel.size() );
+        assertEquals( event.get( "event" ), deadLetterChannel.get( 0 ).get( "EVENT_ID" ) );
+        assertEquals( "ERROR", deadLetterChannel.get( 0 ).get( "STATUS" ) );
+        assertEquals( "PERMANENT", deadLetterChannel.get( 0 ).get( "ERROR_CLASS" ) );
+        List<Map<String, Object>> events = (List<Map<String, Object>>) objectMapper.readValue(
+            (String) deadLetterChannel.get( 0 ).get( "PAYLOAD" ), Map.class ).get( "events" );
+        assertEquals( event.get( "event" ), events.get( 0 ).get( "event" ) );
+    }
+
+    @Test
+    public void testQueueEventsSkipsEventsPendingInDeadLetterChannel()
+        throws
+        Exception
+    {
+        Environment.createDhis2TrackedEntitiesWithEnrollment( Environment.ORG_UNIT_ID, 2, List.of( "ZP5HZ87wzc0" ) );
+        Map<String, Object> payload = (Map<String, Object>) DHIS2_CLIENT.get( "tracker/events" )
+            .transfer()
+            .returnAs( Map.class );
+        Map<String, Object> event = ((List<Map<String, Object>>) payload.get( "instances" )).get( 0 );
+        jdbcTemplate.update(
+            "INSERT INTO EVENT_DEAD_LETTER_CHANNEL (payload, event_id, status, error_message) VALUES (?, ?, 'ERROR', 'foo')",
+            "{}", event.get( "event" ) );
+
+        AdviceWith.adviceWith( camelContext, "Queue Program Stage Events",
+            r -> r.interceptSendToEndpoint( "jms:queue:events?exchangePattern=InOnly" ).to( "mock:spy" ).stop() );
+        MockEndpoint spyEndpoint = camelContext.getEndpoint( "mock:spy", MockEndpoint.class );
+        spyEndpoint.setExpectedCount( 1 );
+        spyEndpoint.setAssertPeriod( 5000 );
+
+        camelContext.start();
+        producerTemplate.sendBody( "direct:queueEvents", ExchangePattern.InOut, null );
+        spyEndpoint.assertIsSatisfied( 10000 );
+        Map<String, Object> body = objectMapper.readValue(
+            spyEndpoint.getExchanges().get( 0 ).getMessage().getBody( String.class ), Map.class );
+        assertNotEquals( event.get( "event" ), body.get( "event" ) );
+    }
+
+    @Test
+    public void testRetryEventsUpdatesEventStatusesInBatch()
+        throws
+        Exception
+    {
+        insertRetryEvents();
+        AdviceWith.adviceWith( camelContext, "Retry Events",
+            r -> r.weaveByToUri( "dhis2://post/resource?path=tracker*" ).replace().to( "mock:dhis2" ) );
+        AdviceWith.adviceWith( camelContext, "Post Event Status Update",
+            r -> r.weaveByToUri( "dhis2://post/resource?path=tracker*" ).replace().to( "mock:fallback" ) );
+        MockEndpoint dhis2Endpoint = camelContext.getEndpoint( "mock:dhis2", MockEndpoint.class );
+        dhis2Endpoint.whenAnyExchangeReceived(
+            exchange -> exchange.getMessage().setBody( "{\"status\": \"OK\"}" ) );
+        dhis2Endpoint.setExpectedCount( 1 );
+        MockEndpoint fallbackEndpoint = camelContext.getEndpoint( "mock:fallback", MockEndpoint.class );
+        fallbackEndpoint.setExpectedCount( 0 );
+
+        camelContext.start();
+        dhis2Endpoint.assertIsSatisfied( 10000 );
+        awaitProcessedRetryEvents();
+        fallbackEndpoint.assertIsSatisfied();
+        assertEquals( 0, jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM EVENT_DEAD_LETTER_CHANNEL WHERE status <> 'PROCESSED'", Integer.class ) );
+    }
+
+    @Test
+    public void testRetryEventsFallsBackToIndividualUpdatesGivenBatchFailure()
+        throws
+        Exception
+    {
+        insertRetryEvents();
+        AdviceWith.adviceWith( camelContext, "Retry Events",
+            r -> r.weaveByToUri( "dhis2://post/resource?path=tracker*" ).replace().to( "mock:dhis2" ) );
+        AdviceWith.adviceWith( camelContext, "Post Event Status Update",
+            r -> r.weaveByToUri( "dhis2://post/resource?path=tracker*" ).replace().to( "mock:fallback" ) );
+        MockEndpoint dhis2Endpoint = camelContext.getEndpoint( "mock:dhis2", MockEndpoint.class );
+        dhis2Endpoint.whenAnyExchangeReceived(
+            exchange -> exchange.getMessage().setBody( "{\"status\": \"ERROR\"}" ) );
+        MockEndpoint fallbackEndpoint = camelContext.getEndpoint( "mock:fallback", MockEndpoint.class );
+        fallbackEndpoint.whenAnyExchangeReceived(
+            exchange -> exchange.getMessage().setBody( "{\"status\": \"OK\"}" ) );
+        fallbackEndpoint.setExpectedCount( 2 );
+        fallbackEndpoint.setAssertPeriod( 2000 );
+
+        camelContext.start();
+        fallbackEndpoint.assertIsSatisfied( 10000 );
+        awaitProcessedRetryEvents();
+        assertEquals( 2, jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM EVENT_DEAD_LETTER_CHANNEL",
+            Integer.class ) );
+    }
+
+    private void insertRetryEvents()
+    {
+        for ( String eventId : List.of( "zzOD9qU8hS0", "mvA6h4nKgS1" ) )
+        {
+            jdbcTemplate.update(
+                "INSERT INTO EVENT_DEAD_LETTER_CHANNEL (payload, event_id, status, error_message) VALUES (?, ?, 'RETRY', 'foo')",
+                String.format( "{\"events\": [{\"event\": \"%s\", \"status\": \"COMPLETED\"}]}", eventId ),
+                eventId );
+        }
+    }
+
+    private void awaitProcessedRetryEvents()
+        throws
+        InterruptedException
+    {
+        for ( int i = 0; i < 100 && jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM EVENT_DEAD_LETTER_CHANNEL WHERE status = 'PROCESSED'", Integer.class ) < 2; i++ )
+        {
+            Thread.sleep( 100 );
+        }
+        assertEquals( 2, jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM EVENT_DEAD_LETTER_CHANNEL WHERE status = 'PROCESSED'", Integer.class ) );
+    }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.rapidpro.route;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.camel.CamelContext;
+import org.hisp.dhis.integration.rapidpro.audit.SuccessLogCodec;
+import org.hisp.dhis.integration.rapidpro.processor.ReportLogQueryParamSetter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.restassured.builder.RequestSpecBuilder;
+import io.restassured.specification.RequestSpecification;
+
+@SpringBootTest( webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT )
+@ActiveProfiles( "test" )
+@TestPropertySource( properties = { "dhis2.api.url=http://dhis2.test/api", "rapidpro.api.token=3048a3b9a04c1948aa5a7fd06e7592ba5a17d3d0", "rapidpro.api.url=http://rapidpro.test/api/v2",
+    "test.connection.startup=false", "camel.springboot.auto-startup=false" } )
+@DirtiesContext( classMode = DirtiesContext.ClassMode.AFTER_CLASS )
+public class ReportLogRouteBuilderTestCase
+{
+    @LocalServerPort
+    private int serverPort;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CamelContext camelContext;
+
+    @Autowired
+    private ReportLogQueryParamSetter reportLogQueryParamSetter;
+
+    private RequestSpecification managementRequestSpec;
+
+    @BeforeEach
+    public void beforeEach()
+        throws
+        Exception
+    {
+        for ( String routeId : new String[] { "List Report Dead Letters", "Count Report Dead Letters",
+            "List Report Success Log", "Count Report Success Log", "List Report Log", "Count Report Log",
+            "Reject Report Log Request" } )
+        {
+            camelContext.getRouteController().startRoute( routeId );
+        }
+        jdbcTemplate.execute( "TRUNCATE TABLE REPORT_DEAD_LETTER_CHANNEL" );
+        jdbcTemplate.execute( "TRUNCATE TABLE REPORT_SUCCESS_LOG" );
+        for ( String dataSetCode : new String[] { "MAL_YEARLY", "MAL_MONTHLY", "MAL_YEARLY" } )
+        {
+            jdbcTemplate.update(
+                "INSERT INTO REPORT_DEAD_LETTER_CHANNEL (payload, data_set_code, report_period_offset, organisation_unit_id, error_message, status) VALUES ('{}', ?, 0, 'fdc6uOvgoji', 'Import failed', 'ERROR')",
+                dataSetCode );
+        }
+
+        managementRequestSpec = new RequestSpecBuilder().setBaseUri(
+                String.format( "http://localhost:%s/dhis2rapidpro/services/reports", serverPort ) )
+            .setRelaxedHTTPSValidation().build();
+    }
+
+    @Test
+    public void testAnonymousHttpGet()
+    {
+        given( managementRequestSpec ).get( "/deadLetters" ).then().statusCode( 401 );
+    }
+
+    @Test
+    public void testListDeadLettersGivenLimit()
+    {
+        Integer nextBefore = given( managementRequestSpec ).auth().basic( "dhis2rapidpro", "dhis2rapidpro" )
+            .queryParam( "limit", 2 ).get( "/deadLetters" ).then()
+            .statusCode( 200 )
+            .body( "rows.data_set_code", contains( "MAL_YEARLY", "MAL_MONTHLY" ) )
+            .extract().path( "nextBefore" );
+
+        given( managementRequestSpec ).auth().basic( "dhis2rapidpro", "dhis2rapidpro" )
+            .queryParam( "limit", 2 ).queryParam( "before", nextBefore ).get( "/deadLetters" ).then()
+            .statusCode( 200 )
+            .body( "rows.data_set_code", contains( "MAL_YEARLY" ) )
+            .body( "nextBefore", nullValue() );
+    }
+
+    @Test
+    public void testListDeadLettersGivenFilter()
+    {
+        given( managementRequestSpec ).auth().basic( "dhis2rapidpro", "dhis2rapidpro" )
+            .queryParam( "dataSetCode", "MAL_MONTHLY" ).queryParam( "status", "ERROR" )
+            .queryParam( "from", "2000-01-01T00:00:00Z" ).get( "/deadLetters" ).then()
+            .statusCode( 200 )
+            .body( "rows.data_set_code", contains( "MAL_MONTHLY" ) );
+    }
+
+    @Test
+    public void testListDeadLettersGivenUnknownStatus()
+    {
+        given( managementRequestSpec ).auth().basic( "dhis2rapidpro", "dhis2rapidpro" )
+            .queryParam( "status", "FOO" ).get( "/deadLetters" ).then()
+            .statusCode( 400 )
+            .body( "status", equalTo( "error" ) );
+    }
+
+    @Test
+    public void testListDeadLettersGivenInvalidLimit()
+    {
+        given( managementRequestSpec ).auth().basic( "dhis2rapidpro", "dhis2rapidpro" )
+            .queryParam( "limit", 0 ).get( "/deadLetters" ).then()
+            .statusCode( 400 );
+        given( managementRequestSpec ).auth().basic( "dhis2rapidpro", "dhis2rapidpro" )
+            .queryParam( "before", "abc" ).get( "/deadLetters" ).then()
+            .statusCode( 400 );
+    }
+
+    @Test
+    public void testCountDeadLetters()
+    {
+        given( managementRequestSpec ).auth().basic( "dhis2rapidpro", "dhis2rapidpro" )
+            .queryParam( "dataSetCode", "MAL_YEARLY" ).get( "/deadLetters/count" ).then()
+            .statusCode( 200 )
+            .body( "count", equalTo( 2 ) )
+            .body( "capped", equalTo( false ) );
+    }
+
+    @Test
+    public void testCountDeadLettersGivenMaxCount()
+    {
+        ReflectionTestUtils.setField( reportLogQueryParamSetter, "maxCount", 2L );
+        try
+        {
+            given( managementRequestSpec ).auth().basic( "dhis2rapidpro", "dhis2rapidpro" )
+                .get( "/deadLetters/count" ).then()
+                .statusCode( 200 )
+                .body( "count", equalTo( 2 ) )
+                .body( "capped", equalTo( true ) );
+        }
+        finally
+        {
+            ReflectionTestUtils.setField( reportLogQueryParamSetter, "maxCount", 100000L );
+        }
+    }
+
+    @Test
+    public void testListSuccessLogDecompressesPayloads()
+    {
+        String dhisRequest = "{\"dataValues\":[" + "{\"dataElement\":\"GEN_EXT_FUND\",\"value\":\"2\"},".repeat( 20 )
+            + "]}";
+        jdbcTemplate.update(
+            "INSERT INTO REPORT_SUCCESS_LOG (dhis_request_deflated, dhis_response, rapidpro_payload, data_set_code, report_period_offset) VALUES (?, '{}', '{}', 'MAL_YEARLY', 0)",
+            SuccessLogCodec.deflate( dhisRequest ) );
+
+        given( managementRequestSpec ).auth().basic( "dhis2rapidpro", "dhis2rapidpro" )
+            .get( "/successLog" ).then()
+            .statusCode( 200 )
+            .body( "rows.dhis_request", contains( dhisRequest ) );
+        assertEquals( dhisRequest, jdbcTemplate.queryForObject(
+            "SELECT COALESCE(dhis_request, SUCCESS_LOG_INFLATE(dhis_request_deflated)) FROM REPORT_SUCCESS_LOG",
+            String.class ) );
+    }
+}